@@ -11,7 +11,11 @@ public enum NodeStatus {
 	/**
 	 * node is down
 	 */
-	DOWN;
+	DOWN,
+	/**
+	 * node did not answer within the time budget of the check
+	 */
+	TIMEOUT;
 
 	/**
 	 * is status up ?
@@ -66,7 +66,17 @@ public class SubscriptionStatusWithData {
 	 *            The status value.
 	 */
 	public SubscriptionStatusWithData(final boolean status) {
-		this.status = NodeStatus.getValue(status);
+		this(NodeStatus.getValue(status));
+	}
+
+	/**
+	 * Constructor with a status value.
+	 * 
+	 * @param status
+	 *            The status value.
+	 */
+	public SubscriptionStatusWithData(final NodeStatus status) {
+		this.status = status;
 	}
 
 	/**
@@ -1,6 +1,8 @@
 package org.ligoj.app.api;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 
 /**
  * Contract of all tools.
@@ -98,4 +100,26 @@ public interface ToolPlugin extends ServicePlugin {
 	default SubscriptionStatusWithData checkSubscriptionStatus(int subscription, String node, Map<String, String> parameters) throws Exception { // NOSONAR
 		return checkSubscriptionStatus(node, parameters);
 	}
+
+	/**
+	 * Check the status of several subscriptions of the same node at once. A tool able to answer for many subscriptions
+	 * with a single remote call should override this method. By default, each subscription is checked one by one with
+	 * {@link #checkSubscriptionStatus(int, String, Map)}.
+	 * 
+	 * @param node
+	 *            The related node identifier.
+	 * @param subscriptions
+	 *            The parameter values of each subscription to check. Key is the subscription identifier.
+	 * @return The status of the checked subscriptions. Key is the subscription identifier. A subscription missing in
+	 *         this result is checked separately by the caller.
+	 * @see #checkSubscriptionStatus(int, String, Map)
+	 */
+	default Map<Integer, SubscriptionStatusWithData> checkSubscriptionStatuses(String node,
+			Map<Integer, Map<String, String>> subscriptions) throws Exception { // NOSONAR
+		final Map<Integer, SubscriptionStatusWithData> result = new LinkedHashMap<>();
+		for (final Entry<Integer, Map<String, String>> subscription : subscriptions.entrySet()) {
+			result.put(subscription.getKey(), checkSubscriptionStatus(subscription.getKey(), node, subscription.getValue()));
+		}
+		return result;
+	}
 }
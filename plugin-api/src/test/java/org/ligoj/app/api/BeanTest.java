@@ -19,6 +19,7 @@ public class BeanTest {
 		Assertions.assertFalse(NodeStatus.valueOf(NodeStatus.values()[1].name()).isUp());
 		Assertions.assertFalse(NodeStatus.getValue(false).isUp());
 		Assertions.assertTrue(NodeStatus.getValue(true).isUp());
+		Assertions.assertFalse(NodeStatus.TIMEOUT.isUp());
 	}
 
 	@Test
@@ -27,6 +28,7 @@ public class BeanTest {
 		check(new SubscriptionStatusWithData(), SubscriptionStatusWithData::setNode, SubscriptionStatusWithData::getNode, "node");
 		check(new SubscriptionStatusWithData(), SubscriptionStatusWithData::setParameters, SubscriptionStatusWithData::getParameters,Collections.emptyMap());
 		check(new SubscriptionStatusWithData(), SubscriptionStatusWithData::setProject, SubscriptionStatusWithData::getProject, 1);
+		Assertions.assertEquals(NodeStatus.TIMEOUT, new SubscriptionStatusWithData(NodeStatus.TIMEOUT).getStatus());
 	}
 
 	private <T, X> void check(X bean, BiConsumer<X, T> setter, Function<X, T> getter, T value) {
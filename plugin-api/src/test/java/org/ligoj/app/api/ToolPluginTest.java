@@ -1,5 +1,9 @@
 package org.ligoj.app.api;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -36,6 +40,17 @@ public class ToolPluginTest {
 		Assertions.assertEquals("value", data.getData().get("some"));
 	}
 
+	@Test
+	public void checkSubscriptionStatuses() throws Exception {
+		final Map<Integer, Map<String, String>> subscriptions = new HashMap<>();
+		subscriptions.put(1, Collections.emptyMap());
+		subscriptions.put(2, Collections.emptyMap());
+		final Map<Integer, SubscriptionStatusWithData> statuses = plugin.checkSubscriptionStatuses("service:s1:t2", subscriptions);
+		Assertions.assertEquals(2, statuses.size());
+		Assertions.assertTrue(statuses.get(1).getStatus().isUp());
+		Assertions.assertTrue(statuses.get(2).getStatus().isUp());
+	}
+
 	@Test
 	public void getLastVersion() throws Exception {
 		Assertions.assertNull(plugin.getLastVersion());
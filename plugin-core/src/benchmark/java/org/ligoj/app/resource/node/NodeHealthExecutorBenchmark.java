@@ -0,0 +1,93 @@
+package org.ligoj.app.resource.node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of a {@link NodeHealthExecutor} sweep of blocking checks: the pooled mode and the virtual thread mode.
+ * Each check simulates a remote tool call with a sleep. The virtual mode requires a Java 21 runtime, otherwise the
+ * fallback cached pool is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeHealthExecutorBenchmark {
+
+	/**
+	 * Execution mode: <code>true</code> for the virtual threads.
+	 */
+	@Param({ "false", "true" })
+	public boolean virtual;
+
+	/**
+	 * Amount of checked node instances by sweep.
+	 */
+	@Param({ "100", "1000" })
+	public int nodes;
+
+	/**
+	 * Amount of distinct tools, each one having its own concurrency limit.
+	 */
+	@Param({ "50" })
+	public int tools;
+
+	/**
+	 * Simulated latency in milliseconds of a remote tool.
+	 */
+	@Param({ "20" })
+	public int latency;
+
+	private NodeHealthExecutor executor;
+
+	@Setup
+	public void prepare() {
+		System.setProperty(NodeHealthExecutor.VIRTUAL, String.valueOf(virtual));
+		System.setProperty(NodeHealthExecutor.PINNING, "0");
+		executor = new NodeHealthExecutor();
+	}
+
+	@TearDown
+	public void shutdown() {
+		executor.shutdown();
+		System.clearProperty(NodeHealthExecutor.VIRTUAL);
+		System.clearProperty(NodeHealthExecutor.PINNING);
+	}
+
+	/**
+	 * A complete sweep: all checks are submitted, then awaited.
+	 */
+	@Benchmark
+	public int sweep() {
+		final List<CompletableFuture<Boolean>> futures = new ArrayList<>(nodes);
+		for (int i = 0; i < nodes; i++) {
+			futures.add(executor.submit("service:tool:" + (i % tools), () -> {
+				try {
+					Thread.sleep(latency);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return true;
+			}));
+		}
+		futures.forEach(CompletableFuture::join);
+		return futures.size();
+	}
+}
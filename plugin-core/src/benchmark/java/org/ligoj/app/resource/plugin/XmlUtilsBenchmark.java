@@ -0,0 +1,91 @@
+package org.ligoj.app.resource.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.NodeList;
+
+/**
+ * Benchmark of the {@link XmlUtils} extractions: the former per-call factory and compilation, the cached XPATH
+ * path and the streaming path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlUtilsBenchmark {
+
+	/**
+	 * Amount of jobs in the document.
+	 */
+	@Param({ "10", "1000" })
+	public int jobs;
+
+	private final XmlUtils xmlUtils = new XmlUtils();
+	private byte[] document;
+
+	@Setup
+	public void prepare() {
+		final StringBuilder xml = new StringBuilder("<hudson>");
+		for (int i = 0; i < jobs; i++) {
+			xml.append("<job><name>job").append(i).append("</name><color>blue</color></job>");
+		}
+		document = xml.append("</hudson>").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Former implementation: new factories and compilation for each call.
+	 */
+	@Benchmark
+	public int xpathUncached() throws Exception {
+		final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setValidating(false);
+		factory.setCoalescing(false);
+		factory.setExpandEntityReferences(false);
+		factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+		factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		return ((NodeList) XPathFactory.newInstance().newXPath().compile("hudson/job/name").evaluate(
+				factory.newDocumentBuilder().parse(new ByteArrayInputStream(document)), XPathConstants.NODESET)).getLength();
+	}
+
+	/**
+	 * Reused document builder and cached compiled expression.
+	 */
+	@Benchmark
+	public int xpathCached() throws Exception {
+		return ((NodeList) xmlUtils.compile("hudson/job/name").evaluate(xmlUtils.parse(new ByteArrayInputStream(document)),
+				XPathConstants.NODESET)).getLength();
+	}
+
+	/**
+	 * Streaming extraction without DOM.
+	 */
+	@Benchmark
+	public int stream() throws Exception {
+		final Map<String, List<String>> values = xmlUtils.getTagValues(new ByteArrayInputStream(document),
+				Collections.singleton("name"));
+		return values.get("name").size();
+	}
+}
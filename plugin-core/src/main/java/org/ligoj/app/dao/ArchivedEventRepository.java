@@ -0,0 +1,33 @@
+package org.ligoj.app.dao;
+
+import org.ligoj.app.model.ArchivedEvent;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link ArchivedEvent} repository
+ */
+public interface ArchivedEventRepository extends RestRepository<ArchivedEvent, Integer> {
+
+	/**
+	 * Delete the archived events related to the given node, its children and their subscriptions.
+	 * 
+	 * @param node
+	 *            The node identifier.
+	 */
+	@Modifying
+	@Query("DELETE ArchivedEvent WHERE node.id = :node OR node.id LIKE CONCAT(:node, ':%')"
+			+ " OR subscription.id IN (SELECT id FROM Subscription WHERE node.id = :node OR node.id LIKE CONCAT(:node, ':%'))")
+	void deleteByNode(String node);
+
+	/**
+	 * Delete the archived events of the given subscription.
+	 * 
+	 * @param subscription
+	 *            The subscription identifier.
+	 */
+	@Modifying
+	@Query("DELETE ArchivedEvent WHERE subscription.id = :subscription")
+	void deleteBySubscription(int subscription);
+}
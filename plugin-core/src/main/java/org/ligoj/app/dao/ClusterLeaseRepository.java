@@ -0,0 +1,56 @@
+package org.ligoj.app.dao;
+
+import java.util.Date;
+import java.util.List;
+
+import org.ligoj.app.model.ClusterLease;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link ClusterLease} repository
+ */
+public interface ClusterLeaseRepository extends RestRepository<ClusterLease, Integer> {
+
+	/**
+	 * Return the lease of an instance.
+	 * 
+	 * @param instance
+	 *            The instance identifier.
+	 * @return The lease of this instance. May be <code>null</code>.
+	 */
+	@Query("FROM ClusterLease WHERE instance = :instance")
+	ClusterLease findByInstance(String instance);
+
+	/**
+	 * Return the current date of the database, so all instances share the same clock whatever their own clock skew.
+	 * 
+	 * @param instance
+	 *            The identifier of an instance having a lease.
+	 * @return The current date of the database.
+	 */
+	@Query("SELECT CURRENT_TIMESTAMP FROM ClusterLease WHERE instance = :instance")
+	Date getDatabaseDate(String instance);
+
+	/**
+	 * Return the identifiers of the alive instances, ordered by identifier.
+	 * 
+	 * @param now
+	 *            The current date.
+	 * @return The identifiers of the instances having a not expired lease.
+	 */
+	@Query("SELECT instance FROM ClusterLease WHERE expires > :now ORDER BY instance")
+	List<String> findAllAlive(Date now);
+
+	/**
+	 * Delete the leases expired before the given date.
+	 * 
+	 * @param horizon
+	 *            The exclusive date limit.
+	 * @return The amount of deleted leases.
+	 */
+	@Modifying
+	@Query("DELETE ClusterLease WHERE expires < :horizon")
+	int deleteExpired(Date horizon);
+}
@@ -1,7 +1,10 @@
 package org.ligoj.app.dao;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
@@ -38,6 +41,26 @@ public interface EventRepository extends RestRepository<Event, String> {
 	 */
 	Event findFirstBySubscriptionAndTypeOrderByIdDesc(Subscription subscription, EventType type);
 
+	/**
+	 * Return the last event value of each node and subscription for a type.
+	 * 
+	 * @param type
+	 *            The event type.
+	 * @return The node identifier, the subscription identifier and the value of each last event. Either the node,
+	 *         either the subscription is <code>null</code>.
+	 */
+	@Query("SELECT n.id, s.id, event.value FROM LastEvent last INNER JOIN last.event event LEFT JOIN last.node n"
+			+ " LEFT JOIN last.subscription s WHERE last.type = :type")
+	List<Object[]> findLastValues(EventType type);
+
+	/**
+	 * Return the last event of each node, subscription and type from the whole event history.
+	 * 
+	 * @return The last events found in the history.
+	 */
+	@Query("FROM Event e WHERE e.id IN (SELECT MAX(l.id) FROM Event l GROUP BY l.node, l.subscription, l.type)")
+	List<Event> findAllLastFromHistory();
+
 	/**
 	 * Return last events of all visible nodes for a given user.
 	 * 
@@ -45,9 +68,8 @@ public interface EventRepository extends RestRepository<Event, String> {
 	 *            The user requesting the nodes.
 	 * @return last events of all nodes.
 	 */
-	@Query("SELECT event FROM Event event INNER JOIN FETCH event.node n INNER JOIN FETCH n.refined tool INNER JOIN tool.refined root"
-			+ " WHERE event.id = (SELECT MAX(lastEvent.id) FROM Event lastEvent WHERE lastEvent.node = n) AND "
-			+ NodeRepository.VISIBLE_NODES)
+	@Query("SELECT event FROM LastEvent last INNER JOIN last.event event INNER JOIN FETCH event.node n"
+			+ " INNER JOIN FETCH n.refined tool INNER JOIN tool.refined root WHERE " + NodeRepository.VISIBLE_NODES)
 	List<Event> findLastEvents(String user);
 
 	/**
@@ -59,7 +81,7 @@ public interface EventRepository extends RestRepository<Event, String> {
 	 *            The related node.
 	 * @return last events of a specific node.
 	 */
-	@Query("FROM Event e INNER JOIN e.node n WHERE id = (SELECT MAX(lastEvent.id) FROM Event lastEvent WHERE lastEvent.node = n) AND n.id = :node AND"
+	@Query("SELECT event FROM LastEvent last INNER JOIN last.event event INNER JOIN last.node n WHERE n.id = :node AND "
 			+ NodeRepository.VISIBLE_NODES)
 	Event findLastEvent(String user, String node);
 
@@ -70,8 +92,8 @@ public interface EventRepository extends RestRepository<Event, String> {
 	 *            Project identifier.
 	 * @return all events
 	 */
-	@Query("SELECT event FROM Event event INNER JOIN FETCH event.subscription sub "
-			+ " WHERE sub.project.id = :project AND event.id = (SELECT MAX(lastEvent.id) FROM Event lastEvent WHERE lastEvent.subscription = sub)")
+	@Query("SELECT event FROM LastEvent last INNER JOIN last.event event INNER JOIN FETCH event.subscription sub"
+			+ " WHERE sub.project.id = :project")
 	List<Event> findLastEvents(int project);
 
 	/**
@@ -81,11 +103,47 @@ public interface EventRepository extends RestRepository<Event, String> {
 	 *            The user requesting the nodes.
 	 * @return subscriptions events count
 	 */
-	@Query("SELECT n.id, event.value, count(event) FROM Event event INNER JOIN event.subscription sub LEFT JOIN sub.node n"
-			+ " WHERE event.id = (SELECT MAX(lastEvent.id) FROM Event lastEvent WHERE lastEvent.subscription = sub) AND "
-			+ NodeRepository.VISIBLE_NODES + " GROUP BY event.value, n.id")
+	@Query("SELECT n.id, event.value, count(event) FROM LastEvent last INNER JOIN last.event event INNER JOIN last.subscription sub"
+			+ " LEFT JOIN sub.node n WHERE " + NodeRepository.VISIBLE_NODES + " GROUP BY event.value, n.id")
 	List<Object[]> countSubscriptionsEvents(String user);
 
+	/**
+	 * Return the events older than the given date, excluding the last events. Ordered by identifier.
+	 * 
+	 * @param horizon
+	 *            The exclusive date limit.
+	 * @param from
+	 *            The exclusive lower identifier, used to iterate over the events.
+	 * @param page
+	 *            The page limiting the amount of events.
+	 * @return The old events.
+	 */
+	@Query("FROM Event e WHERE e.date < :horizon AND e.id > :from AND NOT EXISTS (SELECT 1 FROM LastEvent l WHERE l.event = e)"
+			+ " ORDER BY e.id")
+	List<Event> findAllExpired(Date horizon, int from, Pageable page);
+
+	/**
+	 * Return the date of the event following each given event, for the same node or subscription and type.
+	 * 
+	 * @param events
+	 *            The event identifiers.
+	 * @return The event identifier and the date of the next event. Events without next event are not returned.
+	 */
+	@Query("SELECT e.id, n.date FROM Event e, Event n WHERE e.id IN (:events) AND n.id = (SELECT MIN(m.id) FROM Event m"
+			+ " WHERE m.type = e.type AND m.id > e.id AND (m.node = e.node OR m.subscription = e.subscription))")
+	List<Object[]> findNextDates(Collection<Integer> events);
+
+	/**
+	 * Delete the given events.
+	 * 
+	 * @param events
+	 *            The event identifiers.
+	 * @return The amount of deleted events.
+	 */
+	@Modifying
+	@Query("DELETE Event WHERE id IN (:events)")
+	int deleteByIds(Collection<Integer> events);
+
 	/**
 	 * Delete all events related to the given node.
 	 * 
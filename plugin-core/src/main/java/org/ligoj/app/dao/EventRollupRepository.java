@@ -0,0 +1,85 @@
+package org.ligoj.app.dao;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.ligoj.app.model.EventRollup;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link EventRollup} repository
+ */
+public interface EventRollupRepository extends RestRepository<EventRollup, Integer> {
+
+	/**
+	 * Return the rollups of the given nodes within a period.
+	 * 
+	 * @param nodes
+	 *            The node identifiers. Must not be empty.
+	 * @param from
+	 *            The first day, inclusive.
+	 * @param to
+	 *            The last day, inclusive.
+	 * @return The rollups of this period.
+	 */
+	@Query("FROM EventRollup WHERE node.id IN (:nodes) AND day BETWEEN :from AND :to")
+	List<EventRollup> findAllByNodes(Collection<String> nodes, Date from, Date to);
+
+	/**
+	 * Return the rollups of the given subscriptions within a period.
+	 * 
+	 * @param subscriptions
+	 *            The subscription identifiers. Must not be empty.
+	 * @param from
+	 *            The first day, inclusive.
+	 * @param to
+	 *            The last day, inclusive.
+	 * @return The rollups of this period.
+	 */
+	@Query("FROM EventRollup WHERE subscription.id IN (:subscriptions) AND day BETWEEN :from AND :to")
+	List<EventRollup> findAllBySubscriptions(Collection<Integer> subscriptions, Date from, Date to);
+
+	/**
+	 * Return the rollups of a node, the oldest first.
+	 * 
+	 * @param node
+	 *            The node identifier.
+	 * @return The rollups of this node.
+	 */
+	@Query("FROM EventRollup WHERE node.id = :node ORDER BY day, value")
+	List<EventRollup> findAllByNode(String node);
+
+	/**
+	 * Return the rollups of a subscription, the oldest first.
+	 * 
+	 * @param subscription
+	 *            The subscription identifier.
+	 * @return The rollups of this subscription.
+	 */
+	@Query("FROM EventRollup WHERE subscription.id = :subscription ORDER BY day, value")
+	List<EventRollup> findAllBySubscription(int subscription);
+
+	/**
+	 * Delete the rollups related to the given node, its children and their subscriptions.
+	 * 
+	 * @param node
+	 *            The node identifier.
+	 */
+	@Modifying
+	@Query("DELETE EventRollup WHERE node.id = :node OR node.id LIKE CONCAT(:node, ':%')"
+			+ " OR subscription.id IN (SELECT id FROM Subscription WHERE node.id = :node OR node.id LIKE CONCAT(:node, ':%'))")
+	void deleteByNode(String node);
+
+	/**
+	 * Delete the rollups of the given subscription.
+	 * 
+	 * @param subscription
+	 *            The subscription identifier.
+	 */
+	@Modifying
+	@Query("DELETE EventRollup WHERE subscription.id = :subscription")
+	void deleteBySubscription(int subscription);
+}
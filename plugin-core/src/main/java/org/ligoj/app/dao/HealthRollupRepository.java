@@ -0,0 +1,46 @@
+package org.ligoj.app.dao;
+
+import java.util.Date;
+import java.util.List;
+
+import org.ligoj.app.model.HealthRollup;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link HealthRollup} repository
+ */
+public interface HealthRollupRepository extends RestRepository<HealthRollup, Integer> {
+
+	/**
+	 * Return the health summaries of a node, the oldest first.
+	 * 
+	 * @param node
+	 *            The node identifier.
+	 * @return The health summaries of this node.
+	 */
+	@Query("FROM HealthRollup WHERE node.id = :node ORDER BY period, subscriptions")
+	List<HealthRollup> findAllByNode(String node);
+
+	/**
+	 * Delete the health summaries of the given node and its children.
+	 * 
+	 * @param node
+	 *            The parent node identifier.
+	 */
+	@Modifying
+	@Query("DELETE HealthRollup WHERE node.id = :node OR node.id LIKE CONCAT(:node, ':%')")
+	void deleteByNode(String node);
+
+	/**
+	 * Delete the health summaries older than the given date.
+	 * 
+	 * @param horizon
+	 *            The exclusive date limit.
+	 * @return The amount of deleted summaries.
+	 */
+	@Modifying
+	@Query("DELETE HealthRollup WHERE period < :horizon")
+	int deleteOlder(Date horizon);
+}
@@ -0,0 +1,87 @@
+package org.ligoj.app.dao;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.ligoj.app.model.EventType;
+import org.ligoj.app.model.LastEvent;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link LastEvent} repository
+ */
+public interface LastEventRepository extends RestRepository<LastEvent, Integer> {
+
+	/**
+	 * Return the last event of a node for a type.
+	 * 
+	 * @param node
+	 *            The node identifier.
+	 * @param type
+	 *            The event type.
+	 * @return The last event or <code>null</code>.
+	 */
+	@Query("FROM LastEvent WHERE node.id = :node AND type = :type")
+	LastEvent findByNode(String node, EventType type);
+
+	/**
+	 * Return the last value of a node for a type.
+	 * 
+	 * @param node
+	 *            The node identifier.
+	 * @param type
+	 *            The event type.
+	 * @return The last value or <code>null</code>.
+	 */
+	@Query("SELECT e.value FROM LastEvent l INNER JOIN l.event e WHERE l.node.id = :node AND l.type = :type")
+	String findLastValue(String node, EventType type);
+
+	/**
+	 * Return the last values of the given subscriptions for a type.
+	 * 
+	 * @param subscriptions
+	 *            The subscription identifiers.
+	 * @param type
+	 *            The event type.
+	 * @return The subscription identifier (index=0) and its last value (index=1). Subscriptions without event are not
+	 *         returned.
+	 */
+	@Query("SELECT l.subscription.id, e.value FROM LastEvent l INNER JOIN l.event e"
+			+ " WHERE l.subscription.id IN (:subscriptions) AND l.type = :type")
+	List<Object[]> findLastValues(Collection<Integer> subscriptions, EventType type);
+
+	/**
+	 * Return the last events of the given subscriptions for a type.
+	 * 
+	 * @param subscriptions
+	 *            The subscription identifiers.
+	 * @param type
+	 *            The event type.
+	 * @return The last events. Subscriptions without event are not returned.
+	 */
+	@Query("FROM LastEvent WHERE subscription.id IN (:subscriptions) AND type = :type")
+	List<LastEvent> findAllBySubscriptions(Collection<Integer> subscriptions, EventType type);
+
+	/**
+	 * Delete the last events related to the given node, its children and their subscriptions.
+	 * 
+	 * @param node
+	 *            The node identifier.
+	 */
+	@Modifying
+	@Query("DELETE LastEvent WHERE node.id = :node OR node.id LIKE CONCAT(:node, ':%')"
+			+ " OR subscription.id IN (SELECT id FROM Subscription WHERE node.id = :node OR node.id LIKE CONCAT(:node, ':%'))")
+	void deleteByNode(String node);
+
+	/**
+	 * Delete the last events of the given subscription.
+	 * 
+	 * @param subscription
+	 *            The subscription identifier.
+	 */
+	@Modifying
+	@Query("DELETE LastEvent WHERE subscription.id = :subscription")
+	void deleteBySubscription(int subscription);
+}
@@ -2,12 +2,15 @@ package org.ligoj.app.dao;
 
 import java.util.List;
 
+import javax.persistence.LockModeType;
+
 import org.ligoj.app.api.SubscriptionMode;
 import org.ligoj.app.iam.dao.DelegateOrgRepository;
 import org.ligoj.app.model.Node;
 import org.ligoj.bootstrap.core.dao.RestRepository;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 
 /**
@@ -175,4 +178,15 @@ public interface NodeRepository extends RestRepository<Node, String> {
 	@Query("SELECT count(id) FROM Node WHERE refined.refined.id = ?1 OR refined.id = ?1")
 	int countByRefined(String node);
 
+	/**
+	 * Return a {@link Node} by its identifier and lock it until the end of the current transaction.
+	 * 
+	 * @param id
+	 *            The node identifier.
+	 * @return The locked node or <code>null</code>.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("FROM Node WHERE id = :id")
+	Node findOneForUpdate(String id);
+
 }
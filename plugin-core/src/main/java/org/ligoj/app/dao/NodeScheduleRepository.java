@@ -0,0 +1,48 @@
+package org.ligoj.app.dao;
+
+import java.util.Date;
+import java.util.List;
+
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.NodeSchedule;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link NodeSchedule} repository
+ */
+public interface NodeScheduleRepository extends RestRepository<NodeSchedule, Integer> {
+
+	/**
+	 * Return the node instances without schedule.
+	 * 
+	 * @return The node instances without schedule.
+	 */
+	@Query("SELECT n FROM Node n INNER JOIN n.refined tool WHERE tool.refined IS NOT NULL"
+			+ " AND NOT EXISTS (SELECT 1 FROM NodeSchedule s WHERE s.node = n)")
+	List<Node> findAllUnscheduled();
+
+	/**
+	 * Return the schedules due at the given date, the oldest first.
+	 * 
+	 * @param now
+	 *            The current date.
+	 * @param page
+	 *            The page limiting the amount of schedules.
+	 * @return The due schedules.
+	 */
+	@Query("FROM NodeSchedule s INNER JOIN FETCH s.node WHERE s.next <= :now ORDER BY s.next")
+	List<NodeSchedule> findAllDue(Date now, Pageable page);
+
+	/**
+	 * Delete the schedules of the given node and its children.
+	 * 
+	 * @param node
+	 *            The parent node identifier.
+	 */
+	@Modifying
+	@Query("DELETE NodeSchedule WHERE node.id = :node OR node.id LIKE CONCAT(:node, ':%')")
+	void deleteByNode(String node);
+}
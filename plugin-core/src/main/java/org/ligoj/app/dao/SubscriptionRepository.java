@@ -1,9 +1,13 @@
 package org.ligoj.app.dao;
 
+import java.util.Collection;
 import java.util.List;
 
+import javax.persistence.LockModeType;
+
 import org.ligoj.app.model.Subscription;
 import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 
 /**
@@ -112,4 +116,16 @@ public interface SubscriptionRepository extends RestRepository<Subscription, Int
 	 */
 	@Query("SELECT COUNT(id) FROM Subscription WHERE project.id = :project")
 	long countByProject(int project);
+
+	/**
+	 * Return the given subscriptions and lock them until the end of the current transaction. The subscriptions are
+	 * locked in the order of their identifier, so concurrent transactions cannot deadlock.
+	 * 
+	 * @param subscriptions
+	 *            The subscription identifiers.
+	 * @return The locked subscriptions.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("FROM Subscription WHERE id IN (:subscriptions) ORDER BY id")
+	List<Subscription> findAllForUpdate(Collection<Integer> subscriptions);
 }
@@ -0,0 +1,65 @@
+package org.ligoj.app.model;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.ConstraintMode;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.ForeignKey;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.validator.constraints.Length;
+import org.ligoj.bootstrap.core.model.AbstractPersistable;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * {@link Event} moved out of the event table after the retention horizon.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "LIGOJ_EVENT_ARCHIVE")
+public class ArchivedEvent extends AbstractPersistable<Integer> {
+
+	/**
+	 * Type of event : status, ...
+	 */
+	@Enumerated(EnumType.STRING)
+	@Column(length = 10)
+	private EventType type;
+
+	/**
+	 * Value of the event : up, down, ...
+	 */
+	@Length(max = 100)
+	private String value;
+
+	/**
+	 * Date of event.
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date date;
+
+	/**
+	 * Optional linked node. Either this attribute, either {@link #subscription} is not <code>null</code>.
+	 */
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+	private Node node;
+
+	/**
+	 * Optional linked subscription. Either this attribute, either {@link #node} is not <code>null</code>.
+	 */
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+	private Subscription subscription;
+}
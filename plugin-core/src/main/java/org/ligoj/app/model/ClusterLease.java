@@ -0,0 +1,40 @@
+package org.ligoj.app.model;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
+import javax.validation.constraints.NotNull;
+
+import org.ligoj.bootstrap.core.model.AbstractPersistable;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Lease of a running application instance. An instance is alive while its lease is renewed before its expiration.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "LIGOJ_CLUSTER_LEASE", uniqueConstraints = @UniqueConstraint(columnNames = "instance"))
+public class ClusterLease extends AbstractPersistable<Integer> {
+
+	/**
+	 * The instance identifier.
+	 */
+	@NotNull
+	@Column(length = 255)
+	private String instance;
+
+	/**
+	 * Expiration date of this lease.
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	@NotNull
+	private Date expires;
+}
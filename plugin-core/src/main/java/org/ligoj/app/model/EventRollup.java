@@ -0,0 +1,79 @@
+package org.ligoj.app.model;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.ConstraintMode;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.ForeignKey;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.Length;
+import org.ligoj.bootstrap.core.model.AbstractPersistable;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Daily summary of the compacted events of a node or a subscription for a type and a value : the time spent with this
+ * value and the amount of transitions to this value.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "LIGOJ_EVENT_ROLLUP")
+public class EventRollup extends AbstractPersistable<Integer> {
+
+	/**
+	 * The summarized day.
+	 */
+	@Temporal(TemporalType.DATE)
+	@NotNull
+	private Date day;
+
+	/**
+	 * Type of event : status, ...
+	 */
+	@Enumerated(EnumType.STRING)
+	@Column(length = 10)
+	@NotNull
+	private EventType type;
+
+	/**
+	 * Value of the events : up, down, ...
+	 */
+	@Length(max = 100)
+	private String value;
+
+	/**
+	 * Optional linked node. Either this attribute, either {@link #subscription} is not <code>null</code>.
+	 */
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+	private Node node;
+
+	/**
+	 * Optional linked subscription. Either this attribute, either {@link #node} is not <code>null</code>.
+	 */
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+	private Subscription subscription;
+
+	/**
+	 * Time in milliseconds spent with this value during this day.
+	 */
+	private long duration;
+
+	/**
+	 * Amount of transitions to this value during this day.
+	 */
+	private int transitions;
+}
@@ -0,0 +1,91 @@
+package org.ligoj.app.model;
+
+import java.util.Date;
+
+import javax.persistence.ConstraintMode;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.ForeignKey;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.Length;
+import org.ligoj.bootstrap.core.model.AbstractPersistable;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Summary of the health checks of a node instance, or of its subscriptions, during a period : amount of checks, their
+ * outcome and their duration.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "LIGOJ_HEALTH_ROLLUP")
+public class HealthRollup extends AbstractPersistable<Integer> {
+
+	/**
+	 * The checked node instance.
+	 */
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+	@NotNull
+	@JsonIgnore
+	private Node node;
+
+	/**
+	 * When <code>true</code>, this summary is about the checks of the subscriptions of this node. Otherwise, about the
+	 * checks of the node itself.
+	 */
+	private boolean subscriptions;
+
+	/**
+	 * End of the summarized period.
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	@NotNull
+	private Date period;
+
+	/**
+	 * Amount of checks.
+	 */
+	private int checks;
+
+	/**
+	 * Amount of checks not answering {@link org.ligoj.app.api.NodeStatus#UP}, including the time outs.
+	 */
+	private int failures;
+
+	/**
+	 * Amount of checks exceeding their time budget.
+	 */
+	private int timeouts;
+
+	/**
+	 * Median duration in milliseconds.
+	 */
+	private long p50;
+
+	/**
+	 * 95th percentile of the duration in milliseconds.
+	 */
+	private long p95;
+
+	/**
+	 * Maximal duration in milliseconds.
+	 */
+	private long max;
+
+	/**
+	 * Class name of the last error. May be <code>null</code>.
+	 */
+	@Length(max = 255)
+	private String error;
+}
@@ -0,0 +1,62 @@
+package org.ligoj.app.model;
+
+import javax.persistence.Column;
+import javax.persistence.ConstraintMode;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.ForeignKey;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.validation.constraints.NotNull;
+
+import org.ligoj.bootstrap.core.model.AbstractPersistable;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Last {@link Event} of a node or a subscription for a type. Maintained with the events, so the current status does
+ * not require to search the whole event history. There is no foreign key, so the events and subscriptions can still be
+ * deleted directly: the orphan rows are ignored by the inner joins of the queries.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "LIGOJ_LAST_EVENT", uniqueConstraints = { @UniqueConstraint(columnNames = { "node", "type" }),
+		@UniqueConstraint(columnNames = { "subscription", "type" }) })
+public class LastEvent extends AbstractPersistable<Integer> {
+
+	/**
+	 * Type of event : status, ...
+	 */
+	@Enumerated(EnumType.STRING)
+	@Column(length = 10)
+	@NotNull
+	private EventType type;
+
+	/**
+	 * Optional linked node. Either this attribute, either {@link #subscription} is not <code>null</code>.
+	 */
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+	private Node node;
+
+	/**
+	 * Optional linked subscription. Either this attribute, either {@link #node} is not <code>null</code>.
+	 */
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+	private Subscription subscription;
+
+	/**
+	 * The last event.
+	 */
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+	@NotNull
+	private Event event;
+}
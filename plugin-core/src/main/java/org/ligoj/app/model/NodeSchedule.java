@@ -0,0 +1,64 @@
+package org.ligoj.app.model;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
+import javax.validation.constraints.NotNull;
+
+import org.ligoj.bootstrap.core.model.AbstractPersistable;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Health check schedule of a node instance. Persisted so a restart does not check all nodes at once.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "LIGOJ_NODE_SCHEDULE", uniqueConstraints = @UniqueConstraint(columnNames = "node"))
+public class NodeSchedule extends AbstractPersistable<Integer> {
+
+	/**
+	 * The scheduled node instance.
+	 */
+	@ManyToOne
+	@NotNull
+	private Node node;
+
+	/**
+	 * Date of the next check.
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	@NotNull
+	private Date next;
+
+	/**
+	 * Date of the last check. <code>null</code> when never checked.
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date last;
+
+	/**
+	 * Current interval in milliseconds between two checks, before the jitter.
+	 */
+	@Column(name = "check_interval")
+	private long interval;
+
+	/**
+	 * Status of the last check : up, down. <code>null</code> when never checked.
+	 */
+	@Column(length = 10)
+	private String status;
+
+	/**
+	 * Amount of consecutive failed checks.
+	 */
+	private int failures;
+}
@@ -0,0 +1,267 @@
+package org.ligoj.app.resource.node;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.transaction.Transactional;
+
+import org.ligoj.app.dao.ClusterLeaseRepository;
+import org.ligoj.app.model.ClusterLease;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Coordination of the scheduled health checks between the application instances sharing the same database. Each
+ * instance renews its own {@link ClusterLease}, and the instances having a not expired lease are the alive members. The
+ * member having the lowest identifier is the leader running the global tasks, and the node instances are sharded
+ * between the members with a consistent hash ring. When an instance dies, its lease expires and its nodes and its
+ * leadership are taken over by the remaining members. The leases are written and compared with the database clock, so
+ * the clock skew between the instances does not matter. Until its first heartbeat, or when its last heartbeat is older
+ * than its lease, an instance is neither leader nor owner of any node. When disabled with {@value #ENABLED}, the single
+ * instance is the leader and owns all nodes.
+ */
+@Component
+@Slf4j
+public class ClusterCoordinator {
+
+	/**
+	 * System property name enabling the cluster coordination.
+	 */
+	public static final String ENABLED = "cluster.enabled";
+
+	/**
+	 * System property name of the identifier of this instance. Default is the JVM name, made of the process identifier
+	 * and the host name.
+	 */
+	public static final String INSTANCE = "cluster.instance";
+
+	/**
+	 * System property name of the lease duration in milliseconds. Should be greater than the heartbeat delay.
+	 */
+	public static final String LEASE = "cluster.lease";
+
+	/**
+	 * System property name of the amount of virtual nodes by member in the hash ring.
+	 */
+	public static final String VNODES = "cluster.vnodes";
+
+	@Autowired
+	private ClusterLeaseRepository repository;
+
+	@Autowired
+	private EventIndex index;
+
+	/**
+	 * Forced identifier of this instance. When <code>null</code>, the {@value #INSTANCE} system property is used.
+	 */
+	private String instance;
+
+	/**
+	 * Alive members at the last heartbeat, ordered by identifier.
+	 */
+	private volatile List<String> members = Collections.emptyList();
+
+	/**
+	 * Local timestamp in nanoseconds after which the members of the last heartbeat are no more reliable.
+	 */
+	private volatile long membersExpires;
+
+	/**
+	 * Indicate the cluster coordination is enabled.
+	 *
+	 * @return <code>true</code> when the cluster coordination is enabled.
+	 */
+	public static boolean isEnabled() {
+		return Boolean.getBoolean(ENABLED);
+	}
+
+	/**
+	 * Return the identifier of this instance.
+	 *
+	 * @return The identifier of this instance.
+	 */
+	public String getInstance() {
+		return instance == null ? System.getProperty(INSTANCE, ManagementFactory.getRuntimeMXBean().getName()) : instance;
+	}
+
+	/**
+	 * Force the identifier of this instance.
+	 *
+	 * @param instance
+	 *            The identifier of this instance. When <code>null</code>, the {@value #INSTANCE} system property is
+	 *            used.
+	 */
+	void setInstance(final String instance) {
+		this.instance = instance;
+	}
+
+	/**
+	 * Renew the lease of this instance and refresh the alive members. The leader purges the expired leases. When the
+	 * members change, the node ownership changes too, so the {@link EventIndex} is invalidated.
+	 *
+	 * @return The alive members, ordered by identifier.
+	 */
+	@Scheduled(fixedDelayString = "${cluster.heartbeat:20000}")
+	@Transactional
+	public List<String> heartbeat() {
+		if (!isEnabled()) {
+			if (!members.isEmpty()) {
+				// Leave the cluster
+				members = Collections.emptyList();
+				index.invalidate();
+			}
+			return members;
+		}
+		final String instance = getInstance();
+		final long duration = Math.max(1, Long.getLong(LEASE, 60000L));
+		final long start = System.nanoTime();
+		ClusterLease lease = repository.findByInstance(instance);
+		if (lease == null) {
+			// Not yet visible by the other instances, the expiration is set below with the database clock
+			lease = new ClusterLease();
+			lease.setInstance(instance);
+			lease.setExpires(new Date());
+			repository.saveAndFlush(lease);
+			log.info("Join the cluster as {}", instance);
+		}
+		final Date now = repository.getDatabaseDate(instance);
+		lease.setExpires(new Date(now.getTime() + duration));
+		repository.saveAndFlush(lease);
+
+		final List<String> alive = repository.findAllAlive(now);
+		if (!alive.equals(members)) {
+			log.info("Cluster members : {}", alive);
+			index.invalidate();
+		}
+		members = alive;
+		membersExpires = start + TimeUnit.MILLISECONDS.toNanos(duration);
+		if (isLeader()) {
+			repository.deleteExpired(now);
+		}
+		return alive;
+	}
+
+	/**
+	 * Return the alive members of the last heartbeat, or an empty list when this heartbeat is older than the lease.
+	 */
+	private List<String> getAliveMembers() {
+		return System.nanoTime() - membersExpires < 0 ? members : Collections.emptyList();
+	}
+
+	/**
+	 * Return the alive members at the last heartbeat.
+	 *
+	 * @return The alive members, ordered by identifier. Empty when the coordination is disabled, or when the last
+	 *         heartbeat is older than the lease.
+	 */
+	public List<String> getMembers() {
+		return getAliveMembers();
+	}
+
+	/**
+	 * Indicate this instance is the leader running the global tasks.
+	 *
+	 * @return <code>true</code> when this instance is the leader, or when the coordination is disabled. Always
+	 *         <code>false</code> when no member has been seen yet.
+	 */
+	public boolean isLeader() {
+		if (!isEnabled()) {
+			return true;
+		}
+		final List<String> current = getAliveMembers();
+		return !current.isEmpty() && current.get(0).equals(getInstance());
+	}
+
+	/**
+	 * Return the items owned by this instance.
+	 *
+	 * @param items
+	 *            The items to share between the alive members.
+	 * @param key
+	 *            The function returning the stable key of an item, such as the node identifier.
+	 * @param <T>
+	 *            The item type.
+	 * @return The items owned by this instance. All items when the coordination is disabled, none when no member has
+	 *         been seen yet.
+	 */
+	public <T> List<T> shard(final List<T> items, final Function<T, String> key) {
+		if (!isEnabled()) {
+			// Single instance
+			return items;
+		}
+		final List<String> current = getAliveMembers();
+		if (current.isEmpty()) {
+			// Unknown membership, let the other members check the nodes
+			return Collections.emptyList();
+		}
+		if (current.size() == 1) {
+			// Single member
+			return items;
+		}
+		final TreeMap<Integer, String> ring = newRing(current);
+		final String instance = getInstance();
+		final List<T> result = new ArrayList<>();
+		for (final T item : items) {
+			if (instance.equals(getOwner(ring, key.apply(item)))) {
+				result.add(item);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Build the consistent hash ring of the given members. Each member is placed at several virtual positions to
+	 * balance the load.
+	 *
+	 * @param members
+	 *            The alive members.
+	 * @return The members by position in the ring.
+	 */
+	protected TreeMap<Integer, String> newRing(final List<String> members) {
+		final int vnodes = Math.max(1, Integer.getInteger(VNODES, 100));
+		final TreeMap<Integer, String> ring = new TreeMap<>();
+		for (final String member : members) {
+			for (int i = 0; i < vnodes; i++) {
+				ring.put(hash(member + "#" + i), member);
+			}
+		}
+		return ring;
+	}
+
+	/**
+	 * Return the member owning the given key: the first member following the key position in the ring.
+	 *
+	 * @param ring
+	 *            The hash ring.
+	 * @param key
+	 *            The item key.
+	 * @return The owner member.
+	 */
+	protected String getOwner(final TreeMap<Integer, String> ring, final String key) {
+		final Map.Entry<Integer, String> entry = ring.ceilingEntry(hash(key));
+		return (entry == null ? ring.firstEntry() : entry).getValue();
+	}
+
+	/**
+	 * Stable hash of a string, spread with the MurmurHash3 finalizer.
+	 */
+	private int hash(final String value) {
+		int h = value.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
@@ -0,0 +1,208 @@
+package org.ligoj.app.resource.node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+
+import org.ligoj.app.dao.NodeRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Shared fan-out hub of the status changes pushed to the opened Server-Sent Events streams. Each stream only receives
+ * the events of the nodes visible by its user: the visibility of a node is checked once by stream, then cached until
+ * the client reconnects. The events are sent once the registering transaction is committed, by a single thread, so the
+ * health checks are never slowed down by the clients.
+ */
+@Component
+@Slf4j
+public class EventHub {
+
+	/**
+	 * Name of the pushed SSE events.
+	 */
+	public static final String EVENT_NAME = "status";
+
+	/**
+	 * An opened stream.
+	 */
+	private static class Stream {
+		private final String user;
+		private final SseEventSink sink;
+		private final Sse sse;
+
+		/**
+		 * Visibility of the already checked nodes.
+		 */
+		private final Map<String, Boolean> visible = new ConcurrentHashMap<>();
+
+		private Stream(final String user, final SseEventSink sink, final Sse sse) {
+			this.user = user;
+			this.sink = sink;
+			this.sse = sse;
+		}
+	}
+
+	@Autowired
+	private NodeRepository nodeRepository;
+
+	private final Map<SseEventSink, Stream> streams = new ConcurrentHashMap<>();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+		final Thread thread = new Thread(r, "event-hub");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong sent = new AtomicLong();
+
+	/**
+	 * Open a stream for the given user.
+	 *
+	 * @param user
+	 *            The principal user receiving the events.
+	 * @param sink
+	 *            The client sink.
+	 * @param sse
+	 *            The SSE context building the events.
+	 */
+	public void register(final String user, final SseEventSink sink, final Sse sse) {
+		streams.put(sink, new Stream(user, sink, sse));
+		log.info("Open status stream for {}, {} streams", user, streams.size());
+	}
+
+	/**
+	 * Indicate there is at least one opened stream.
+	 *
+	 * @return <code>true</code> when there is at least one opened stream.
+	 */
+	public boolean isActive() {
+		return !streams.isEmpty();
+	}
+
+	/**
+	 * Publish the given events to the opened streams of the users seeing the related nodes. When a transaction is
+	 * running, the events are sent after its commit.
+	 *
+	 * @param events
+	 *            The new events.
+	 */
+	public void publish(final Collection<EventVo> events) {
+		if (events.isEmpty() || !isActive()) {
+			// Nothing to send
+			return;
+		}
+		published.addAndGet(events.size());
+		final Map<Stream, List<EventVo>> deliveries = new HashMap<>();
+		for (final Stream stream : streams.values()) {
+			for (final EventVo event : events) {
+				if (isVisible(stream, event.getNode().getId())) {
+					deliveries.computeIfAbsent(stream, s -> new ArrayList<>()).add(event);
+				}
+			}
+		}
+		if (deliveries.isEmpty()) {
+			// No interested stream
+			return;
+		}
+		final Runnable task = () -> deliveries.forEach((stream, toSend) -> toSend.forEach(e -> send(stream, e)));
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					executor.execute(task);
+				}
+			});
+		} else {
+			executor.execute(task);
+		}
+	}
+
+	/**
+	 * Indicate the given node is visible by the user of the given stream.
+	 */
+	private boolean isVisible(final Stream stream, final String node) {
+		return stream.visible.computeIfAbsent(node, n -> nodeRepository.findOneVisible(n, stream.user) != null);
+	}
+
+	/**
+	 * Send an event to a stream. The closed or failed streams are released.
+	 */
+	private void send(final Stream stream, final EventVo event) {
+		if (stream.sink.isClosed()) {
+			// Client has gone
+			close(stream);
+			return;
+		}
+		final OutboundSseEvent sseEvent = stream.sse.newEventBuilder().name(EVENT_NAME)
+				.mediaType(MediaType.APPLICATION_JSON_TYPE).data(EventVo.class, event).build();
+		stream.sink.send(sseEvent).whenComplete((r, e) -> {
+			if (e == null) {
+				sent.incrementAndGet();
+			} else {
+				log.info("Status stream of {} failed : {}", stream.user, e.getMessage());
+				close(stream);
+			}
+		});
+	}
+
+	/**
+	 * Release a stream.
+	 */
+	private void close(final Stream stream) {
+		if (streams.remove(stream.sink) != null) {
+			try {
+				stream.sink.close();
+			} catch (final Exception e) { // NOSONAR - Already broken stream
+				log.debug("Close status stream of {} failed", stream.user, e);
+			}
+		}
+	}
+
+	/**
+	 * Return the hub statistics: the amount of opened "streams", of "published" events and of "sent" events.
+	 *
+	 * @return The statistics. Ordered by key.
+	 */
+	public Map<String, Long> getStatistics() {
+		final Map<String, Long> result = new TreeMap<>();
+		result.put("published", published.get());
+		result.put("sent", sent.get());
+		result.put("streams", (long) streams.size());
+		return result;
+	}
+
+	/**
+	 * Close all opened streams.
+	 */
+	public void closeAll() {
+		new ArrayList<>(streams.values()).forEach(this::close);
+	}
+
+	/**
+	 * Close the streams and stop the thread.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		closeAll();
+		executor.shutdownNow();
+	}
+}
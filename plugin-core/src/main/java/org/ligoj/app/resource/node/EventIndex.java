@@ -0,0 +1,176 @@
+package org.ligoj.app.resource.node;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ligoj.app.model.EventType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * In-memory index of the last event value of each node and subscription, by event type. The values of a type are
+ * loaded once, then kept up to date by the registered events. The values read or written in a transaction are only
+ * visible to this transaction until it is committed, so a rolled back transaction does not pollute the index.
+ */
+@Component
+public class EventIndex {
+
+	/**
+	 * Committed values. Key is the event type, value is the last value by node or subscription key.
+	 */
+	private final Map<EventType, Map<String, String>> values = new ConcurrentHashMap<>();
+
+	/**
+	 * Values loaded or written in the current transaction, not yet committed.
+	 */
+	private static class Pending extends TransactionSynchronizationAdapter {
+
+		private final EventIndex index;
+		private final Map<EventType, Map<String, String>> loaded = new EnumMap<>(EventType.class);
+		private final Map<EventType, Map<String, String>> written = new EnumMap<>(EventType.class);
+
+		private Pending(final EventIndex index) {
+			this.index = index;
+		}
+
+		@Override
+		public void afterCompletion(final int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(index);
+			if (status == STATUS_COMMITTED) {
+				loaded.forEach((t, v) -> index.values.computeIfAbsent(t, k -> new ConcurrentHashMap<>(v)));
+				written.forEach((t, v) -> index.values.computeIfPresent(t, (k, m) -> {
+					m.putAll(v);
+					return m;
+				}));
+			}
+		}
+	}
+
+	/**
+	 * Return the key of a node.
+	 *
+	 * @param node
+	 *            The node identifier.
+	 * @return The index key of this node.
+	 */
+	public static String toKey(final String node) {
+		return "node:" + node;
+	}
+
+	/**
+	 * Return the key of a subscription.
+	 *
+	 * @param subscription
+	 *            The subscription identifier.
+	 * @return The index key of this subscription.
+	 */
+	public static String toKey(final int subscription) {
+		return "subscription:" + subscription;
+	}
+
+	/**
+	 * Return the pending values of the current transaction. <code>null</code> when there is no transaction.
+	 */
+	private Pending getPending() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+		Pending pending = (Pending) TransactionSynchronizationManager.getResource(this);
+		if (pending == null) {
+			pending = new Pending(this);
+			TransactionSynchronizationManager.bindResource(this, pending);
+			TransactionSynchronizationManager.registerSynchronization(pending);
+		}
+		return pending;
+	}
+
+	/**
+	 * Indicate the values of the given type are loaded.
+	 *
+	 * @param type
+	 *            The event type.
+	 * @return <code>true</code> when the values of the given type are loaded.
+	 */
+	public boolean isLoaded(final EventType type) {
+		final Pending pending = getPending();
+		return values.containsKey(type) || pending != null && pending.loaded.containsKey(type);
+	}
+
+	/**
+	 * Load the last values of the given type.
+	 *
+	 * @param type
+	 *            The event type.
+	 * @param lastValues
+	 *            The last value by key of all nodes and subscriptions having an event of this type.
+	 */
+	public void load(final EventType type, final Map<String, String> lastValues) {
+		final Pending pending = getPending();
+		if (pending == null) {
+			values.computeIfAbsent(type, k -> new ConcurrentHashMap<>(lastValues));
+		} else {
+			pending.loaded.put(type, new HashMap<>(lastValues));
+		}
+	}
+
+	/**
+	 * Return the last value of the given key. The values of this type must be loaded.
+	 *
+	 * @param type
+	 *            The event type.
+	 * @param key
+	 *            The node or subscription key.
+	 * @return The last value. <code>null</code> when there is no event.
+	 */
+	public String get(final EventType type, final String key) {
+		final Pending pending = getPending();
+		if (pending != null) {
+			final Map<String, String> written = pending.written.get(type);
+			if (written != null && written.containsKey(key)) {
+				return written.get(key);
+			}
+			if (pending.loaded.containsKey(type)) {
+				return pending.loaded.get(type).get(key);
+			}
+		}
+		return values.getOrDefault(type, Collections.emptyMap()).get(key);
+	}
+
+	/**
+	 * Update the last value of the given key.
+	 *
+	 * @param type
+	 *            The event type.
+	 * @param key
+	 *            The node or subscription key.
+	 * @param value
+	 *            The new value.
+	 */
+	public void put(final EventType type, final String key, final String value) {
+		final Pending pending = getPending();
+		if (pending == null) {
+			values.computeIfPresent(type, (k, m) -> {
+				m.put(key, value);
+				return m;
+			});
+		} else {
+			pending.written.computeIfAbsent(type, k -> new HashMap<>()).put(key, value);
+		}
+	}
+
+	/**
+	 * Forget all values, they will be reloaded on the next access.
+	 */
+	public void invalidate() {
+		values.clear();
+		final Pending pending = getPending();
+		if (pending != null) {
+			pending.loaded.clear();
+			pending.written.clear();
+		}
+	}
+}
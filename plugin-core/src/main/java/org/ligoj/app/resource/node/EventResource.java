@@ -1,32 +1,77 @@
 package org.ligoj.app.resource.node;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import javax.transaction.Transactional;
 
+import org.ligoj.app.dao.ArchivedEventRepository;
 import org.ligoj.app.dao.EventRepository;
+import org.ligoj.app.dao.EventRollupRepository;
+import org.ligoj.app.dao.LastEventRepository;
+import org.ligoj.app.dao.NodeRepository;
+import org.ligoj.app.dao.SubscriptionRepository;
 import org.ligoj.app.model.Event;
 import org.ligoj.app.model.EventType;
+import org.ligoj.app.model.LastEvent;
 import org.ligoj.app.model.Node;
 import org.ligoj.app.model.Subscription;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import lombok.extern.slf4j.Slf4j;
+
 /**
- * {@link Event} resource.
+ * {@link Event} resource. The last value of each node and subscription is read from the {@link EventIndex}, so an
+ * unchanged value costs no database access. When the {@link ClusterCoordinator} is enabled, the other instances
+ * register events too, so the last values are read from the shared {@link LastEvent} table instead. A new value locks
+ * its node or subscription, then is checked again against the committed last value, so the concurrent checks of the
+ * same node or subscription neither duplicate the event nor conflict on the last event. The new events are pushed to
+ * the opened streams of the {@link EventHub}.
  */
 @Service
 @Transactional
+@Slf4j
 public class EventResource {
 
 	@Autowired
 	private EventRepository repository;
 
+	@Autowired
+	private LastEventRepository lastRepository;
+
+	@Autowired
+	private EventRollupRepository rollupRepository;
+
+	@Autowired
+	private ArchivedEventRepository archiveRepository;
+
+	@Autowired
+	private NodeRepository nodeRepository;
+
+	@Autowired
+	private SubscriptionRepository subscriptionRepository;
+
+	@Autowired
+	private EventIndex index;
+
+	@Autowired
+	private ClusterCoordinator cluster;
+
+	@Autowired
+	private EventHub hub;
+
 	/**
 	 * Register an event on a node. The event will be registered only if the
 	 * value is new.
@@ -40,18 +85,36 @@ public class EventResource {
 	 * @return <code>true</code> if the event has been registered in database.
 	 */
 	public boolean registerEvent(final Node node, final EventType eventType, final String value) {
-		final Event lastEvent = repository.findFirstByNodeAndTypeOrderByIdDesc(node, eventType);
-
 		// Register event if it is a discovered node, or a status change
-		if (lastEvent == null || !value.equals(lastEvent.getValue())) {
-			final Event newEvent = new Event();
-			newEvent.setNode(node);
-			saveEvent(newEvent, eventType, value);
-			return true;
+		final String key = EventIndex.toKey(node.getId());
+		final String lastValue = ClusterCoordinator.isEnabled() ? lastRepository.findLastValue(node.getId(), eventType)
+				: getLastValue(eventType, key);
+		if (value.equals(lastValue)) {
+			// No change, no persisted event
+			return false;
 		}
 
-		// No change, no persisted event
-		return false;
+		// Serialize the registrations of this node, then check again the committed last value
+		nodeRepository.findOneForUpdate(node.getId());
+		if (value.equals(lastRepository.findLastValue(node.getId(), eventType))) {
+			// Already registered by a concurrent check
+			index.put(eventType, key, value);
+			return false;
+		}
+		final Event newEvent = new Event();
+		newEvent.setNode(node);
+		saveEvent(newEvent, eventType, value);
+		final LastEvent last = Optional.ofNullable(lastRepository.findByNode(node.getId(), eventType)).orElseGet(() -> {
+			final LastEvent entity = new LastEvent();
+			entity.setNode(node);
+			entity.setType(eventType);
+			return entity;
+		});
+		last.setEvent(newEvent);
+		lastRepository.save(last);
+		index.put(eventType, key, value);
+		publish(Collections.singletonList(newEvent));
+		return true;
 	}
 
 	/**
@@ -67,14 +130,148 @@ public class EventResource {
 	 * @return <code>true</code> if an event has been saved in database.
 	 */
 	public boolean registerEvent(final Subscription subscription, final EventType eventType, final String value) {
-		final Event lastEvent = repository.findFirstBySubscriptionAndTypeOrderByIdDesc(subscription, eventType);
-		if (lastEvent == null || !value.equals(lastEvent.getValue())) {
-			final Event newEvent = new Event();
-			newEvent.setSubscription(subscription);
-			saveEvent(newEvent, eventType, value);
-			return true;
+		return registerEvents(Collections.singletonMap(subscription, value), eventType) > 0;
+	}
+
+	/**
+	 * Register the events of several subscriptions in a single batch. An event is registered only for the
+	 * subscriptions whose value is new.
+	 * 
+	 * @param values
+	 *            The new event value of each subscription.
+	 * @param eventType
+	 *            The new event type.
+	 * @return The amount of events saved in database.
+	 */
+	public int registerEvents(final Map<Subscription, String> values, final EventType eventType) {
+		final Map<String, String> sharedValues = ClusterCoordinator.isEnabled() ? getSharedValues(values.keySet(), eventType)
+				: null;
+		final Map<Subscription, String> changes = new LinkedHashMap<>();
+		values.forEach((subscription, value) -> {
+			final String key = EventIndex.toKey(subscription.getId());
+			if (!value.equals(sharedValues == null ? getLastValue(eventType, key) : sharedValues.get(key))) {
+				changes.put(subscription, value);
+			}
+		});
+		if (changes.isEmpty()) {
+			// No change, no persisted event
+			return 0;
 		}
-		return false;
+
+		// Serialize the registrations of these subscriptions, then check again the committed last values
+		subscriptionRepository.findAllForUpdate(changes.keySet().stream().map(Subscription::getId).collect(Collectors.toList()));
+		final Map<String, String> committedValues = getSharedValues(changes.keySet(), eventType);
+		final List<Event> events = new ArrayList<>();
+		changes.forEach((subscription, value) -> {
+			final String key = EventIndex.toKey(subscription.getId());
+			if (!value.equals(committedValues.get(key))) {
+				final Event newEvent = new Event();
+				newEvent.setSubscription(subscription);
+				newEvent.setValue(value);
+				newEvent.setType(eventType);
+				newEvent.setDate(new Date());
+				events.add(newEvent);
+			}
+			index.put(eventType, key, value);
+		});
+		repository.saveAll(events);
+		saveLastEvents(events, eventType);
+		publish(events);
+		return events.size();
+	}
+
+	/**
+	 * Push the new events to the opened status streams.
+	 */
+	private void publish(final List<Event> events) {
+		if (hub.isActive()) {
+			hub.publish(events.stream().map(EventResource::toVo).collect(Collectors.toList()));
+		}
+	}
+
+	/**
+	 * Save the given events as the last ones of their subscription.
+	 */
+	private void saveLastEvents(final List<Event> events, final EventType eventType) {
+		if (events.isEmpty()) {
+			// Nothing to update
+			return;
+		}
+		final Map<Integer, LastEvent> lasts = lastRepository
+				.findAllBySubscriptions(events.stream().map(e -> e.getSubscription().getId()).collect(Collectors.toList()), eventType)
+				.stream().collect(Collectors.toMap(l -> l.getSubscription().getId(), Function.identity()));
+		final List<LastEvent> newLasts = new ArrayList<>();
+		for (final Event event : events) {
+			LastEvent last = lasts.get(event.getSubscription().getId());
+			if (last == null) {
+				last = new LastEvent();
+				last.setSubscription(event.getSubscription());
+				last.setType(eventType);
+				newLasts.add(last);
+			}
+			last.setEvent(event);
+		}
+		lastRepository.saveAll(newLasts);
+	}
+
+	/**
+	 * Rebuild the last events from the whole event history. Required when the events have been inserted without this
+	 * resource.
+	 * 
+	 * @return The amount of last events.
+	 */
+	public int refreshLastEvents() {
+		lastRepository.deleteAllNoFetch();
+		final List<LastEvent> lasts = repository.findAllLastFromHistory().stream().map(e -> {
+			final LastEvent last = new LastEvent();
+			last.setNode(e.getNode());
+			last.setSubscription(e.getSubscription());
+			last.setType(e.getType());
+			last.setEvent(e);
+			return last;
+		}).collect(Collectors.toList());
+		lastRepository.saveAll(lasts);
+		index.invalidate();
+		log.info("Refreshed {} last events", lasts.size());
+		return lasts.size();
+	}
+
+	/**
+	 * Build the last events on startup when they are missing, such as after an upgrade. In a cluster, only the leader
+	 * builds them.
+	 */
+	@EventListener(ContextRefreshedEvent.class)
+	public void initializeLastEvents() {
+		if (ClusterCoordinator.isEnabled()) {
+			// Join the cluster to know the leader
+			cluster.heartbeat();
+		}
+		if (cluster.isLeader() && lastRepository.count() == 0 && repository.count() > 0) {
+			refreshLastEvents();
+		}
+	}
+
+	/**
+	 * Return the last known value from the index, loaded on the first access.
+	 */
+	private String getLastValue(final EventType eventType, final String key) {
+		if (!index.isLoaded(eventType)) {
+			final Map<String, String> lastValues = new HashMap<>();
+			repository.findLastValues(eventType).forEach(v -> lastValues
+					.put(v[0] == null ? EventIndex.toKey((Integer) v[1]) : EventIndex.toKey((String) v[0]), (String) v[2]));
+			index.load(eventType, lastValues);
+		}
+		return index.get(eventType, key);
+	}
+
+	/**
+	 * Return the last values of the given subscriptions from the {@link LastEvent} table.
+	 */
+	private Map<String, String> getSharedValues(final Collection<Subscription> subscriptions, final EventType eventType) {
+		final Map<String, String> lastValues = new HashMap<>();
+		lastRepository.findLastValues(subscriptions.stream().map(Subscription::getId).collect(Collectors.toList()), eventType)
+				.forEach(v -> lastValues.put(EventIndex.toKey((Integer) v[0]), (String) v[1]));
+		return lastValues;
 	}
 
 	/**
@@ -94,6 +291,35 @@ public class EventResource {
 		repository.save(event);
 	}
 
+	/**
+	 * Delete all events related to the given node, its children and their subscriptions, including the rollups and the
+	 * archived events.
+	 * 
+	 * @param node
+	 *            The node identifier.
+	 */
+	public void deleteByNode(final String node) {
+		lastRepository.deleteByNode(node);
+		rollupRepository.deleteByNode(node);
+		archiveRepository.deleteByNode(node);
+		repository.deleteByNode(node);
+		index.invalidate();
+	}
+
+	/**
+	 * Delete all events related to the given subscription, including the rollups and the archived events.
+	 * 
+	 * @param subscription
+	 *            The related subscription.
+	 */
+	public void deleteBySubscription(final Subscription subscription) {
+		lastRepository.deleteBySubscription(subscription.getId());
+		rollupRepository.deleteBySubscription(subscription.getId());
+		archiveRepository.deleteBySubscription(subscription.getId());
+		repository.deleteAllBy("subscription", subscription);
+		index.invalidate();
+	}
+
 	/**
 	 * {@link Event} JPA to VO object transformer without refined informations.
 	 * 
@@ -156,7 +382,8 @@ public class EventResource {
 			return result;
 		});
 		service.getSpecifics().add(eventVo);
-		if ("DOWN".equals(eventValue)) {
+		if ("DOWN".equals(eventValue) || "TIMEOUT".equals(eventValue) && !"DOWN".equals(service.getValue())) {
+			// The worst status wins : DOWN, then TIMEOUT
 			service.setValue(eventValue);
 		}
 	}
@@ -0,0 +1,228 @@
+package org.ligoj.app.resource.node;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.transaction.Transactional;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.ligoj.app.dao.ArchivedEventRepository;
+import org.ligoj.app.dao.EventRepository;
+import org.ligoj.app.dao.EventRollupRepository;
+import org.ligoj.app.model.ArchivedEvent;
+import org.ligoj.app.model.Event;
+import org.ligoj.app.model.EventRollup;
+import org.ligoj.app.model.EventType;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.bootstrap.core.SpringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Retention of the event history. The events older than the retention horizon are summarized into daily
+ * {@link EventRollup}, then moved to the {@link ArchivedEvent} table. The last event of each node and subscription is
+ * always kept. The events are processed by small batches, each one in its own transaction, so the event table is never
+ * locked for long.
+ */
+@Component
+@Slf4j
+public class EventRetention {
+
+	/**
+	 * System property name of the retention horizon in days. <code>0</code> disables the retention.
+	 */
+	public static final String RETENTION = "event.retention";
+
+	/**
+	 * System property name of the amount of events compacted in a single transaction.
+	 */
+	public static final String BATCH = "event.retention.batch";
+
+	@Autowired
+	private EventRepository repository;
+
+	@Autowired
+	private EventRollupRepository rollupRepository;
+
+	@Autowired
+	private ArchivedEventRepository archiveRepository;
+
+	@Autowired
+	private ClusterCoordinator cluster;
+
+	private final AtomicLong runs = new AtomicLong();
+	private final AtomicLong archived = new AtomicLong();
+	private final AtomicLong lastDuration = new AtomicLong();
+
+	/**
+	 * Daily, compact the events older than the retention horizon. In a cluster, only the leader compacts the events.
+	 */
+	@Scheduled(cron = "${event.retention.cron:0 0 3 * * ?}")
+	public void compactScheduler() {
+		final int days = Integer.getInteger(RETENTION, 90);
+		if (days > 0 && cluster.isLeader()) {
+			compact(DateUtils.addDays(new Date(), -days));
+		}
+	}
+
+	/**
+	 * Compact all the events older than the given date, by batches.
+	 *
+	 * @param horizon
+	 *            The exclusive date limit.
+	 * @return The amount of archived events.
+	 */
+	public int compact(final Date horizon) {
+		final long start = System.currentTimeMillis();
+		final EventRetention proxy = SpringUtils.getBean(EventRetention.class);
+		final int size = Math.max(1, Integer.getInteger(BATCH, 500));
+		final int before = (int) archived.get();
+		int from = 0;
+		for (int next = proxy.compact(horizon, from, size); next != from; next = proxy.compact(horizon, from, size)) {
+			from = next;
+		}
+		runs.incrementAndGet();
+		lastDuration.set(System.currentTimeMillis() - start);
+		final int count = (int) archived.get() - before;
+		log.info("Compact events older than {} : {} archived in {}ms", horizon, count, lastDuration.get());
+		return count;
+	}
+
+	/**
+	 * Compact a batch of events older than the given date.
+	 *
+	 * @param horizon
+	 *            The exclusive date limit.
+	 * @param from
+	 *            The exclusive lower event identifier.
+	 * @param size
+	 *            The maximal amount of events to compact.
+	 * @return The identifier of the last read event. Equals to <code>from</code> when there is no more event.
+	 */
+	@Transactional
+	public int compact(final Date horizon, final int from, final int size) {
+		final List<Event> events = repository.findAllExpired(horizon, from, PageRequest.of(0, size));
+		if (events.isEmpty()) {
+			return from;
+		}
+		final Map<Integer, Date> nexts = new HashMap<>();
+		repository.findNextDates(events.stream().map(Event::getId).collect(Collectors.toList()))
+				.forEach(r -> nexts.put((Integer) r[0], (Date) r[1]));
+
+		// Only the events having a next event can be summarized
+		final List<Event> compacted = events.stream().filter(e -> nexts.get(e.getId()) != null).collect(Collectors.toList());
+		if (!compacted.isEmpty()) {
+			rollup(compacted, nexts);
+			archive(compacted);
+		}
+		return events.get(events.size() - 1).getId();
+	}
+
+	/**
+	 * Add the duration and the transition of each event to the daily rollups.
+	 */
+	private void rollup(final List<Event> events, final Map<Integer, Date> nexts) {
+		final Date from = DateUtils.truncate(events.stream().map(Event::getDate).min(Date::compareTo).get(), Calendar.DATE);
+		final Date to = events.stream().map(e -> nexts.get(e.getId())).max(Date::compareTo).get();
+		final List<String> nodes = events.stream().filter(e -> e.getNode() != null).map(e -> e.getNode().getId()).distinct()
+				.collect(Collectors.toList());
+		final List<Integer> subscriptions = events.stream().filter(e -> e.getSubscription() != null)
+				.map(e -> e.getSubscription().getId()).distinct().collect(Collectors.toList());
+		final Map<String, EventRollup> rollups = new HashMap<>();
+		final List<EventRollup> existing = new ArrayList<>();
+		if (!nodes.isEmpty()) {
+			existing.addAll(rollupRepository.findAllByNodes(nodes, from, to));
+		}
+		if (!subscriptions.isEmpty()) {
+			existing.addAll(rollupRepository.findAllBySubscriptions(subscriptions, from, to));
+		}
+		existing.forEach(r -> rollups.put(toKey(r.getNode(), r.getSubscription(), r.getType(), r.getValue(), r.getDay()), r));
+
+		final List<EventRollup> created = new ArrayList<>();
+		for (final Event event : events) {
+			// Split the duration of this value by day
+			Date day = DateUtils.truncate(event.getDate(), Calendar.DATE);
+			final EventRollup first = getRollup(rollups, created, event, day);
+			first.setTransitions(first.getTransitions() + 1);
+			final long end = nexts.get(event.getId()).getTime();
+			for (long start = event.getDate().getTime(); start < end; day = DateUtils.addDays(day, 1)) {
+				final long dayEnd = Math.min(end, DateUtils.addDays(day, 1).getTime());
+				final EventRollup rollup = getRollup(rollups, created, event, day);
+				rollup.setDuration(rollup.getDuration() + dayEnd - start);
+				start = dayEnd;
+			}
+		}
+		rollupRepository.saveAll(created);
+	}
+
+	/**
+	 * Return the rollup of an event for a day, created as needed.
+	 */
+	private EventRollup getRollup(final Map<String, EventRollup> rollups, final List<EventRollup> created, final Event event,
+			final Date day) {
+		return rollups.computeIfAbsent(toKey(event.getNode(), event.getSubscription(), event.getType(), event.getValue(), day),
+				k -> {
+					final EventRollup rollup = new EventRollup();
+					rollup.setDay(day);
+					rollup.setType(event.getType());
+					rollup.setValue(event.getValue());
+					rollup.setNode(event.getNode());
+					rollup.setSubscription(event.getSubscription());
+					created.add(rollup);
+					return rollup;
+				});
+	}
+
+	/**
+	 * Return the key of a rollup.
+	 */
+	private String toKey(final Node node, final Subscription subscription, final EventType type, final String value,
+			final Date day) {
+		return String.join("|", node == null ? "" : node.getId(), subscription == null ? "" : subscription.getId().toString(),
+				type.name(), value, String.valueOf(day.getTime()));
+	}
+
+	/**
+	 * Move the events to the archive table.
+	 */
+	private void archive(final List<Event> events) {
+		archiveRepository.saveAll(events.stream().map(e -> {
+			final ArchivedEvent archive = new ArchivedEvent();
+			archive.setType(e.getType());
+			archive.setValue(e.getValue());
+			archive.setDate(e.getDate());
+			archive.setNode(e.getNode());
+			archive.setSubscription(e.getSubscription());
+			return archive;
+		}).collect(Collectors.toList()));
+		repository.deleteByIds(events.stream().map(Event::getId).collect(Collectors.toList()));
+		archived.addAndGet(events.size());
+	}
+
+	/**
+	 * Return the retention statistics: the amount of "runs", of "archived" events and the "last-duration" in
+	 * milliseconds.
+	 *
+	 * @return The statistics. Ordered by key.
+	 */
+	public Map<String, Long> getStatistics() {
+		final Map<String, Long> result = new TreeMap<>();
+		result.put("archived", archived.get());
+		result.put("last-duration", lastDuration.get());
+		result.put("runs", runs.get());
+		return Collections.unmodifiableMap(result);
+	}
+}
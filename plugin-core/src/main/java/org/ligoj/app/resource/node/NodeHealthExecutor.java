@@ -0,0 +1,562 @@
+package org.ligoj.app.resource.node;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.security.concurrent.DelegatingSecurityContextCallable;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Executor of the health checks sent to the tool plug-ins. The amount of concurrent checks is bounded globally by
+ * {@value #PARALLELISM}, and for each tool by {@value #TOOL_PARALLELISM}, so a slow tool cannot hold all threads. Only
+ * the plug-in calls are executed there: the database access remains in the calling thread. Each plug-in call is also
+ * bounded by the {@value #TIMEOUT} time budget, so a hanging tool cannot hold a thread forever. A timed out call
+ * ignoring the interruption keeps running, so the running calls of a tool are bounded by {@value #TOOL_INFLIGHT}, and
+ * the platform threads running the calls by {@value #CALL_THREADS}: the calls over these limits are rejected as timed
+ * out.
+ * <p>
+ * The checks and the plug-in calls run with the security context of the submitting thread, so a plug-in sees the same
+ * user than a synchronous call. They run outside of any transaction and of any persistence context: a plug-in reading
+ * the database must use its own transactional proxy, and the entities given to a check must be fully loaded.
+ * <p>
+ * When enabled with {@value #VIRTUAL}, the checks and the plug-in calls are executed by virtual threads, one per task,
+ * and the global bound becomes a semaphore of {@value #VIRTUAL_PARALLELISM} permits: a blocked check does not hold a
+ * platform thread anymore. The runtimes without virtual threads fall back to a fixed pool of
+ * {@value #VIRTUAL_PARALLELISM} platform threads. The pinning of the carrier threads, such as a blocking I/O inside a <code>synchronized</code> block, is
+ * reported when longer than {@value #PINNING} milliseconds.
+ */
+@Component
+@Slf4j
+public class NodeHealthExecutor {
+
+	/**
+	 * System property name of the maximal amount of concurrent checks.
+	 */
+	public static final String PARALLELISM = "health.parallelism";
+
+	/**
+	 * System property name of the maximal amount of concurrent checks of a single tool.
+	 */
+	public static final String TOOL_PARALLELISM = "health.parallelism.tool";
+
+	/**
+	 * System property name of the time budget in milliseconds of a single plug-in call. Can be overridden for a tool
+	 * with this name suffixed by "." and the tool identifier, such as <code>health.timeout.service:bt:jira</code>.
+	 * <code>0</code> means no limit.
+	 */
+	public static final String TIMEOUT = "health.timeout";
+
+	/**
+	 * System property name of the maximal amount of running plug-in calls of a single tool, including the timed out
+	 * calls not yet ended.
+	 */
+	public static final String TOOL_INFLIGHT = "health.inflight.tool";
+
+	/**
+	 * System property name of the maximal amount of platform threads running the plug-in calls.
+	 */
+	public static final String CALL_THREADS = "health.call.threads";
+
+	/**
+	 * System property name enabling the execution of the checks by virtual threads.
+	 */
+	public static final String VIRTUAL = "health.virtual";
+
+	/**
+	 * System property name of the maximal amount of concurrent checks executed by virtual threads.
+	 */
+	public static final String VIRTUAL_PARALLELISM = "health.virtual.parallelism";
+
+	/**
+	 * System property name of the duration threshold in milliseconds of the reported virtual thread pinning.
+	 * <code>0</code> disables the report.
+	 */
+	public static final String PINNING = "health.virtual.pinning";
+
+	/**
+	 * Checks of a tool: the running ones and the ones waiting for a tool slot.
+	 */
+	private static class Lane {
+		private int running;
+		private final Deque<Runnable> pending = new ArrayDeque<>();
+	}
+
+	private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+	private final ExecutorService executor;
+
+	/**
+	 * Global bound of the concurrent checks, only when the threads are virtual.
+	 */
+	private final Semaphore limiter;
+
+	/**
+	 * Amount of running checks. Decremented before the completion of the check's future.
+	 */
+	private final AtomicInteger active = new AtomicInteger();
+
+	/**
+	 * The maximal amount of concurrent checks.
+	 */
+	private final int limit;
+
+	/**
+	 * The pinning event stream. May be <code>null</code>.
+	 */
+	private final AutoCloseable pinning;
+
+	/**
+	 * Indicate the checks are executed by virtual threads.
+	 */
+	private final boolean virtual;
+
+	/**
+	 * Threads running the plug-in calls, so the caller can give up a hanging call.
+	 */
+	private final ExecutorService callExecutor;
+
+	/**
+	 * Amount of plug-in calls currently running by tool. A timed out call is counted until it really ends.
+	 */
+	private final Map<String, AtomicInteger> inflight = new ConcurrentHashMap<>();
+
+	private final AtomicLong sweeps = new AtomicLong();
+	private final AtomicLong lastStart = new AtomicLong();
+	private final AtomicLong lastDuration = new AtomicLong();
+	private final AtomicLong lastNodes = new AtomicLong();
+	private final AtomicLong subscriptions = new AtomicLong();
+	private final AtomicLong subscriptionsChecked = new AtomicLong();
+	private final AtomicLong subscriptionsSkipped = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong pinned = new AtomicLong();
+
+	/**
+	 * Create the executor with the limits read from the system properties.
+	 */
+	public NodeHealthExecutor() {
+		final ExecutorService virtualExecutor = Boolean.getBoolean(VIRTUAL) ? newVirtualExecutor("health-") : null;
+		virtual = virtualExecutor != null;
+		if (virtual) {
+			// Unpooled threads, bounded by the limiter
+			limit = Math.max(1, Integer.getInteger(VIRTUAL_PARALLELISM, 200));
+			limiter = new Semaphore(limit);
+			executor = virtualExecutor;
+		} else {
+			if (Boolean.getBoolean(VIRTUAL)) {
+				log.warn("Virtual threads are not supported by this runtime, health checks use a fixed pool");
+				limit = Math.max(1, Integer.getInteger(VIRTUAL_PARALLELISM, 200));
+			} else {
+				limit = Math.max(1, Integer.getInteger(PARALLELISM, 10));
+			}
+			limiter = null;
+			final ThreadPoolExecutor pool = new ThreadPoolExecutor(limit, limit, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(), newThreadFactory("health-"));
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		callExecutor = virtual ? newVirtualExecutor("health-call-")
+				: new ThreadPoolExecutor(0, Math.max(1, Integer.getInteger(CALL_THREADS, 100)), 60, TimeUnit.SECONDS,
+						new SynchronousQueue<>(), newThreadFactory("health-call-"));
+		pinning = virtual ? newPinningStream(Math.max(0, Long.getLong(PINNING, 20L))) : null;
+	}
+
+	/**
+	 * Return a factory of daemon threads named with the given prefix and a counter.
+	 */
+	private ThreadFactory newThreadFactory(final String prefix) {
+		final AtomicInteger counter = new AtomicInteger();
+		return r -> {
+			final Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Return an executor creating a new virtual thread for each task. The Java 21 API is resolved at runtime, since
+	 * this module targets an older runtime.
+	 *
+	 * @param prefix
+	 *            The thread name prefix.
+	 * @return The new executor, or <code>null</code> when virtual threads are not supported.
+	 */
+	protected ExecutorService newVirtualExecutor(final String prefix) {
+		try {
+			final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+			final ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null,
+					factory);
+		} catch (final ReflectiveOperationException e) { // NOSONAR - Older runtime
+			log.debug("Virtual threads are not available : {}", e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Start the JFR stream reporting the virtual thread pinning longer than the given threshold.
+	 *
+	 * @param threshold
+	 *            The duration threshold in milliseconds. <code>0</code> disables the report.
+	 * @return The started stream, or <code>null</code> when disabled or not supported.
+	 */
+	private AutoCloseable newPinningStream(final long threshold) {
+		if (threshold == 0) {
+			return null;
+		}
+		try {
+			final Class<?> streamType = Class.forName("jdk.jfr.consumer.RecordingStream");
+			final AutoCloseable stream = (AutoCloseable) streamType.getConstructor().newInstance();
+			final Object settings = streamType.getMethod("enable", String.class).invoke(stream, "jdk.VirtualThreadPinned");
+			final Class<?> settingsType = Class.forName("jdk.jfr.EventSettings");
+			settingsType.getMethod("withThreshold", Duration.class).invoke(settings, Duration.ofMillis(threshold));
+			settingsType.getMethod("withStackTrace").invoke(settings);
+			final Consumer<Object> onPinned = e -> {
+				pinned.incrementAndGet();
+				log.warn("Virtual thread pinned during a health check : {}", e);
+			};
+			streamType.getMethod("onEvent", String.class, Consumer.class).invoke(stream, "jdk.VirtualThreadPinned", onPinned);
+			streamType.getMethod("startAsync").invoke(stream);
+			return stream;
+		} catch (final ReflectiveOperationException e) { // NOSONAR - JFR is optional
+			log.info("Virtual thread pinning cannot be reported : {}", e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Indicate the checks are executed by virtual threads.
+	 *
+	 * @return <code>true</code> when the checks are executed by virtual threads.
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Return the time budget of a plug-in call of the given tool.
+	 *
+	 * @param tool
+	 *            The tool identifier.
+	 * @return The time budget in milliseconds. <code>0</code> means no limit.
+	 */
+	public long getTimeout(final String tool) {
+		return Math.max(0, Long.getLong(TIMEOUT + "." + tool, Long.getLong(TIMEOUT, 60000L)));
+	}
+
+	/**
+	 * Execute a plug-in call of the given tool within its time budget. The call is interrupted when the budget is
+	 * exceeded. The call is rejected when the tool has too many running calls.
+	 *
+	 * @param tool
+	 *            The tool identifier.
+	 * @param call
+	 *            The plug-in call.
+	 * @param <T>
+	 *            The call result type.
+	 * @return The call result.
+	 * @throws TimeoutException
+	 *             When the time budget is exceeded, or when the call is rejected.
+	 * @throws Exception
+	 *             The failure of the call.
+	 */
+	public <T> T call(final String tool, final Callable<T> call) throws Exception {
+		final AtomicInteger counter = inflight.computeIfAbsent(tool, t -> new AtomicInteger());
+		if (counter.incrementAndGet() > Math.max(1, Integer.getInteger(TOOL_INFLIGHT, 20))) {
+			// Too many running calls, some of them may be timed out calls ignoring the interruption
+			counter.decrementAndGet();
+			throw reject(tool);
+		}
+		final Callable<T> counted = () -> {
+			try {
+				return call.call();
+			} finally {
+				counter.decrementAndGet();
+			}
+		};
+		final long timeout = getTimeout(tool);
+		if (timeout == 0) {
+			// No limit, the caller thread is used
+			return counted.call();
+		}
+		final Future<T> future;
+		try {
+			future = callExecutor.submit(new DelegatingSecurityContextCallable<>(counted));
+		} catch (final RejectedExecutionException e) {
+			counter.decrementAndGet();
+			throw reject(tool);
+		}
+		try {
+			return future.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (final TimeoutException e) {
+			future.cancel(true);
+			timeouts.incrementAndGet();
+			throw e;
+		} catch (final ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		} catch (final InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw e;
+		}
+	}
+
+	/**
+	 * Return the failure of a rejected plug-in call.
+	 */
+	private TimeoutException reject(final String tool) {
+		rejected.incrementAndGet();
+		log.warn("Too many running calls of {}, the call is rejected", tool);
+		return new TimeoutException("Too many running calls of " + tool);
+	}
+
+	/**
+	 * Return the amount of plug-in calls currently running by tool.
+	 *
+	 * @return The running calls by tool. Ordered by tool.
+	 */
+	public Map<String, Integer> getInflight() {
+		final Map<String, Integer> result = new TreeMap<>();
+		inflight.forEach((t, c) -> result.put(t, c.get()));
+		return result;
+	}
+
+	/**
+	 * Execute a check of the given tool as soon as a global slot and a slot of this tool are available.
+	 *
+	 * @param tool
+	 *            The tool identifier, the refined node of the checked instance.
+	 * @param check
+	 *            The check to execute. Must not access the database.
+	 * @param <T>
+	 *            The check result type.
+	 * @return The future of the check result.
+	 */
+	public <T> CompletableFuture<T> submit(final String tool, final Supplier<T> check) {
+		return submit(tool, Integer.getInteger(TOOL_PARALLELISM, 4), check);
+	}
+
+	/**
+	 * Execute a check as soon as a global slot and a slot of the given key are available.
+	 *
+	 * @param key
+	 *            The key sharing the slots, such as a tool or a node identifier.
+	 * @param parallelism
+	 *            The maximal amount of concurrent checks of this key.
+	 * @param check
+	 *            The check to execute. Must not access the database.
+	 * @param <T>
+	 *            The check result type.
+	 * @return The future of the check result.
+	 */
+	public <T> CompletableFuture<T> submit(final String key, final int parallelism, final Supplier<T> check) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		final Lane lane = lanes.computeIfAbsent(key, t -> new Lane());
+		final Runnable task = new DelegatingSecurityContextRunnable(() -> {
+			active.incrementAndGet();
+			T result = null;
+			Throwable error = null;
+			try {
+				result = check.get();
+			} catch (final Throwable e) { // NOSONAR - Release the caller whatever happened
+				error = e;
+			} finally {
+				// Release the slots before the caller is notified
+				active.decrementAndGet();
+				if (limiter != null) {
+					limiter.release();
+				}
+				next(lane);
+			}
+			if (error == null) {
+				future.complete(result);
+			} else {
+				future.completeExceptionally(error);
+			}
+		});
+		synchronized (lane) {
+			if (lane.running >= Math.max(1, parallelism)) {
+				// Wait for a slot of this key
+				lane.pending.add(task);
+				return future;
+			}
+			lane.running++;
+		}
+		execute(task);
+		return future;
+	}
+
+	/**
+	 * Execute a task as soon as a global slot is available. The task releases its global slot.
+	 */
+	private void execute(final Runnable task) {
+		if (limiter == null) {
+			// The pool size is the global bound
+			getExecutor().execute(task);
+			return;
+		}
+		getExecutor().execute(() -> {
+			limiter.acquireUninterruptibly();
+			task.run();
+		});
+	}
+
+	/**
+	 * Release the slot of a completed check, and execute the next pending check of the same key.
+	 */
+	private void next(final Lane lane) {
+		final Runnable next;
+		synchronized (lane) {
+			next = lane.pending.poll();
+			if (next == null) {
+				lane.running--;
+			}
+		}
+		if (next != null) {
+			execute(next);
+		}
+	}
+
+	/**
+	 * Return the executor running the checks.
+	 *
+	 * @return The executor running the checks.
+	 */
+	protected ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Report a completed sweep.
+	 *
+	 * @param name
+	 *            The sweep name used in the logs.
+	 * @param nodes
+	 *            The amount of checked nodes.
+	 * @param start
+	 *            The start timestamp of the sweep.
+	 */
+	public void report(final String name, final int nodes, final long start) {
+		final long duration = System.currentTimeMillis() - start;
+		sweeps.incrementAndGet();
+		lastStart.set(start);
+		lastDuration.set(duration);
+		lastNodes.set(nodes);
+		log.info("{} of {} nodes : Done in {}ms", name, nodes, duration);
+	}
+
+	/**
+	 * Reset the subscription progress of a new sweep.
+	 */
+	public void startProgress() {
+		subscriptions.set(0);
+		subscriptionsChecked.set(0);
+		subscriptionsSkipped.set(0);
+	}
+
+	/**
+	 * Update the subscription progress of the current sweep.
+	 *
+	 * @param found
+	 *            The amount of new subscriptions to check.
+	 * @param checked
+	 *            The amount of new checked subscriptions.
+	 * @param skipped
+	 *            The amount of new skipped subscriptions, because of the time budget.
+	 */
+	public void progress(final int found, final int checked, final int skipped) {
+		subscriptions.addAndGet(found);
+		subscriptionsChecked.addAndGet(checked);
+		subscriptionsSkipped.addAndGet(skipped);
+	}
+
+	/**
+	 * Return the statistics: the amount of "sweeps", the "last-start" timestamp, the "last-duration" in milliseconds and
+	 * the "last-nodes" amount of the last sweep, the current "active" and "queued" checks, the running "inflight"
+	 * plug-in calls, the amount of "timeouts" and of "rejected" calls, the "virtual" mode flag and the amount of "pinned" virtual threads, and
+	 * the progress of the "subscriptions" checks: "subscriptions-checked" and "subscriptions-skipped".
+	 *
+	 * @return The statistics. Ordered by key.
+	 */
+	public Map<String, Long> getStatistics() {
+		final Map<String, Long> result = new TreeMap<>();
+		result.put("active", (long) getActiveCount());
+		result.put("inflight", (long) inflight.values().stream().mapToInt(AtomicInteger::get).sum());
+		result.put("last-duration", lastDuration.get());
+		result.put("last-nodes", lastNodes.get());
+		result.put("last-start", lastStart.get());
+		result.put("pinned", pinned.get());
+		result.put("queued", (long) getQueuedCount() + lanes.values().stream().mapToInt(l -> {
+			synchronized (l) {
+				return l.pending.size();
+			}
+		}).sum());
+		result.put("rejected", rejected.get());
+		result.put("subscriptions", subscriptions.get());
+		result.put("subscriptions-checked", subscriptionsChecked.get());
+		result.put("subscriptions-skipped", subscriptionsSkipped.get());
+		result.put("sweeps", sweeps.get());
+		result.put("timeouts", timeouts.get());
+		result.put("virtual", virtual ? 1L : 0L);
+		return result;
+	}
+
+	/**
+	 * Return the amount of running checks.
+	 */
+	private int getActiveCount() {
+		return active.get();
+	}
+
+	/**
+	 * Return the amount of checks waiting for a global slot.
+	 */
+	private int getQueuedCount() {
+		return limiter == null ? ((ThreadPoolExecutor) executor).getQueue().size() : limiter.getQueueLength();
+	}
+
+	/**
+	 * Stop the threads.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+		callExecutor.shutdownNow();
+		if (pinning != null) {
+			try {
+				pinning.close();
+			} catch (final Exception e) { // NOSONAR - Already closed stream
+				log.debug("Close the pinning stream failed", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,296 @@
+package org.ligoj.app.resource.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.transaction.Transactional;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.ligoj.app.api.NodeStatus;
+import org.ligoj.app.dao.HealthRollupRepository;
+import org.ligoj.app.dao.NodeRepository;
+import org.ligoj.app.model.HealthRollup;
+import org.ligoj.app.model.Node;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * History of the health checks. The last checks of each node and subscription are kept in a fixed size in-memory ring:
+ * duration, outcome and error class. The checks are periodically summarized by node in the {@link HealthRollup} table,
+ * and the percentiles of the durations by tool are computed from the rings.
+ */
+@Component
+@Slf4j
+public class NodeHealthHistory {
+
+	/**
+	 * System property name of the amount of checks kept in memory by node and subscription.
+	 */
+	public static final String SIZE = "health.history.size";
+
+	/**
+	 * System property name of the retention in days of the health summaries.
+	 */
+	public static final String RETENTION = "health.history.retention";
+
+	/**
+	 * The last checks of a node or a subscription. Oldest measures are overwritten.
+	 */
+	private static class Ring {
+		private final String tool;
+		private final String node;
+		private final boolean subscriptions;
+		private final long[] durations;
+		private final NodeStatus[] statuses;
+		private final String[] errors;
+
+		/**
+		 * Amount of recorded checks.
+		 */
+		private long recorded;
+
+		/**
+		 * Amount of recorded checks already summarized in database.
+		 */
+		private long flushed;
+
+		private Ring(final String tool, final String node, final boolean subscriptions, final int size) {
+			this.tool = tool;
+			this.node = node;
+			this.subscriptions = subscriptions;
+			this.durations = new long[size];
+			this.statuses = new NodeStatus[size];
+			this.errors = new String[size];
+		}
+	}
+
+	/**
+	 * Summary of the checks not yet flushed of a node.
+	 */
+	private static class Summary {
+		private final List<Long> durations = new ArrayList<>();
+		private int failures;
+		private int timeouts;
+		private String error;
+	}
+
+	@Autowired
+	private HealthRollupRepository repository;
+
+	@Autowired
+	private NodeRepository nodeRepository;
+
+	/**
+	 * Rings by node or subscription key.
+	 */
+	private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+
+	/**
+	 * Return the key of the bulk checks of the subscriptions of a node.
+	 *
+	 * @param node
+	 *            The node identifier.
+	 * @return The key of the bulk checks of this node.
+	 */
+	public static String toBulkKey(final String node) {
+		return "subscriptions:" + node;
+	}
+
+	/**
+	 * Record a check.
+	 *
+	 * @param tool
+	 *            The tool identifier.
+	 * @param node
+	 *            The checked node instance, or the node of the checked subscription.
+	 * @param key
+	 *            The key of the checked node or subscription. See {@link EventIndex#toKey(String)},
+	 *            {@link EventIndex#toKey(int)} and {@link #toBulkKey(String)}.
+	 * @param duration
+	 *            The check duration in milliseconds.
+	 * @param status
+	 *            The check outcome.
+	 * @param error
+	 *            The failure. May be <code>null</code>.
+	 */
+	public void record(final String tool, final String node, final String key, final long duration,
+			final NodeStatus status, final Throwable error) {
+		final Ring ring = rings.computeIfAbsent(key, k -> new Ring(tool, node, !k.equals(EventIndex.toKey(node)),
+				Math.max(1, Integer.getInteger(SIZE, 100))));
+		synchronized (ring) {
+			final int index = (int) (ring.recorded % ring.durations.length);
+			ring.durations[index] = duration;
+			ring.statuses[index] = status;
+			ring.errors[index] = error == null ? null : error.getClass().getName();
+			ring.recorded++;
+		}
+	}
+
+	/**
+	 * Forget the checks of a node, its children and their subscriptions.
+	 *
+	 * @param node
+	 *            The node identifier.
+	 */
+	public void forgetNode(final String node) {
+		rings.values().removeIf(r -> r.node.equals(node) || r.node.startsWith(node + ":"));
+	}
+
+	/**
+	 * Forget the checks of a subscription.
+	 *
+	 * @param subscription
+	 *            The subscription identifier.
+	 */
+	public void forgetSubscription(final int subscription) {
+		rings.remove(EventIndex.toKey(subscription));
+	}
+
+	/**
+	 * Return the latency of the checks kept in memory by tool: the amount of "checks", of "failures" and of "timeouts",
+	 * and the "p50", "p90", "p99" percentiles and the "max" of the durations in milliseconds.
+	 *
+	 * @return The latency statistics by tool. Ordered by tool.
+	 */
+	public Map<String, Map<String, Long>> getLatency() {
+		final Map<String, Summary> summaries = new HashMap<>();
+		rings.values().forEach(r -> {
+			final Summary summary = summaries.computeIfAbsent(r.tool, t -> new Summary());
+			synchronized (r) {
+				summarize(r, Math.min(r.recorded, r.durations.length), summary);
+			}
+		});
+		final Map<String, Map<String, Long>> result = new TreeMap<>();
+		summaries.forEach((tool, summary) -> {
+			final long[] durations = toSorted(summary);
+			final Map<String, Long> latency = new TreeMap<>();
+			latency.put("checks", (long) durations.length);
+			latency.put("failures", (long) summary.failures);
+			latency.put("timeouts", (long) summary.timeouts);
+			latency.put("p50", percentile(durations, 50));
+			latency.put("p90", percentile(durations, 90));
+			latency.put("p99", percentile(durations, 99));
+			latency.put("max", percentile(durations, 100));
+			result.put(tool, latency);
+		});
+		return result;
+	}
+
+	/**
+	 * Add the given amount of last checks of a ring to a summary.
+	 */
+	private void summarize(final Ring ring, final long last, final Summary summary) {
+		for (long i = ring.recorded - last; i < ring.recorded; i++) {
+			final int index = (int) (i % ring.durations.length);
+			summary.durations.add(ring.durations[index]);
+			if (!ring.statuses[index].isUp()) {
+				summary.failures++;
+			}
+			if (ring.statuses[index] == NodeStatus.TIMEOUT) {
+				summary.timeouts++;
+			}
+			if (ring.errors[index] != null) {
+				summary.error = ring.errors[index];
+			}
+		}
+	}
+
+	/**
+	 * Return the sorted durations of a summary.
+	 */
+	private long[] toSorted(final Summary summary) {
+		final long[] durations = summary.durations.stream().mapToLong(Long::longValue).toArray();
+		Arrays.sort(durations);
+		return durations;
+	}
+
+	/**
+	 * Return the nearest-rank percentile of sorted values.
+	 */
+	private long percentile(final long[] sorted, final int percent) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[Math.max(0, (int) Math.ceil(percent * sorted.length / 100d) - 1)];
+	}
+
+	/**
+	 * Summarize the checks recorded since the last flush by node in the database, and purge the old summaries. The
+	 * checks are marked as flushed only once the summaries are committed, so a rollback keeps them for the next flush.
+	 * The checks of the nodes deleted in the meantime, such as by another instance, are forgotten.
+	 *
+	 * @return The amount of new summaries.
+	 */
+	@Scheduled(fixedDelayString = "${health.history.flush:3600000}")
+	@Transactional
+	public int flush() {
+		final Map<String, Summary> summaries = new HashMap<>();
+		final Map<Ring, Long> flushed = new HashMap<>();
+		rings.values().forEach(r -> {
+			synchronized (r) {
+				final long last = Math.min(r.recorded - r.flushed, r.durations.length);
+				if (last > 0) {
+					summarize(r, last, summaries.computeIfAbsent(r.subscriptions + "|" + r.node, k -> new Summary()));
+					flushed.put(r, r.recorded);
+				}
+			}
+		});
+		final Date now = new Date();
+		final Set<String> deleted = new HashSet<>();
+		summaries.forEach((key, summary) -> {
+			final Node node = nodeRepository.findOne(key.substring(key.indexOf('|') + 1));
+			if (node == null) {
+				// Deleted node
+				deleted.add(key.substring(key.indexOf('|') + 1));
+				return;
+			}
+			final long[] durations = toSorted(summary);
+			final HealthRollup rollup = new HealthRollup();
+			rollup.setSubscriptions(Boolean.parseBoolean(key.substring(0, key.indexOf('|'))));
+			rollup.setNode(node);
+			rollup.setPeriod(now);
+			rollup.setChecks(durations.length);
+			rollup.setFailures(summary.failures);
+			rollup.setTimeouts(summary.timeouts);
+			rollup.setP50(percentile(durations, 50));
+			rollup.setP95(percentile(durations, 95));
+			rollup.setMax(percentile(durations, 100));
+			rollup.setError(summary.error);
+			repository.save(rollup);
+		});
+		final int purged = repository.deleteOlder(DateUtils.addDays(now, -Math.max(1, Integer.getInteger(RETENTION, 30))));
+		final Runnable task = () -> {
+			flushed.forEach((r, recorded) -> {
+				synchronized (r) {
+					r.flushed = Math.max(r.flushed, recorded);
+				}
+			});
+			deleted.forEach(n -> rings.values().removeIf(r -> r.node.equals(n)));
+		};
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					task.run();
+				}
+			});
+		} else {
+			task.run();
+		}
+		log.info("Flush health history : {} summaries, {} purged", summaries.size() - deleted.size(), purged);
+		return summaries.size() - deleted.size();
+	}
+}
@@ -0,0 +1,215 @@
+package org.ligoj.app.resource.node;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.transaction.Transactional;
+
+import org.ligoj.app.api.NodeStatus;
+import org.ligoj.app.dao.NodeScheduleRepository;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.NodeSchedule;
+import org.ligoj.bootstrap.core.SpringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Adaptive health check scheduler. Instead of checking all nodes at once, each node instance has its own persisted
+ * schedule, and the due nodes are checked at each tick. The first checks are spread over the whole interval, and a
+ * jitter is added to each next check. The interval of a node is halved when its status changes or while it is down, and
+ * increased while it is stable and up, within the configured bounds. When enabled with {@value #ADAPTIVE}, the cron
+ * based sweeps of {@link NodeResource} are skipped. In a cluster, only the leader schedules the new nodes, and each
+ * member checks the due nodes it owns. The plug-ins are called concurrently by the {@link NodeHealthExecutor}, outside
+ * any transaction, then each node is completed in its own transaction, so a failure only rolls back its own node.
+ */
+@Component
+@Slf4j
+public class NodeHealthScheduler {
+
+	/**
+	 * System property name enabling the adaptive scheduling.
+	 */
+	public static final String ADAPTIVE = "health.adaptive";
+
+	/**
+	 * System property name of the initial interval in milliseconds between two checks of a node.
+	 */
+	public static final String INTERVAL = "health.interval";
+
+	/**
+	 * System property name of the minimal interval in milliseconds between two checks of a node.
+	 */
+	public static final String INTERVAL_MIN = "health.interval.min";
+
+	/**
+	 * System property name of the maximal interval in milliseconds between two checks of a node.
+	 */
+	public static final String INTERVAL_MAX = "health.interval.max";
+
+	/**
+	 * System property name of the jitter in percent of the interval.
+	 */
+	public static final String JITTER = "health.jitter";
+
+	/**
+	 * System property name of the maximal amount of nodes checked by a tick.
+	 */
+	public static final String TICK_SIZE = "health.tick.size";
+
+	@Autowired
+	private NodeScheduleRepository repository;
+
+	@Autowired
+	private ClusterCoordinator cluster;
+
+	/**
+	 * Indicate the adaptive scheduling is enabled.
+	 *
+	 * @return <code>true</code> when the adaptive scheduling is enabled.
+	 */
+	public static boolean isEnabled() {
+		return Boolean.getBoolean(ADAPTIVE);
+	}
+
+	/**
+	 * Check the due nodes when the adaptive scheduling is enabled.
+	 */
+	@Scheduled(fixedDelayString = "${health.tick:60000}")
+	public void tick() {
+		if (isEnabled()) {
+			checkDueNodes();
+		}
+	}
+
+	/**
+	 * Schedule the new node instances, then check the due nodes owned by this cluster member.
+	 *
+	 * @return The amount of checked nodes.
+	 */
+	public int checkDueNodes() {
+		final long now = System.currentTimeMillis();
+		final NodeHealthScheduler self = SpringUtils.getBean(NodeHealthScheduler.class);
+		final Map<Integer, CompletableFuture<NodeStatus>> checks = self.submitDueNodes(now);
+		checks.forEach((schedule, check) -> {
+			final NodeStatus status = check.exceptionally(e -> NodeStatus.DOWN).join();
+			try {
+				self.complete(schedule, status);
+			} catch (final RuntimeException e) { // NOSONAR - Only this node is rolled back
+				log.warn("Check status of the due node schedule {} failed", schedule, e);
+			}
+		});
+		if (!checks.isEmpty()) {
+			log.info("Check status of {} due nodes : Done in {}ms", checks.size(), System.currentTimeMillis() - now);
+		}
+		return checks.size();
+	}
+
+	/**
+	 * Schedule the new node instances, then submit the checks of the due nodes owned by this cluster member to the
+	 * {@link NodeHealthExecutor}. The due nodes are read page by page until the tick size is reached, so the nodes
+	 * owned by the other members do not starve the ones of this member.
+	 *
+	 * @param now
+	 *            The tick timestamp.
+	 * @return The future status of each submitted node, by schedule identifier.
+	 */
+	@Transactional
+	public Map<Integer, CompletableFuture<NodeStatus>> submitDueNodes(final long now) {
+		cluster.heartbeat();
+		if (cluster.isLeader()) {
+			scheduleNewNodes(now);
+		}
+		final int size = Math.max(1, Integer.getInteger(TICK_SIZE, 100));
+		final List<NodeSchedule> schedules = new ArrayList<>();
+		List<NodeSchedule> page;
+		int index = 0;
+		do {
+			page = repository.findAllDue(new Date(now), PageRequest.of(index++, size));
+			schedules.addAll(cluster.shard(page, s -> s.getNode().getId()));
+		} while (schedules.size() < size && page.size() == size);
+
+		final NodeResource resource = SpringUtils.getBean(NodeResource.class);
+		final Map<Integer, CompletableFuture<NodeStatus>> checks = new LinkedHashMap<>();
+		schedules.stream().limit(size).forEach(s -> checks.put(s.getId(), resource.checkNodeStatusAsync(s.getNode().getId())));
+		return checks;
+	}
+
+	/**
+	 * Register the new status of a due node, check its subscriptions and compute its next check.
+	 *
+	 * @param schedule
+	 *            The schedule identifier of the checked node.
+	 * @param status
+	 *            The new node status.
+	 */
+	@Transactional
+	public void complete(final int schedule, final NodeStatus status) {
+		final NodeSchedule entity = repository.findOneExpected(schedule);
+		SpringUtils.getBean(NodeResource.class).checkNodeHealth(entity.getNode(), status);
+		reschedule(entity, status, System.currentTimeMillis());
+	}
+
+	/**
+	 * Schedule the node instances without schedule. Their first check is randomly spread over the initial interval.
+	 */
+	private void scheduleNewNodes(final long now) {
+		final long interval = getInterval();
+		for (final Node node : repository.findAllUnscheduled()) {
+			final NodeSchedule schedule = new NodeSchedule();
+			schedule.setNode(node);
+			schedule.setInterval(interval);
+			schedule.setNext(new Date(now + ThreadLocalRandom.current().nextLong(interval)));
+			repository.save(schedule);
+		}
+	}
+
+	/**
+	 * Compute the next check of a node from its new status.
+	 *
+	 * @param schedule
+	 *            The schedule to update.
+	 * @param status
+	 *            The new node status.
+	 * @param now
+	 *            The current timestamp.
+	 */
+	protected void reschedule(final NodeSchedule schedule, final NodeStatus status, final long now) {
+		final long min = Math.max(1, Long.getLong(INTERVAL_MIN, 3600000L));
+		final long max = Math.max(min, Long.getLong(INTERVAL_MAX, 4 * getInterval()));
+		long interval = schedule.getInterval();
+		if (schedule.getStatus() != null) {
+			if (!status.isUp() || !status.name().equals(schedule.getStatus())) {
+				// Flapping or down node, check it more often
+				interval /= 2;
+			} else {
+				// Stable node, check it less often
+				interval += interval / 2;
+			}
+		}
+		interval = Math.min(max, Math.max(min, interval));
+		schedule.setInterval(interval);
+		schedule.setFailures(status.isUp() ? 0 : schedule.getFailures() + 1);
+		schedule.setStatus(status.name());
+		schedule.setLast(new Date(now));
+
+		// Add a jitter to spread the checks of the nodes sharing the same interval
+		final long jitter = interval * Math.max(0, Math.min(100, Integer.getInteger(JITTER, 10))) / 100;
+		schedule.setNext(new Date(now + interval + (jitter == 0 ? 0 : ThreadLocalRandom.current().nextLong(-jitter, jitter))));
+	}
+
+	/**
+	 * Return the initial interval.
+	 */
+	private long getInterval() {
+		return Math.max(1, Long.getLong(INTERVAL, 86400000L));
+	}
+}
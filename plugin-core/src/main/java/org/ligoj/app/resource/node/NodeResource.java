@@ -1,12 +1,22 @@
 package org.ligoj.app.resource.node;
 
+import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -26,6 +36,8 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.ListUtils;
@@ -38,10 +50,13 @@ import org.ligoj.app.api.SubscriptionMode;
 import org.ligoj.app.api.SubscriptionStatusWithData;
 import org.ligoj.app.api.ToolPlugin;
 import org.ligoj.app.dao.EventRepository;
+import org.ligoj.app.dao.HealthRollupRepository;
 import org.ligoj.app.dao.NodeRepository;
+import org.ligoj.app.dao.NodeScheduleRepository;
 import org.ligoj.app.dao.ParameterRepository;
 import org.ligoj.app.dao.SubscriptionRepository;
 import org.ligoj.app.model.EventType;
+import org.ligoj.app.model.HealthRollup;
 import org.ligoj.app.model.Node;
 import org.ligoj.app.model.Parameter;
 import org.ligoj.app.model.ParameterValue;
@@ -56,6 +71,7 @@ import org.ligoj.bootstrap.core.resource.BusinessException;
 import org.ligoj.bootstrap.core.resource.OnNullReturn404;
 import org.ligoj.bootstrap.core.security.SecurityHelper;
 import org.ligoj.bootstrap.core.validation.ValidationJsonException;
+import org.springframework.aop.support.AopUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -97,6 +113,41 @@ public class NodeResource extends AbstractLockedResource<String> {
 	@Autowired
 	private PaginationJson paginationJson;
 
+	@Autowired
+	private NodeHealthExecutor healthExecutor;
+
+	@Autowired
+	private NodeScheduleRepository scheduleRepository;
+
+	@Autowired
+	private EventHub eventHub;
+
+	@Autowired
+	private NodeHealthHistory healthHistory;
+
+	@Autowired
+	private HealthRollupRepository healthRollupRepository;
+
+	@Autowired
+	private ClusterCoordinator cluster;
+
+	/**
+	 * System property name of the maximal amount of concurrent subscription checks of a node. These checks share the
+	 * slots of their tool, so they never exceed {@link NodeHealthExecutor#TOOL_PARALLELISM} either.
+	 */
+	public static final String SUBSCRIPTION_PARALLELISM = "health.subscription.parallelism";
+
+	/**
+	 * System property name of the amount of subscriptions checked before their events are saved.
+	 */
+	public static final String SUBSCRIPTION_WAVE = "health.subscription.wave";
+
+	/**
+	 * System property name of the time budget in milliseconds of a sweep. Once elapsed, the remaining subscriptions are
+	 * not checked. <code>0</code> means no limit.
+	 */
+	public static final String SUBSCRIPTION_BUDGET = "health.subscription.budget";
+
 	/**
 	 * Mapped columns.
 	 */
@@ -189,11 +240,16 @@ public class NodeResource extends AbstractLockedResource<String> {
 	}
 
 	/**
-	 * Daily, Check status of each node instance.
+	 * Daily, Check status of each node instance owned by this cluster member.
 	 */
 	@Scheduled(cron = "${health.node}")
 	public void checkNodesStatusScheduler() {
-		checkNodesStatus(repository.findAllInstance());
+		if (NodeHealthScheduler.isEnabled()) {
+			// Replaced by the adaptive scheduling
+			return;
+		}
+		cluster.heartbeat();
+		checkNodesStatus(cluster.shard(repository.findAllInstance(), Node::getId));
 	}
 
 	/**
@@ -326,7 +382,10 @@ public class NodeResource extends AbstractLockedResource<String> {
 
 		pvResource.deleteByNode(id);
 		parameterRepository.deleteByNode(id);
-		eventRepository.deleteByNode(id);
+		eventResource.deleteByNode(id);
+		scheduleRepository.deleteByNode(id);
+		healthRollupRepository.deleteByNode(id);
+		healthHistory.forgetNode(id);
 		repository.deleteById(id);
 	}
 
@@ -340,13 +399,138 @@ public class NodeResource extends AbstractLockedResource<String> {
 	}
 
 	/**
-	 * Check status of each node.
+	 * Check status of each node. The plug-in checks are executed concurrently by the {@link NodeHealthExecutor}, and
+	 * each result is registered in this thread as soon as it is available.
 	 * 
 	 * @param nodes
 	 *            The nodes to check.
 	 */
 	private void checkNodesStatus(final List<Node> nodes) {
-		nodes.forEach(this::checkNodeStatus);
+		final long start = System.currentTimeMillis();
+		final long deadline = getDeadline(start);
+		healthExecutor.startProgress();
+		log.info("Check status of {} nodes : Started", nodes.size());
+		final BlockingQueue<Entry<Node, NodeStatus>> results = new LinkedBlockingQueue<>();
+		for (final Node node : nodes) {
+			final Map<String, String> parameters = pvResource.getNodeParameters(node.getId());
+			healthExecutor.submit(getToolId(node), () -> checkNodeStatus(node.getId(), parameters))
+					.whenComplete((status, e) -> results.add(new SimpleEntry<>(node, status == null ? NodeStatus.DOWN : status)));
+		}
+		try {
+			for (int i = 0; i < nodes.size(); i++) {
+				final Entry<Node, NodeStatus> result = results.take();
+				if (eventResource.registerEvent(result.getKey(), EventType.STATUS, result.getValue().name())) {
+					checkSubscriptionStatus(result.getKey(), result.getValue(), deadline);
+				}
+			}
+		} catch (final InterruptedException e) {
+			log.warn("Check status of {} nodes : Interrupted", nodes.size());
+			Thread.currentThread().interrupt();
+		}
+		healthExecutor.report("Check status", nodes.size(), start);
+	}
+
+	/**
+	 * Return the deadline of a sweep started at the given time.
+	 */
+	private long getDeadline(final long start) {
+		final long budget = Long.getLong(SUBSCRIPTION_BUDGET, 0);
+		return budget > 0 ? start + budget : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Return the identifier of the tool of the given node.
+	 */
+	private String getToolId(final Node node) {
+		return Optional.ofNullable(node.getTool()).map(Node::getId).orElse(node.getId());
+	}
+
+	/**
+	 * Return the identifier of the tool implemented by the given plug-in, or the given node when undefined.
+	 */
+	private String getToolId(final ToolPlugin plugin, final String node) {
+		return Optional.ofNullable(plugin.getKey()).orElse(node);
+	}
+
+	/**
+	 * Call a plug-in within the time budget of its tool, and record the duration and the outcome of this check in the
+	 * history.
+	 */
+	private <T> T call(final ToolPlugin plugin, final String node, final String key, final Callable<T> call,
+			final Function<T, NodeStatus> toStatus) throws Exception {
+		final String tool = getToolId(plugin, node);
+		final long start = System.currentTimeMillis();
+		try {
+			final T result = healthExecutor.call(tool, call);
+			healthHistory.record(tool, node, key, System.currentTimeMillis() - start, toStatus.apply(result), null);
+			return result;
+		} catch (final TimeoutException e) {
+			healthHistory.record(tool, node, key, System.currentTimeMillis() - start, NodeStatus.TIMEOUT, e);
+			throw e;
+		} catch (final Exception e) {
+			healthHistory.record(tool, node, key, System.currentTimeMillis() - start, NodeStatus.DOWN, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Return the latency of the last health checks by tool.
+	 * 
+	 * @return The latency statistics by tool.
+	 * @see NodeHealthHistory#getLatency()
+	 */
+	@GET
+	@Path("status/latency")
+	public Map<String, Map<String, Long>> getLatency() {
+		return healthHistory.getLatency();
+	}
+
+	/**
+	 * Return the health check summaries of a visible node instance.
+	 * 
+	 * @param id
+	 *            The node identifier.
+	 * @return The health check summaries of this node, the oldest first.
+	 */
+	@GET
+	@Path("status/history/{id:.+:.*}")
+	public List<HealthRollup> getHealthHistory(@PathParam("id") final String id) {
+		checkNode(id, repository::findOneVisible);
+		return healthRollupRepository.findAllByNode(id);
+	}
+
+	/**
+	 * Return a new subscription status attached to the given node.
+	 */
+	private SubscriptionStatusWithData newStatus(final NodeStatus status, final String node) {
+		final SubscriptionStatusWithData result = new SubscriptionStatusWithData(status);
+		result.setNode(node);
+		return result;
+	}
+
+	/**
+	 * Return the amount of plug-in calls currently running by tool. The calls exceeding their time budget are counted
+	 * until they really end.
+	 * 
+	 * @return The running calls by tool.
+	 * @see NodeHealthExecutor#getInflight()
+	 */
+	@GET
+	@Path("status/inflight")
+	public Map<String, Integer> getInflight() {
+		return healthExecutor.getInflight();
+	}
+
+	/**
+	 * Return the statistics of the health checks: the timing of the last sweep and the current load.
+	 * 
+	 * @return The statistics of the health checks.
+	 * @see NodeHealthExecutor#getStatistics()
+	 */
+	@GET
+	@Path("status/sweep")
+	public Map<String, Long> getHealthStatistics() {
+		return healthExecutor.getStatistics();
 	}
 
 	/**
@@ -397,7 +581,10 @@ public class NodeResource extends AbstractLockedResource<String> {
 			final ToolPlugin plugin = locator.getResourceExpected(node, ToolPlugin.class);
 
 			// Call service which check status
-			isUp = plugin.checkStatus(node, parameters);
+			isUp = call(plugin, node, EventIndex.toKey(node), () -> plugin.checkStatus(node, parameters), NodeStatus::getValue);
+		} catch (final TimeoutException e) {
+			log.warn("Check status of node {} timed out", node);
+			return NodeStatus.TIMEOUT;
 		} catch (final Exception e) { // NOSONAR
 			// Do not pollute logs with this failures
 			// Service is down when an exception is thrown.
@@ -407,11 +594,16 @@ public class NodeResource extends AbstractLockedResource<String> {
 	}
 
 	/**
-	 * Daily, check status of each subscription.
+	 * Daily, check status of each subscription of the node instances owned by this cluster member.
 	 */
 	@Scheduled(cron = "${health.subscription}")
 	public void checkSubscriptionsStatusScheduler() {
-		checkSubscriptionsStatus(repository.findAllInstance());
+		if (NodeHealthScheduler.isEnabled()) {
+			// Replaced by the adaptive scheduling
+			return;
+		}
+		cluster.heartbeat();
+		checkSubscriptionsStatus(cluster.shard(repository.findAllInstance(), Node::getId));
 	}
 
 	/**
@@ -430,14 +622,17 @@ public class NodeResource extends AbstractLockedResource<String> {
 	 *            The nodes to check.
 	 */
 	private void checkSubscriptionsStatus(final List<Node> instances) {
+		final long start = System.currentTimeMillis();
+		final long deadline = getDeadline(start);
+		healthExecutor.startProgress();
 		int counter = 0;
 		log.info("Check all subscriptions of {} nodes : Started", instances.size());
 		for (final Node node : instances) {
-			checkSubscriptionStatus(node, null);
+			checkSubscriptionStatus(node, null, deadline);
 			counter++;
 			log.info("Check all subscriptions {}/{} processed nodes", counter, instances.size());
 		}
-		log.info("Check all subscriptions of {} nodes : Done", instances.size());
+		healthExecutor.report("Check all subscriptions", instances.size(), start);
 	}
 
 	/**
@@ -466,19 +661,67 @@ public class NodeResource extends AbstractLockedResource<String> {
 	 *            node status
 	 */
 	protected void checkSubscriptionStatus(final Node node, final NodeStatus status) {
+		checkSubscriptionStatus(node, status, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Check the status of a node and of all its subscriptions, whatever the previous status.
+	 * 
+	 * @param node
+	 *            The node instance to check.
+	 * @return The new node status.
+	 * @see NodeHealthScheduler
+	 */
+	public NodeStatus checkNodeHealth(final Node node) {
+		return checkSubscriptionStatus(node, null, getDeadline(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Register the given status of a node, then check all its subscriptions, whatever the previous status.
+	 * 
+	 * @param node
+	 *            The checked node instance.
+	 * @param status
+	 *            The new node status.
+	 * @see NodeHealthScheduler
+	 */
+	public void checkNodeHealth(final Node node, final NodeStatus status) {
+		eventResource.registerEvent(node, EventType.STATUS, status.name());
+		checkSubscriptionStatus(node, status, getDeadline(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Submit the status check of a node to the {@link NodeHealthExecutor}. Only the parameters are read in the current
+	 * transaction, the plug-in is called by the executor.
+	 * 
+	 * @param id
+	 *            The node identifier.
+	 * @return The future status of this node.
+	 * @see NodeHealthScheduler
+	 */
+	public CompletableFuture<NodeStatus> checkNodeStatusAsync(final String id) {
+		final Node node = repository.findOneExpected(id);
+		final Map<String, String> parameters = pvResource.getNodeParameters(id);
+		return healthExecutor.submit(getToolId(node), () -> checkNodeStatus(id, parameters));
+	}
+
+	/**
+	 * Check status subscription within a time budget, and return the node status.
+	 */
+	private NodeStatus checkSubscriptionStatus(final Node node, final NodeStatus status, final long deadline) {
 		final Map<String, String> nodeParameters = pvResource.getNodeParameters(node.getId());
 
 		// Retrieve subscriptions where parameters are redefined.
 		// Other subscriptions get the node's status.
 		final Map<Subscription, Map<String, String>> subscriptions = findSubscriptionsWithParams(node.getId());
-
-		// Same instance, but with proxy to resolve inner transaction issue
-		final NodeResource thisProxy = SpringUtils.getBean(NodeResource.class);
+		healthExecutor.progress(subscriptions.size(), 0, 0);
 
 		NodeStatus newStatus = status;
 		if (status == null) {
 			// Node status is unknown for now, need a check
-			newStatus = NodeStatus.getValue(thisProxy.checkNodeStatus(node.getId(), nodeParameters).isUp());
+			// Same instance, but with proxy to resolve inner transaction issue
+			final NodeResource thisProxy = SpringUtils.getBean(NodeResource.class);
+			newStatus = thisProxy.checkNodeStatus(node.getId(), nodeParameters);
 
 			// Update the node status
 			eventResource.registerEvent(node, EventType.STATUS, newStatus.name());
@@ -487,13 +730,17 @@ public class NodeResource extends AbstractLockedResource<String> {
 		// Check the subscriptions
 		if (newStatus.isUp()) {
 			// Check only the subscription in UP nodes
-			checkNodeSubscriptions(node, nodeParameters, subscriptions, thisProxy);
+			checkNodeSubscriptions(node, nodeParameters, subscriptions, deadline);
 		} else {
-			// All subscription of this are marked as DOWN
-			log.info("Node {} is DOWN, as well for {} related subscriptions", node.getId(), subscriptions.size());
-			subscriptions.entrySet()
-					.forEach(s -> eventResource.registerEvent(s.getKey(), EventType.STATUS, NodeStatus.DOWN.name()));
+			// All subscription of this are marked as DOWN, or TIMEOUT
+			log.info("Node {} is {}, as well for {} related subscriptions", node.getId(), newStatus, subscriptions.size());
+			final String value = newStatus.name();
+			final Map<Subscription, String> statuses = new HashMap<>();
+			subscriptions.keySet().forEach(s -> statuses.put(s, value));
+			eventResource.registerEvents(statuses, EventType.STATUS);
+			healthExecutor.progress(0, subscriptions.size(), 0);
 		}
+		return newStatus;
 	}
 
 	/**
@@ -515,11 +762,15 @@ public class NodeResource extends AbstractLockedResource<String> {
 			final ToolPlugin toolPlugin = locator.getResourceExpected(node, ToolPlugin.class);
 
 			// Call service which check status
-			final SubscriptionStatusWithData status = toolPlugin.checkSubscriptionStatus(subscription.getId(), node,
-					parameters);
+			final SubscriptionStatusWithData status = call(toolPlugin, node, EventIndex.toKey(subscription.getId()),
+					() -> toolPlugin.checkSubscriptionStatus(subscription.getId(), node, parameters),
+					SubscriptionStatusWithData::getStatus);
 			status.setNode(node);
 			log.info("Check status of a subscription attached to {} succeed", node);
 			return status;
+		} catch (final TimeoutException e) {
+			log.warn("Check status of a subscription attached to {} timed out", node);
+			return newStatus(NodeStatus.TIMEOUT, node);
 		} catch (final Exception e) { // NOSONAR
 			// Do not pollute logs with this failures
 			// Service is down when an exception is thrown, log the error
@@ -530,20 +781,162 @@ public class NodeResource extends AbstractLockedResource<String> {
 	}
 
 	/**
-	 * Check the subscriptions of each subscription related to given node.
+	 * Check status of several subscriptions. The plug-in checks are executed concurrently by the
+	 * {@link NodeHealthExecutor}, within the limits of each tool. They run as the current user, but outside of the
+	 * current transaction.
+	 * 
+	 * @param subscriptions
+	 *            The subscription entities and their parameters.
+	 * @return The status of each given subscription, by subscription identifier.
+	 */
+	public Map<Integer, SubscriptionStatusWithData> checkSubscriptionStatus(
+			final Map<Subscription, Map<String, String>> subscriptions) {
+		final Map<Integer, CompletableFuture<SubscriptionStatusWithData>> futures = new LinkedHashMap<>();
+		subscriptions.forEach((subscription, parameters) -> futures.put(subscription.getId(), healthExecutor
+				.submit(getToolId(subscription.getNode()), () -> checkSubscriptionStatus(subscription, parameters))));
+		final Map<Integer, SubscriptionStatusWithData> result = new LinkedHashMap<>();
+		futures.forEach((id, future) -> result.put(id, future.exceptionally(e -> new SubscriptionStatusWithData(false)).join()));
+		return result;
+	}
+
+	/**
+	 * Check the status of several subscriptions of a node with a single call to the tool.
+	 * 
+	 * @param node
+	 *            The related node identifier.
+	 * @param subscriptions
+	 *            Parameters of each subscription. Key is the subscription identifier.
+	 * @return The statuses returned by the tool. Key is the subscription identifier. Empty when the check failed.
+	 * @see ToolPlugin#checkSubscriptionStatuses(String, Map)
+	 */
+	public Map<Integer, SubscriptionStatusWithData> checkSubscriptionStatuses(final String node,
+			final Map<Integer, Map<String, String>> subscriptions) {
+		try {
+			log.info("Check status of {} subscriptions attached to {}...", subscriptions.size(), node);
+			final ToolPlugin plugin = locator.getResourceExpected(node, ToolPlugin.class);
+			final Map<Integer, SubscriptionStatusWithData> statuses = call(plugin, node, NodeHealthHistory.toBulkKey(node),
+					() -> plugin.checkSubscriptionStatuses(node, subscriptions), r -> NodeStatus.UP);
+			statuses.values().forEach(s -> s.setNode(node));
+			log.info("Check status of {} subscriptions attached to {} succeed", statuses.size(), node);
+			return statuses;
+		} catch (final TimeoutException e) {
+			// The tool hangs, no need to check the subscriptions one by one
+			log.warn("Check status of {} subscriptions attached to {} timed out", subscriptions.size(), node);
+			final Map<Integer, SubscriptionStatusWithData> statuses = new LinkedHashMap<>();
+			subscriptions.keySet().forEach(s -> statuses.put(s, newStatus(NodeStatus.TIMEOUT, node)));
+			return statuses;
+		} catch (final Exception e) { // NOSONAR
+			// The subscriptions will be checked one by one
+			log.warn("Check status of {} subscriptions attached to {} failed : {}", subscriptions.size(), node, e.getMessage());
+		}
+		return Collections.emptyMap();
+	}
+
+	/**
+	 * Indicate the tool of the given node overrides the bulk subscription check.
+	 */
+	private boolean isBulkSubscriptionStatus(final String node) {
+		final ToolPlugin plugin = locator.getResource(node, ToolPlugin.class);
+		if (plugin == null) {
+			return false;
+		}
+		try {
+			return !AopUtils.getTargetClass(plugin).getMethod("checkSubscriptionStatuses", String.class, Map.class).isDefault();
+		} catch (final NoSuchMethodException e) {
+			// Public method of the interface, cannot happen
+			return false;
+		}
+	}
+
+	/**
+	 * Check the subscriptions of each subscription related to given node. When the tool implements the bulk check,
+	 * all subscriptions are first checked with a single call. Then the remaining subscriptions are checked by waves of
+	 * concurrent checks, and the events of a wave are saved at once. The subscriptions not checked before the deadline
+	 * are skipped.
 	 */
 	private void checkNodeSubscriptions(final Node node, final Map<String, String> nodeParameters,
-			final Map<Subscription, Map<String, String>> subscriptions, final NodeResource thisProxy) {
+			final Map<Subscription, Map<String, String>> subscriptions, final long deadline) {
+		final Map<Subscription, Map<String, String>> remaining = new LinkedHashMap<>();
+		subscriptions.forEach((s, p) -> {
+			final Map<String, String> parameters = new HashMap<>(nodeParameters);
+			parameters.putAll(p);
+			remaining.put(s, parameters);
+		});
+		if (!remaining.isEmpty() && isBulkSubscriptionStatus(node.getId())) {
+			checkNodeSubscriptionsBulk(node, remaining, deadline);
+		}
+
+		final List<Entry<Subscription, Map<String, String>>> entries = new ArrayList<>(remaining.entrySet());
+		final String tool = getToolId(node);
+		final int parallelism = Math.min(Integer.getInteger(SUBSCRIPTION_PARALLELISM, 4),
+				Integer.getInteger(NodeHealthExecutor.TOOL_PARALLELISM, 4));
 		int counter = 0;
-		for (final Entry<Subscription, Map<String, String>> subscription : subscriptions.entrySet()) {
+		for (final List<Entry<Subscription, Map<String, String>>> wave : ListUtils.partition(entries,
+				Math.max(1, Integer.getInteger(SUBSCRIPTION_WAVE, 100)))) {
+			if (System.currentTimeMillis() >= deadline) {
+				log.warn("Check all subscriptions of node {} : time budget exceeded, {} skipped", node.getId(), entries.size() - counter);
+				healthExecutor.progress(0, 0, entries.size() - counter);
+				return;
+			}
+
 			// For each subscription, check status
-			log.info("Check all subscriptions of node {} : {}/{} ...", node.getId(), counter + 1, subscriptions.size());
-			final Map<String, String> parameters = new HashMap<>(nodeParameters);
-			parameters.putAll(subscription.getValue());
-			final NodeStatus subscriptionStatus = thisProxy.checkSubscriptionStatus(subscription.getKey(), parameters)
-					.getStatus();
-			eventResource.registerEvent(subscription.getKey(), EventType.STATUS, subscriptionStatus.name());
-			counter++;
+			final Map<Subscription, CompletableFuture<NodeStatus>> futures = new LinkedHashMap<>();
+			for (final Entry<Subscription, Map<String, String>> subscription : wave) {
+				futures.put(subscription.getKey(), healthExecutor.submit(tool, parallelism,
+						() -> checkSubscriptionStatus(subscription.getKey(), subscription.getValue()).getStatus()));
+			}
+
+			// Save the events of this wave
+			final Map<Subscription, String> statuses = new LinkedHashMap<>();
+			futures.forEach((s, f) -> getStatus(f, deadline, NodeStatus.DOWN).ifPresent(status -> statuses.put(s, status.name())));
+			eventResource.registerEvents(statuses, EventType.STATUS);
+			healthExecutor.progress(0, statuses.size(), wave.size() - statuses.size());
+			counter += wave.size();
+			log.info("Check all subscriptions of node {} : {}/{} ...", node.getId(), counter, entries.size());
+		}
+	}
+
+	/**
+	 * Check the given subscriptions with a single call to the tool, save the returned statuses, and remove the checked
+	 * subscriptions from the given map.
+	 */
+	private void checkNodeSubscriptionsBulk(final Node node, final Map<Subscription, Map<String, String>> remaining,
+			final long deadline) {
+		final Map<Integer, Subscription> byId = new HashMap<>();
+		final Map<Integer, Map<String, String>> parameters = new LinkedHashMap<>();
+		remaining.forEach((s, p) -> {
+			byId.put(s.getId(), s);
+			parameters.put(s.getId(), p);
+		});
+		final CompletableFuture<Map<Integer, SubscriptionStatusWithData>> future = healthExecutor.submit(getToolId(node),
+				() -> checkSubscriptionStatuses(node.getId(), parameters));
+
+		// Save the returned statuses, the other subscriptions are checked one by one
+		final Map<Integer, SubscriptionStatusWithData> results = getStatus(future, deadline,
+				Collections.<Integer, SubscriptionStatusWithData>emptyMap()).orElse(Collections.emptyMap());
+		final Map<Subscription, String> statuses = new LinkedHashMap<>();
+		results.forEach((id, status) -> Optional.ofNullable(byId.get(id)).ifPresent(s -> statuses.put(s, status.getStatus().name())));
+		eventResource.registerEvents(statuses, EventType.STATUS);
+		healthExecutor.progress(0, statuses.size(), 0);
+		remaining.keySet().removeAll(statuses.keySet());
+		log.info("Check all subscriptions of node {} : {}/{} at once", node.getId(), statuses.size(), byId.size());
+	}
+
+	/**
+	 * Wait for a subscription status until the deadline. The given failure value is returned when the check failed.
+	 */
+	private <T> Optional<T> getStatus(final CompletableFuture<T> future, final long deadline, final T failed) {
+		try {
+			return Optional.of(future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+		} catch (final TimeoutException e) {
+			// Time budget exceeded, this subscription is skipped
+			return Optional.empty();
+		} catch (final ExecutionException e) {
+			log.warn("Check status of a subscription failed : {}", e.getMessage());
+			return Optional.of(failed);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Optional.empty();
 		}
 	}
 
@@ -558,6 +951,22 @@ public class NodeResource extends AbstractLockedResource<String> {
 		return eventResource.findAll(securityHelper.getLogin());
 	}
 
+	/**
+	 * Open a Server-Sent Events stream pushing the status changes of the nodes and subscriptions visible by the current
+	 * user. The client loads the current statuses once with the other status services, then applies the pushed events.
+	 * 
+	 * @param sink
+	 *            The client sink.
+	 * @param sse
+	 *            The SSE context.
+	 */
+	@GET
+	@Path("status/stream")
+	@Produces(MediaType.SERVER_SENT_EVENTS)
+	public void streamStatus(@Context final SseEventSink sink, @Context final Sse sse) {
+		eventHub.register(securityHelper.getLogin(), sink, sse);
+	}
+
 	/**
 	 * Retrieve a specific node status.
 	 * 
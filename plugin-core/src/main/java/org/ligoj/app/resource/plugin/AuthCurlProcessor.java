@@ -1,6 +1,7 @@
 package org.ligoj.app.resource.plugin;
 
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
@@ -57,6 +58,15 @@ public class AuthCurlProcessor extends CurlProcessor {
 		return super.process(request);
 	}
 
+	/**
+	 * Process asynchronously the given request.
+	 */
+	@Override
+	protected CompletableFuture<Boolean> processAsync(final CurlRequest request) {
+		addAuthenticationHeader(request);
+		return super.processAsync(request);
+	}
+
 	/**
 	 * Add the basic authentication header.
 	 */
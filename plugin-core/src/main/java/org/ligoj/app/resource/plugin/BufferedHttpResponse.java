@@ -0,0 +1,38 @@
+package org.ligoj.app.resource.plugin;
+
+import java.io.IOException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * A {@link CloseableHttpResponse} holding an in-memory copy of a response, not attached to any connection. Used to
+ * expose the responses not produced by the blocking client to the {@link HttpResponseCallback} contract.
+ */
+public class BufferedHttpResponse extends BasicHttpResponse implements CloseableHttpResponse {
+
+	/**
+	 * Copy the status, the headers and the entity of the given response.
+	 *
+	 * @param response
+	 *            The source response. The entity is fully read when it is not repeatable.
+	 * @throws IOException
+	 *             When the entity cannot be read.
+	 */
+	public BufferedHttpResponse(final HttpResponse response) throws IOException {
+		super(response.getStatusLine());
+		setHeaders(response.getAllHeaders());
+		final HttpEntity entity = response.getEntity();
+		if (entity != null) {
+			setEntity(entity.isRepeatable() ? entity : new BufferedHttpEntity(entity));
+		}
+	}
+
+	@Override
+	public void close() {
+		// Nothing to release
+	}
+}
@@ -0,0 +1,61 @@
+package org.ligoj.app.resource.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Entity wrapper counting the bytes read from the wrapped entity.
+ */
+class CountingHttpEntity extends HttpEntityWrapper {
+
+	/**
+	 * Amount of bytes read from this entity.
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * Wrap the given entity.
+	 *
+	 * @param entity
+	 *            The entity to wrap.
+	 */
+	CountingHttpEntity(final HttpEntity entity) {
+		super(entity);
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		return new CountingInputStream(super.getContent()) {
+			@Override
+			protected synchronized void afterRead(final int n) {
+				super.afterRead(n);
+				if (n > 0) {
+					count.addAndGet(n);
+				}
+			}
+		};
+	}
+
+	@Override
+	public void writeTo(final OutputStream output) throws IOException {
+		final CountingOutputStream counting = new CountingOutputStream(output);
+		super.writeTo(counting);
+		count.addAndGet(counting.getByteCount());
+	}
+
+	/**
+	 * Return the amount of bytes read from this entity.
+	 *
+	 * @return The amount of bytes read from this entity.
+	 */
+	long getCount() {
+		return count.get();
+	}
+}
@@ -0,0 +1,44 @@
+package org.ligoj.app.resource.plugin;
+
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A cached response, stored in memory and on disk.
+ */
+@Getter
+@Setter
+public class CurlCacheEntry {
+
+	/**
+	 * The requested URL.
+	 */
+	private String url;
+
+	/**
+	 * The "ETag" header of the response. May be <code>null</code>.
+	 */
+	private String etag;
+
+	/**
+	 * The "Last-Modified" header of the response. May be <code>null</code>.
+	 */
+	private String lastModified;
+
+	/**
+	 * The other headers to restore, such as the content type.
+	 */
+	private Map<String, String> headers;
+
+	/**
+	 * The raw response body.
+	 */
+	private byte[] body;
+
+	/**
+	 * Timestamp of the last successful validation.
+	 */
+	private long validated;
+}
@@ -0,0 +1,23 @@
+package org.ligoj.app.resource.plugin;
+
+/**
+ * Response cache behavior of a {@link CurlRequest}. Only the "GET" requests are cached.
+ */
+public enum CurlCachePolicy {
+
+	/**
+	 * The response is neither cached nor read from the cache.
+	 */
+	NONE,
+
+	/**
+	 * The response is cached when it has an "ETag" or a "Last-Modified" header, and the cached entry is revalidated
+	 * with a conditional request on each hit.
+	 */
+	REVALIDATE,
+
+	/**
+	 * Same as {@link #REVALIDATE}, but the stale cached entry is served when the remote server is down or fails.
+	 */
+	STALE_ON_ERROR
+}
@@ -1,30 +1,145 @@
 package org.ligoj.app.resource.plugin;
 
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.IntStream;
 
 import javax.cache.annotation.CacheKey;
+import javax.cache.annotation.CachePut;
 import javax.cache.annotation.CacheResult;
+import javax.cache.annotation.CacheValue;
+import javax.annotation.PostConstruct;
 import javax.validation.constraints.NotNull;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
+import lombok.extern.slf4j.Slf4j;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+
 /**
- * A a cache manager for token used by the {@link CurlProcessor}
+ * A a cache manager for token used by the {@link CurlProcessor}. Concurrent loads of the same token share a single
+ * execution, loads of distinct tokens run in parallel. A token reaching the refresh-ahead age is refreshed before its
+ * expiration by the next calling thread, while the concurrent callers keep the cached one. The provider function is
+ * only run by the calling thread, so it may rely on its state. The load time of a token is forgotten when the token
+ * leaves the "curl-tokens" cache.
  */
 @Component
+@Slf4j
 public class CurlCacheToken {
 
+	/**
+	 * System property name of the age in milliseconds after which an accessed token is refreshed. Negative value
+	 * disables the refresh-ahead. By default, 80% of the "curl-tokens" cache time to live.
+	 */
+	public static final String REFRESH_AHEAD = "curl.token.refresh-ahead";
+
+	/**
+	 * The cache name of the tokens.
+	 */
+	private static final String CACHE = "curl-tokens";
+
+	/**
+	 * In-flight loads, key is the cache key.
+	 */
+	private static final Map<String, CompletableFuture<String>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+	/**
+	 * Load timestamp of each token.
+	 */
+	private static final Map<Object, Long> LOADED = new ConcurrentHashMap<>();
+
+	/**
+	 * Forget the load timestamp of the tokens leaving the cache.
+	 */
+	private static final CacheEventListener EVICTION_LISTENER = new CacheEventListenerAdapter() {
+		@Override
+		public void notifyElementRemoved(final Ehcache cache, final Element element) {
+			LOADED.remove(element.getObjectKey());
+		}
+
+		@Override
+		public void notifyElementExpired(final Ehcache cache, final Element element) {
+			LOADED.remove(element.getObjectKey());
+		}
+
+		@Override
+		public void notifyElementEvicted(final Ehcache cache, final Element element) {
+			LOADED.remove(element.getObjectKey());
+		}
+
+		@Override
+		public void notifyRemoveAll(final Ehcache cache) {
+			LOADED.clear();
+		}
+	};
+
+	/**
+	 * Tokens being refreshed.
+	 */
+	private static final Set<String> REFRESHING = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Load latencies in milliseconds.
+	 */
+	private static final CurlMetrics.Histogram LATENCIES = new CurlMetrics.Histogram();
+	private static final LongAdder FAILURES = new LongAdder();
+	private static final LongAdder COALESCED = new LongAdder();
+	private static final LongAdder REFRESHES = new LongAdder();
+
 	@Autowired
 	protected ApplicationContext applicationContext;
 
+	/**
+	 * Listen the evictions of the "curl-tokens" cache. Registering the listener twice has no effect.
+	 */
+	@PostConstruct
+	public void registerListener() {
+		final Ehcache cache = CacheManager.getInstance().getCache(CACHE);
+		if (cache != null) {
+			cache.getCacheEventNotificationService().registerListener(EVICTION_LISTENER);
+		}
+	}
+
+	/**
+	 * Return the age in milliseconds after which an accessed token is refreshed.
+	 *
+	 * @return The refresh-ahead age. Negative when disabled.
+	 */
+	static long getRefreshAhead() {
+		final Ehcache cache = CacheManager.getInstance().getCache(CACHE);
+		final long ttl = cache == null ? 0 : cache.getCacheConfiguration().getTimeToLiveSeconds();
+		return Long.getLong(REFRESH_AHEAD, ttl > 0 ? TimeUnit.SECONDS.toMillis(ttl) * 8 / 10 : -1);
+	}
+
+	/**
+	 * Return the load timestamp of a cached token.
+	 *
+	 * @param key
+	 *            The cache key.
+	 * @return The load timestamp, or <code>null</code> when the token is not cached.
+	 */
+	static Long getLoaded(final String key) {
+		return LOADED.get(key);
+	}
+
 	/**
 	 * Return a cache token.
-	 * 
+	 *
 	 * @param key
 	 *            The cache key.
 	 * @param function
@@ -33,10 +148,9 @@ public class CurlCacheToken {
 	 *            The amount of retries until the provider returns a not <code>null</code> value.
 	 * @param exceptionSupplier
 	 *            The exception used when the token cannot be retrieved.
-	 *            @param <X>
 	 * @return The token value either from the cache, either from the fresh computed one.
 	 */
-	@CacheResult(cacheName = "curl-tokens")
+	@CacheResult(cacheName = CACHE)
 	public String getTokenCache(@CacheKey @NotNull final String key, final Function<String, String> function,
 			final int retries, final Supplier<? extends RuntimeException> exceptionSupplier) {
 		// First access to this function
@@ -44,10 +158,24 @@ public class CurlCacheToken {
 	}
 
 	/**
-	 * Return a synchronized cache token.
-	 * 
+	 * Replace a cached token.
+	 *
+	 * @param key
+	 *            The cache key.
+	 * @param token
+	 *            The new token value.
+	 */
+	@CachePut(cacheName = CACHE)
+	public void putTokenCache(@CacheKey @NotNull final String key, @CacheValue final String token) {
+		// Only the cache is updated
+	}
+
+	/**
+	 * Return a cache token. Concurrent calls for the same key share a single load, and the token is refreshed by the
+	 * calling thread when it is older than the refresh-ahead age.
+	 *
 	 * @param synchronizeObject
-	 *            The object used to synchronize the access to the cache.
+	 *            Ignored, the loads are coalesced by key.
 	 * @param key
 	 *            The cache key.
 	 * @param function
@@ -57,13 +185,146 @@ public class CurlCacheToken {
 	 * @param exceptionSupplier
 	 *            The exception used when the token cannot be retrieved.
 	 * @return The token value either from the cache, either from the fresh computed one.
+	 * @deprecated Use {@link #getToken(String, Function, int, Supplier)}, the synchronization object is ignored.
 	 */
-	public String getTokenCache(@NotNull final Object synchronizeObject, @NotNull final String key,
+	@Deprecated
+	public String getTokenCache(@NotNull final Object synchronizeObject, @NotNull final String key, // NOSONAR - Compatibility
 			final Function<String, String> function, final int retries, final Supplier<? extends RuntimeException> exceptionSupplier) {
-		synchronized (synchronizeObject) {
-			// Use the jcache API to get the token
-			return applicationContext.getBean(CurlCacheToken.class).getTokenCache(key, function, retries, exceptionSupplier);
+		return getToken(key, function, retries, exceptionSupplier);
+	}
+
+	/**
+	 * Return a cache token. Concurrent calls for the same key share a single load, and the token is refreshed by the
+	 * calling thread when it is older than the refresh-ahead age. The function is never run once this call has
+	 * returned.
+	 *
+	 * @param key
+	 *            The cache key.
+	 * @param function
+	 *            The {@link Function} used to retrieve the token value when the cache fails.
+	 * @param retries
+	 *            The amount of retries until the provider returns a not <code>null</code> value.
+	 * @param exceptionSupplier
+	 *            The exception used when the token cannot be retrieved.
+	 * @return The token value either from the cache, either from the fresh computed one.
+	 */
+	public String getToken(@NotNull final String key, final Function<String, String> function, final int retries,
+			final Supplier<? extends RuntimeException> exceptionSupplier) {
+		// Use the jcache API to get the token
+		final CurlCacheToken proxy = applicationContext.getBean(CurlCacheToken.class);
+		final String token = refreshAhead(proxy, key, function, retries);
+		if (token != null) {
+			return token;
+		}
+		return singleFlight(key, () -> proxy.getTokenCache(key, k -> load(k, function), retries, exceptionSupplier));
+	}
+
+	/**
+	 * Run the loader, or wait for the in-flight load of the same key.
+	 */
+	private static String singleFlight(final String key, final Supplier<String> loader) {
+		final CompletableFuture<String> future = new CompletableFuture<>();
+		final CompletableFuture<String> inFlight = IN_FLIGHT.putIfAbsent(key, future);
+		if (inFlight != null) {
+			// Wait for the in-flight load
+			COALESCED.increment();
+			return join(inFlight);
+		}
+		try {
+			future.complete(loader.get());
+		} catch (final RuntimeException | Error e) {
+			future.completeExceptionally(e);
+		} finally {
+			IN_FLIGHT.remove(key, future);
+
+			// Release the waiting threads whatever happened
+			future.completeExceptionally(new IllegalStateException("Token loading of " + key + " has been aborted"));
+		}
+		return join(future);
+	}
+
+	/**
+	 * Return the loaded token, or throw the original exception. A checked exception is kept wrapped.
+	 */
+	private static String join(final CompletableFuture<String> future) {
+		try {
+			return future.join();
+		} catch (final CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Load a token and record the latency of this attempt.
+	 */
+	private static String load(final String key, final Function<String, String> function) {
+		final long start = System.nanoTime();
+		String token = null;
+		try {
+			token = function.apply(key);
+		} finally {
+			LATENCIES.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			if (token == null) {
+				FAILURES.increment();
+			} else {
+				LOADED.put(key, System.currentTimeMillis());
+			}
 		}
+		return token;
 	}
 
+	/**
+	 * Refresh the cached token from the calling thread when it is older than the refresh-ahead age.
+	 *
+	 * @return The refreshed token. <code>null</code> when the token is fresh, is already being refreshed by another
+	 *         thread, or when the refresh failed: the cached token is then used.
+	 */
+	private static String refreshAhead(final CurlCacheToken proxy, final String key, final Function<String, String> function,
+			final int retries) {
+		final long age = getRefreshAhead();
+		final Long loaded = LOADED.get(key);
+		if (age < 0 || loaded == null || System.currentTimeMillis() - loaded < age || !REFRESHING.add(key)) {
+			// Fresh token, or already being refreshed
+			return null;
+		}
+		REFRESHES.increment();
+		try {
+			final String token = IntStream.range(0, retries).mapToObj(i -> load(key, function)).filter(Objects::nonNull).findFirst()
+					.orElse(null);
+			if (token != null) {
+				proxy.putTokenCache(key, token);
+			}
+			return token;
+		} catch (final RuntimeException e) {
+			log.warn("Unable to refresh the token {}: {}", key, e.getMessage());
+			return null;
+		} finally {
+			REFRESHING.remove(key);
+		}
+	}
+
+	/**
+	 * Return the token statistics: the amount of "loads", "failures", "coalesced" loads, "refreshes" and "in-flight"
+	 * loads, and the load latencies in milliseconds.
+	 *
+	 * @return The statistics. Ordered by key.
+	 */
+	public static Map<String, Long> getStatistics() {
+		final Map<String, Long> result = new TreeMap<>();
+		result.put("coalesced", COALESCED.sum());
+		result.put("failures", FAILURES.sum());
+		result.put("in-flight", (long) IN_FLIGHT.size());
+		result.put("latency-max", LATENCIES.getMax());
+		result.put("latency-p50", LATENCIES.getValueAtPercentile(50));
+		result.put("latency-p99", LATENCIES.getValueAtPercentile(99));
+		result.put("loads", LATENCIES.getCount());
+		result.put("refreshes", REFRESHES.sum());
+		return result;
+	}
 }
@@ -0,0 +1,168 @@
+package org.ligoj.app.resource.plugin;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Per-host circuit breaker shared by the {@link CurlProcessor} instances. After {@value #DEFAULT_FAILURES}
+ * consecutive failures, the circuit of a host is opened, and the requests to this host fail immediately. Once the open
+ * duration is elapsed, a single trial request is allowed: the circuit is closed when it succeeds, and opened again
+ * otherwise. Thresholds are read from the system properties.
+ */
+@Slf4j
+public final class CurlCircuitBreaker {
+
+	/**
+	 * System property name of the amount of consecutive failures opening the circuit. <code>0</code> disables the
+	 * circuit breaker.
+	 */
+	public static final String FAILURES = "curl.circuit.failures";
+
+	/**
+	 * System property name of the duration in milliseconds a circuit stays open before a trial request.
+	 */
+	public static final String OPEN_DURATION = "curl.circuit.open";
+
+	/**
+	 * Default amount of consecutive failures opening the circuit.
+	 */
+	public static final int DEFAULT_FAILURES = 5;
+
+	/**
+	 * Circuit states.
+	 */
+	public enum State {
+		/**
+		 * Requests are allowed.
+		 */
+		CLOSED,
+
+		/**
+		 * Requests fail immediately.
+		 */
+		OPEN,
+
+		/**
+		 * A single trial request is allowed.
+		 */
+		HALF_OPEN
+	}
+
+	/**
+	 * Circuit of each host, key is "scheme://host:port".
+	 */
+	private static final Map<String, Circuit> CIRCUITS = new ConcurrentHashMap<>();
+
+	private CurlCircuitBreaker() {
+		// Registry only
+	}
+
+	/**
+	 * The circuit of a host.
+	 */
+	public static class Circuit {
+
+		@Getter
+		private final String host;
+
+		@Getter
+		private volatile State state = State.CLOSED;
+
+		private int failures;
+		private long openedAt;
+
+		private Circuit(final String host) {
+			this.host = host;
+		}
+
+		/**
+		 * Check a request can be sent to this host.
+		 *
+		 * @return <code>true</code> when the circuit is closed, or when this request is the trial one of an half-open
+		 *         circuit.
+		 */
+		public synchronized boolean acquire() {
+			if (state == State.OPEN && System.currentTimeMillis() - openedAt >= Long.getLong(OPEN_DURATION, 30000)) {
+				// Allow a single trial request
+				state = State.HALF_OPEN;
+				return true;
+			}
+			return state == State.CLOSED;
+		}
+
+		/**
+		 * Notify a successful request, the circuit is closed.
+		 */
+		public synchronized void success() {
+			if (state != State.CLOSED) {
+				log.info("Close the circuit of {}", host);
+			}
+			state = State.CLOSED;
+			failures = 0;
+		}
+
+		/**
+		 * Notify a failed request, the circuit is opened when the threshold is reached or when the trial request failed.
+		 */
+		public synchronized void failure() {
+			failures++;
+			final int threshold = Integer.getInteger(FAILURES, DEFAULT_FAILURES);
+			if (threshold > 0 && (state == State.HALF_OPEN || state == State.CLOSED && failures >= threshold)) {
+				log.warn("Open the circuit of {} after {} consecutive failures", host, failures);
+				state = State.OPEN;
+				openedAt = System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * Return the circuit of the host of the given URL.
+	 *
+	 * @param url
+	 *            The requested URL.
+	 * @return The circuit of the host, created as needed.
+	 */
+	public static Circuit get(final String url) {
+		return CIRCUITS.computeIfAbsent(toHost(url), Circuit::new);
+	}
+
+	/**
+	 * Return the host part of the given URL.
+	 *
+	 * @param url
+	 *            The requested URL.
+	 * @return The host part: "scheme://host:port". When the host name is not a valid server name, such as a name with
+	 *         an underscore, the raw authority is used: "scheme://authority".
+	 */
+	static String toHost(final String url) {
+		final URI uri = URI.create(url);
+		if (uri.getHost() == null) {
+			// Registry based authority
+			return uri.getScheme() + "://" + uri.getRawAuthority();
+		}
+		return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+	}
+
+	/**
+	 * Close all circuits.
+	 */
+	public static void reset() {
+		CIRCUITS.clear();
+	}
+
+	/**
+	 * Return the state of all known hosts.
+	 *
+	 * @return The state of each host. Ordered by host.
+	 */
+	public static Map<String, State> getStatistics() {
+		final Map<String, State> result = new TreeMap<>();
+		CIRCUITS.forEach((host, circuit) -> result.put(host, circuit.getState()));
+		return result;
+	}
+}
@@ -0,0 +1,136 @@
+package org.ligoj.app.resource.plugin;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Single-flight execution shared by the {@link CurlProcessor} instances: concurrent identical requests share one
+ * in-flight execution and its buffered response. A waiting request gives up at its own timeout, without impacting the
+ * shared execution.
+ */
+@Slf4j
+public final class CurlCoalescer {
+
+	/**
+	 * In-flight executions, key identifies the request.
+	 */
+	private static final Map<String, CompletableFuture<BufferedHttpResponse>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+	private static final LongAdder EXECUTED = new LongAdder();
+	private static final LongAdder COALESCED = new LongAdder();
+
+	private CurlCoalescer() {
+		// Registry only
+	}
+
+	/**
+	 * An execution producing a response.
+	 */
+	@FunctionalInterface
+	public interface Execution {
+
+		/**
+		 * Execute the request.
+		 *
+		 * @return The response to share.
+		 * @throws IOException
+		 *             When the request failed.
+		 */
+		CloseableHttpResponse execute() throws IOException;
+	}
+
+	/**
+	 * Execute the given request, or wait for the in-flight identical one.
+	 *
+	 * @param key
+	 *            The key identifying the request: method, URL, cache policy and principal.
+	 * @param timeout
+	 *            The optional timeout in milliseconds of this request, only used when waiting for the in-flight
+	 *            identical request. When <code>null</code>, the wait is not limited.
+	 * @param execution
+	 *            The execution to run when there is no in-flight identical request.
+	 * @return A buffered copy of the shared response.
+	 * @throws IOException
+	 *             When the shared execution failed, or when the timeout is reached while waiting for it.
+	 */
+	public static CloseableHttpResponse execute(final String key, final Integer timeout, final Execution execution) throws IOException {
+		final CompletableFuture<BufferedHttpResponse> future = new CompletableFuture<>();
+		final CompletableFuture<BufferedHttpResponse> inFlight = IN_FLIGHT.putIfAbsent(key, future);
+		if (inFlight != null) {
+			// Wait for the in-flight execution
+			COALESCED.increment();
+			try {
+				return copy(timeout == null ? inFlight.get() : inFlight.get(timeout, TimeUnit.MILLISECONDS));
+			} catch (final TimeoutException e) {
+				throw new SocketTimeoutException("Shared execution timed out after " + timeout + "ms");
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (final ExecutionException e) {
+				throw toIOException(e);
+			}
+		}
+
+		// This thread executes the request
+		EXECUTED.increment();
+		try (CloseableHttpResponse response = execution.execute()) {
+			future.complete(new BufferedHttpResponse(response));
+		} catch (final IOException | RuntimeException e) {
+			future.completeExceptionally(e);
+		} finally {
+			IN_FLIGHT.remove(key, future);
+		}
+		try {
+			return copy(future.get());
+		} catch (final InterruptedException e) {
+			// Not reachable, the future is completed
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (final ExecutionException e) {
+			throw toIOException(e);
+		}
+	}
+
+	/**
+	 * Return a copy of the shared response, the entity is repeatable.
+	 */
+	private static CloseableHttpResponse copy(final BufferedHttpResponse response) throws IOException {
+		return new BufferedHttpResponse(response);
+	}
+
+	/**
+	 * Return the failure of the shared execution.
+	 */
+	private static IOException toIOException(final ExecutionException e) {
+		log.debug("Shared execution failed", e);
+		if (e.getCause() instanceof IOException) {
+			return (IOException) e.getCause();
+		}
+		return new IOException(e.getCause());
+	}
+
+	/**
+	 * Return the statistics: the amount of "executed" and "coalesced" requests, and the "in-flight" executions.
+	 *
+	 * @return The statistics. Ordered by key.
+	 */
+	public static Map<String, Long> getStatistics() {
+		final Map<String, Long> result = new TreeMap<>();
+		result.put("coalesced", COALESCED.sum());
+		result.put("executed", EXECUTED.sum());
+		result.put("in-flight", (long) IN_FLIGHT.size());
+		return result;
+	}
+}
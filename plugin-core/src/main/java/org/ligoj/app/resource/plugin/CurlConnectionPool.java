@@ -0,0 +1,247 @@
+package org.ligoj.app.resource.plugin;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registry of shared pooled HTTP connection managers borrowed by the {@link CurlProcessor} instances. A pool is
+ * created on demand for each SSL protocol, and is never closed by the processors using it. Limits, idle eviction and
+ * keep-alive durations are read from the system properties when the pool is created. A shared non-blocking client is
+ * also available for the asynchronous executions.
+ */
+@Slf4j
+public final class CurlConnectionPool {
+
+	/**
+	 * Default pool name, corresponding to the SSL protocol of the default registry.
+	 */
+	public static final String DEFAULT_POOL = "TLS";
+
+	/**
+	 * Pool name of the shared non-blocking client.
+	 */
+	public static final String ASYNC_POOL = "async";
+
+	/**
+	 * System property name of the maximal amount of connections of a pool.
+	 */
+	public static final String MAX_TOTAL = "curl.pool.max-total";
+
+	/**
+	 * System property name of the maximal amount of connections of a pool for a single route.
+	 */
+	public static final String MAX_PER_ROUTE = "curl.pool.max-route";
+
+	/**
+	 * System property name of the duration in milliseconds an idle connection is kept in a pool.
+	 */
+	public static final String IDLE_TIMEOUT = "curl.pool.idle";
+
+	/**
+	 * System property name of the default keep-alive duration in milliseconds, when the server does not specify it.
+	 */
+	public static final String KEEP_ALIVE = "curl.pool.keep-alive";
+
+	/**
+	 * System property name of the inactivity duration in milliseconds after which a pooled connection is validated
+	 * before being leased again.
+	 */
+	public static final String VALIDATE_AFTER = "curl.pool.validate";
+
+	/**
+	 * System property name of the evictor period in milliseconds.
+	 */
+	public static final String EVICTION_PERIOD = "curl.pool.eviction";
+
+	/**
+	 * Keep-alive strategy using the server's "Keep-Alive" header, and bounded by the configured default duration.
+	 */
+	public static final ConnectionKeepAliveStrategy KEEP_ALIVE_STRATEGY = (response, context) -> {
+		final long keepAlive = Long.getLong(KEEP_ALIVE, 30000);
+		final long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+		return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAlive) : keepAlive;
+	};
+
+	/**
+	 * Reuse strategy of the shared non-blocking client. Persistent connections are disabled while the standard
+	 * "http.keepAlive" system property is <code>false</code>.
+	 */
+	public static final ConnectionReuseStrategy REUSE_STRATEGY = (response, context) -> Boolean
+			.parseBoolean(System.getProperty("http.keepAlive", "true"))
+			&& DefaultConnectionReuseStrategy.INSTANCE.keepAlive(response, context);
+
+	/**
+	 * Shared pools, key is the pool name.
+	 */
+	private static final Map<String, PoolingHttpClientConnectionManager> POOLS = new ConcurrentHashMap<>();
+
+	/**
+	 * Single thread closing the expired and idle connections of all pools.
+	 */
+	private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(newThreadFactory("curl-pool-evictor"));
+
+	/**
+	 * Connection manager of the shared non-blocking client.
+	 */
+	private static volatile PoolingNHttpClientConnectionManager asyncManager;
+
+	/**
+	 * The shared non-blocking client, started on demand.
+	 */
+	private static volatile CloseableHttpAsyncClient asyncClient;
+
+	static {
+		final long period = Long.getLong(EVICTION_PERIOD, 5000);
+		EVICTOR.scheduleWithFixedDelay(CurlConnectionPool::evict, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private CurlConnectionPool() {
+		// Registry only
+	}
+
+	/**
+	 * Return the shared connection manager of the given pool, created as needed.
+	 *
+	 * @param name
+	 *            The pool name, also the SSL protocol used for the HTTPS scheme.
+	 * @return The shared connection manager. Must not be closed by the caller.
+	 */
+	public static HttpClientConnectionManager getConnectionManager(final String name) {
+		return POOLS.computeIfAbsent(name, CurlConnectionPool::newConnectionManager);
+	}
+
+	/**
+	 * Return the shared non-blocking client, created and started as needed. The HTTPS scheme trusts all certificates as
+	 * the blocking pools do, and the limits are read from the same system properties.
+	 *
+	 * @return The started shared client. Must not be closed by the caller.
+	 */
+	public static CloseableHttpAsyncClient getAsyncClient() {
+		if (asyncClient == null) {
+			synchronized (CurlConnectionPool.class) {
+				if (asyncClient == null) {
+					asyncManager = newAsyncConnectionManager();
+					final CloseableHttpAsyncClient client = HttpAsyncClients.custom().setConnectionManager(asyncManager)
+							.setKeepAliveStrategy(KEEP_ALIVE_STRATEGY).setConnectionReuseStrategy(REUSE_STRATEGY)
+							.setThreadFactory(newThreadFactory("curl-async")).build();
+					client.start();
+					asyncClient = client;
+				}
+			}
+		}
+		return asyncClient;
+	}
+
+	/**
+	 * Create the connection manager of the non-blocking client.
+	 */
+	private static PoolingNHttpClientConnectionManager newAsyncConnectionManager() {
+		final Registry<SchemeIOSessionStrategy> registry = RegistryBuilder.<SchemeIOSessionStrategy> create()
+				.register("http", NoopIOSessionStrategy.INSTANCE)
+				.register("https", new SSLIOSessionStrategy(CurlProcessor.newTrustedSslContext(DEFAULT_POOL), NoopHostnameVerifier.INSTANCE))
+				.build();
+		try {
+			final PoolingNHttpClientConnectionManager manager = new PoolingNHttpClientConnectionManager(
+					new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT, newThreadFactory("curl-async-io")), registry);
+			manager.setMaxTotal(Integer.getInteger(MAX_TOTAL, 200));
+			manager.setDefaultMaxPerRoute(Integer.getInteger(MAX_PER_ROUTE, 20));
+			log.info("Create HTTP connection pool {}, max={}, max-route={}", ASYNC_POOL, manager.getMaxTotal(),
+					manager.getDefaultMaxPerRoute());
+			return manager;
+		} catch (final IOReactorException e) {
+			// Wrap the exception
+			throw new IllegalStateException("Unable to build the I/O reactor", e);
+		}
+	}
+
+	/**
+	 * Return a factory of named daemon threads.
+	 */
+	static ThreadFactory newThreadFactory(final String name) {
+		final AtomicInteger counter = new AtomicInteger();
+		return r -> {
+			final Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Create a new pooled connection manager configured from the system properties.
+	 */
+	private static PoolingHttpClientConnectionManager newConnectionManager(final String name) {
+		final PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(CurlProcessor.newSslContext(name));
+		manager.setMaxTotal(Integer.getInteger(MAX_TOTAL, 200));
+		manager.setDefaultMaxPerRoute(Integer.getInteger(MAX_PER_ROUTE, 20));
+		manager.setValidateAfterInactivity(Integer.getInteger(VALIDATE_AFTER, 2000));
+		log.info("Create HTTP connection pool {}, max={}, max-route={}", name, manager.getMaxTotal(), manager.getDefaultMaxPerRoute());
+		return manager;
+	}
+
+	/**
+	 * Close the expired and idle connections of all pools.
+	 */
+	public static void evict() {
+		final long idle = Long.getLong(IDLE_TIMEOUT, 30000);
+		POOLS.values().forEach(m -> {
+			m.closeExpiredConnections();
+			m.closeIdleConnections(idle, TimeUnit.MILLISECONDS);
+		});
+		if (asyncManager != null) {
+			asyncManager.closeExpiredConnections();
+			asyncManager.closeIdleConnections(idle, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Return the statistics of all pools. For each pool, the key "name" holds the total statistics, and each key
+	 * "name route" holds the statistics of a route.
+	 *
+	 * @return The leased, available, pending and maximal connections of all pools and routes. Ordered by key.
+	 */
+	public static Map<String, PoolStats> getStatistics() {
+		final Map<String, PoolStats> result = new TreeMap<>();
+		POOLS.forEach((name, manager) -> {
+			result.put(name, manager.getTotalStats());
+			for (final HttpRoute route : manager.getRoutes()) {
+				result.put(name + " " + route, manager.getStats(route));
+			}
+		});
+		if (asyncManager != null) {
+			result.put(ASYNC_POOL, asyncManager.getTotalStats());
+			for (final HttpRoute route : asyncManager.getRoutes()) {
+				result.put(ASYNC_POOL + " " + route, asyncManager.getStats(route));
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,137 @@
+package org.ligoj.app.resource.plugin;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Shared deadline service aborting the requests not completed in time. A single daemon thread handles the deadlines
+ * of all {@link CurlProcessor} instances, and a deadline is removed as soon as its request completes. The aborted,
+ * completed and late requests are counted to help tuning the {@link CurlRequest#getTimeout()} values.
+ */
+@Slf4j
+public final class CurlDeadlineScheduler {
+
+	/**
+	 * Deadline of a request without timeout.
+	 */
+	private static final Deadline NONE = new Deadline(0) {
+		@Override
+		public void complete() {
+			// Nothing to cancel
+		}
+	};
+
+	/**
+	 * Single thread running the aborts, the cancelled deadlines are immediately removed from the queue.
+	 */
+	private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, r -> {
+		final Thread thread = new Thread(r, "curl-deadline");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Requests aborted by their deadline.
+	 */
+	private static final AtomicLong ABORTED = new AtomicLong();
+
+	/**
+	 * Requests completed before their deadline.
+	 */
+	private static final AtomicLong COMPLETED = new AtomicLong();
+
+	/**
+	 * Requests completed after their deadline without being aborted.
+	 */
+	private static final AtomicLong LATE = new AtomicLong();
+
+	static {
+		SCHEDULER.setRemoveOnCancelPolicy(true);
+	}
+
+	private CurlDeadlineScheduler() {
+		// Registry only
+	}
+
+	/**
+	 * A cancellable deadline of a request.
+	 */
+	public static class Deadline {
+
+		private final long start = System.currentTimeMillis();
+		private final long timeout;
+		private final AtomicBoolean done = new AtomicBoolean();
+		private volatile ScheduledFuture<?> task;
+
+		private Deadline(final long timeout) {
+			this.timeout = timeout;
+		}
+
+		/**
+		 * Run the abort when the request is not yet completed.
+		 */
+		private void abort(final Runnable abort) {
+			if (done.compareAndSet(false, true)) {
+				ABORTED.incrementAndGet();
+				log.info("Abort request after {}ms", timeout);
+				abort.run();
+			}
+		}
+
+		/**
+		 * Notify the completion of the request, successful or not, and remove this deadline. Has no effect when the
+		 * request has already been aborted or completed.
+		 */
+		public void complete() {
+			if (done.compareAndSet(false, true)) {
+				task.cancel(false);
+				if (System.currentTimeMillis() - start > timeout) {
+					// The deadline has been reached, but the abort has not been run in time
+					LATE.incrementAndGet();
+				} else {
+					COMPLETED.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Register the abort of a request not completed in time.
+	 *
+	 * @param timeout
+	 *            The optional timeout in milliseconds. When <code>null</code>, no deadline is registered.
+	 * @param abort
+	 *            The action aborting the request.
+	 * @return The deadline to complete when the request is completed. Never <code>null</code>.
+	 */
+	public static Deadline schedule(final Integer timeout, final Runnable abort) {
+		if (timeout == null) {
+			return NONE;
+		}
+		final Deadline deadline = new Deadline(timeout);
+		deadline.task = SCHEDULER.schedule(() -> deadline.abort(abort), timeout, TimeUnit.MILLISECONDS);
+		return deadline;
+	}
+
+	/**
+	 * Return the deadline statistics: the amount of "aborted", "completed" and "late" requests, and the "pending"
+	 * deadlines.
+	 *
+	 * @return The statistics. Ordered by key.
+	 */
+	public static Map<String, Long> getStatistics() {
+		final Map<String, Long> result = new TreeMap<>();
+		result.put("aborted", ABORTED.get());
+		result.put("completed", COMPLETED.get());
+		result.put("late", LATE.get());
+		result.put("pending", (long) SCHEDULER.getQueue().size());
+		return result;
+	}
+}
@@ -0,0 +1,250 @@
+package org.ligoj.app.resource.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of the HTTP metrics recorded by the {@link CurlProcessor} instances, by remote host and by HTTP method:
+ * latency histogram, status counters, exchanged bytes, timeouts and aborts.
+ */
+public final class CurlMetrics {
+
+	/**
+	 * Metrics, key is "host method".
+	 */
+	private static final Map<String, Metric> METRICS = new ConcurrentHashMap<>();
+
+	private CurlMetrics() {
+		// Registry only
+	}
+
+	/**
+	 * Latency histogram with a bounded relative error. Values lower than {@value #SUB_BUCKETS} are exact, and each
+	 * power of two above is split in {@value #SUB_BUCKETS} linear buckets, so the error is lower than 7%.
+	 */
+	public static class Histogram {
+
+		/**
+		 * Amount of linear buckets inside a power of two.
+		 */
+		private static final int SUB_BUCKETS = 16;
+		private static final int SUB_BITS = 4;
+
+		private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		/**
+		 * Record a value.
+		 *
+		 * @param value
+		 *            The positive value to record. Negative values are recorded as <code>0</code>.
+		 */
+		public void record(final long value) {
+			final long positive = Math.max(0, value);
+			counts.incrementAndGet(toIndex(positive));
+			count.increment();
+			sum.add(positive);
+			max.accumulate(positive);
+		}
+
+		private static int toIndex(final long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			final int msb = 63 - Long.numberOfLeadingZeros(value);
+			final int shift = msb - SUB_BITS;
+			return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >> shift) & (SUB_BUCKETS - 1));
+		}
+
+		private static long toHighestValue(final int index) {
+			if (index < SUB_BUCKETS) {
+				return index;
+			}
+			final int shift = index / SUB_BUCKETS - 1;
+			return ((long) (SUB_BUCKETS + index % SUB_BUCKETS + 1) << shift) - 1;
+		}
+
+		/**
+		 * Return the value at the given percentile.
+		 *
+		 * @param percentile
+		 *            The percentile, from <code>0</code> to <code>100</code>.
+		 * @return The highest value of the bucket holding the percentile, bounded by the maximal recorded value.
+		 *         <code>0</code> when there is no recorded value.
+		 */
+		public long getValueAtPercentile(final double percentile) {
+			final long total = count.sum();
+			final long target = Math.max(1, (long) Math.ceil(total * percentile / 100d));
+			long cumulated = 0;
+			for (int index = 0; index < counts.length() && total > 0; index++) {
+				cumulated += counts.get(index);
+				if (cumulated >= target) {
+					return Math.min(toHighestValue(index), getMax());
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Return the amount of recorded values.
+		 *
+		 * @return The amount of recorded values.
+		 */
+		public long getCount() {
+			return count.sum();
+		}
+
+		/**
+		 * Return the mean of recorded values.
+		 *
+		 * @return The mean of recorded values. <code>0</code> when there is no recorded value.
+		 */
+		public double getMean() {
+			final long total = count.sum();
+			return total == 0 ? 0 : (double) sum.sum() / total;
+		}
+
+		/**
+		 * Return the maximal recorded value.
+		 *
+		 * @return The maximal recorded value.
+		 */
+		public long getMax() {
+			return max.get();
+		}
+	}
+
+	/**
+	 * Metrics of a host and a method.
+	 */
+	public static class Metric {
+
+		private final String host;
+		private final String method;
+
+		/**
+		 * Latencies in microseconds.
+		 */
+		private final Histogram latencies = new Histogram();
+		private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+		private final LongAdder requestBytes = new LongAdder();
+		private final LongAdder responseBytes = new LongAdder();
+		private final LongAdder timeouts = new LongAdder();
+		private final LongAdder aborts = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+
+		private Metric(final String host, final String method) {
+			this.host = host;
+			this.method = method;
+		}
+
+		/**
+		 * Record a received response.
+		 *
+		 * @param status
+		 *            The response status.
+		 * @param nanos
+		 *            The duration of the exchange in nanoseconds.
+		 * @param sent
+		 *            The amount of sent bytes.
+		 * @param received
+		 *            The amount of received bytes.
+		 */
+		public void success(final int status, final long nanos, final long sent, final long received) {
+			latencies.record(nanos / 1000);
+			statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+			requestBytes.add(sent);
+			responseBytes.add(received);
+		}
+
+		/**
+		 * Record a failed exchange without response.
+		 *
+		 * @param nanos
+		 *            The duration of the exchange in nanoseconds.
+		 * @param sent
+		 *            The amount of sent bytes.
+		 * @param timeout
+		 *            <code>true</code> when the connection or the socket timed out.
+		 * @param aborted
+		 *            <code>true</code> when the request has been aborted by its deadline.
+		 */
+		public void failure(final long nanos, final long sent, final boolean timeout, final boolean aborted) {
+			latencies.record(nanos / 1000);
+			requestBytes.add(sent);
+			if (aborted) {
+				aborts.increment();
+			} else if (timeout) {
+				timeouts.increment();
+			} else {
+				errors.increment();
+			}
+		}
+
+		/**
+		 * Return a snapshot of this metric.
+		 *
+		 * @return The snapshot. Durations are in milliseconds.
+		 */
+		public CurlMetricsVo toVo() {
+			final CurlMetricsVo vo = new CurlMetricsVo();
+			vo.setHost(host);
+			vo.setMethod(method);
+			vo.setCount(latencies.getCount());
+			vo.setMean(latencies.getMean() / 1000d);
+			vo.setP50(latencies.getValueAtPercentile(50) / 1000d);
+			vo.setP90(latencies.getValueAtPercentile(90) / 1000d);
+			vo.setP99(latencies.getValueAtPercentile(99) / 1000d);
+			vo.setMax(latencies.getMax() / 1000d);
+			final Map<Integer, Long> statusCounts = new TreeMap<>();
+			statuses.forEach((s, c) -> statusCounts.put(s, c.sum()));
+			vo.setStatuses(statusCounts);
+			vo.setRequestBytes(requestBytes.sum());
+			vo.setResponseBytes(responseBytes.sum());
+			vo.setTimeouts(timeouts.sum());
+			vo.setAborts(aborts.sum());
+			vo.setErrors(errors.sum());
+			return vo;
+		}
+	}
+
+	/**
+	 * Return the metric of the host of the given URL and of the given method.
+	 *
+	 * @param url
+	 *            The requested URL.
+	 * @param method
+	 *            The HTTP method.
+	 * @return The metric, created as needed.
+	 */
+	public static Metric get(final String url, final String method) {
+		final String host = CurlCircuitBreaker.toHost(url);
+		return METRICS.computeIfAbsent(host + " " + method, k -> new Metric(host, method));
+	}
+
+	/**
+	 * Return a snapshot of all metrics.
+	 *
+	 * @return The snapshots ordered by host and method.
+	 */
+	public static List<CurlMetricsVo> getMetrics() {
+		final List<CurlMetricsVo> result = new ArrayList<>();
+		new TreeMap<>(METRICS).values().forEach(m -> result.add(m.toVo()));
+		return result;
+	}
+
+	/**
+	 * Clear all metrics.
+	 */
+	public static void reset() {
+		METRICS.clear();
+	}
+}
@@ -0,0 +1,65 @@
+package org.ligoj.app.resource.plugin;
+
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * HTTP metrics of a remote host and a method. Durations are in milliseconds.
+ */
+@Getter
+@Setter
+public class CurlMetricsVo {
+
+	/**
+	 * The remote host: "scheme://host:port".
+	 */
+	private String host;
+
+	/**
+	 * The HTTP method.
+	 */
+	private String method;
+
+	/**
+	 * Amount of exchanges, successful or not.
+	 */
+	private long count;
+
+	private double mean;
+	private double p50;
+	private double p90;
+	private double p99;
+	private double max;
+
+	/**
+	 * Amount of responses by status.
+	 */
+	private Map<Integer, Long> statuses;
+
+	/**
+	 * Amount of sent bytes.
+	 */
+	private long requestBytes;
+
+	/**
+	 * Amount of received bytes read by the callbacks.
+	 */
+	private long responseBytes;
+
+	/**
+	 * Amount of connection or socket timeouts.
+	 */
+	private long timeouts;
+
+	/**
+	 * Amount of requests aborted by their deadline.
+	 */
+	private long aborts;
+
+	/**
+	 * Amount of other failures without response.
+	 */
+	private long errors;
+}
@@ -1,25 +1,36 @@
 package org.ligoj.app.resource.plugin;
 
+import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
-import java.security.GeneralSecurityException;
-import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
 import javax.ws.rs.HttpMethod;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AUTH;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
@@ -30,18 +41,22 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
-import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
+import org.ligoj.app.resource.plugin.CurlCircuitBreaker.Circuit;
+import org.ligoj.app.resource.plugin.CurlDeadlineScheduler.Deadline;
+import org.ligoj.app.resource.plugin.CurlMetrics.Metric;
+import org.ligoj.app.resource.plugin.CurlSslRegistry.TrustPolicy;
 import org.ligoj.bootstrap.core.validation.ValidationJsonException;
 
 import lombok.Getter;
@@ -60,6 +75,28 @@ public class CurlProcessor {
 	private static final String HTTPS_PROXY_PORT = "https.proxyPort";
 	private static final String HTTPS_PROXY_HOST = "https.proxyHost";
 
+	/**
+	 * Standard system property disabling the persistent connections when <code>false</code>.
+	 */
+	private static final String HTTP_KEEP_ALIVE = "http.keepAlive";
+
+	/**
+	 * System property name of the maximal amount of retries of a "GET" request failed with an I/O error or with a
+	 * transient status. The other methods are never retried, since the remote server may have processed them.
+	 */
+	public static final String RETRY_MAX = "curl.retry.max";
+
+	/**
+	 * System property name of the base delay in milliseconds of the exponential backoff between two retries.
+	 */
+	public static final String RETRY_DELAY = "curl.retry.delay";
+
+	/**
+	 * Transient statuses to retry.
+	 */
+	private static final Set<Integer> RETRIED_STATUS = new HashSet<>(
+			Arrays.asList(HttpStatus.SC_BAD_GATEWAY, HttpStatus.SC_SERVICE_UNAVAILABLE, HttpStatus.SC_GATEWAY_TIMEOUT));
+
 	/**
 	 * Default callback.
 	 */
@@ -73,6 +110,24 @@ public class CurlProcessor {
 	@Setter
 	protected HttpResponseCallback callback;
 
+	/**
+	 * When <code>true</code>, the concurrent identical "GET" requests share one execution and its response. Identical
+	 * requests have the same URL, the same authentication header and the same cookies. The shared response is fully
+	 * buffered.
+	 */
+	@Setter
+	protected boolean coalescing;
+
+	/**
+	 * Cookie store shared by the blocking and the asynchronous executions of this processor.
+	 */
+	protected final CookieStore cookieStore = new BasicCookieStore();
+
+	/**
+	 * Request configuration shared by the blocking and the asynchronous executions of this processor.
+	 */
+	protected final RequestConfig requestConfig;
+
 	/**
 	 * Support HTTP methods.
 	 */
@@ -102,16 +157,19 @@ public class CurlProcessor {
 			proxy = new HttpHost(proxyHost, Integer.parseInt(System.getProperty(HTTPS_PROXY_PORT)));
 		}
 
-		// Initialize connection manager
-		final HttpClientConnectionManager connectionManager = new BasicHttpClientConnectionManager(newSslContext());
-		clientBuilder.setConnectionManager(connectionManager);
-		clientBuilder.setDefaultRequestConfig(
-				RequestConfig.custom().setCookieSpec(CookieSpecs.DEFAULT).setRedirectsEnabled(false).setSocketTimeout(20000).setProxy(proxy).build());
+		// Borrow the shared connection manager, never closed with this client
+		clientBuilder.setConnectionManager(CurlConnectionPool.getConnectionManager(CurlConnectionPool.DEFAULT_POOL));
+		clientBuilder.setConnectionManagerShared(true);
+		clientBuilder.setKeepAliveStrategy(CurlConnectionPool.KEEP_ALIVE_STRATEGY);
+		if (!Boolean.parseBoolean(System.getProperty(HTTP_KEEP_ALIVE, "true"))) {
+			// Persistent connections are disabled
+			clientBuilder.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+		}
+		this.requestConfig = RequestConfig.custom().setCookieSpec(CookieSpecs.DEFAULT).setRedirectsEnabled(false).setSocketTimeout(20000)
+				.setConnectionRequestTimeout(20000).setProxy(proxy).build();
+		clientBuilder.setDefaultRequestConfig(requestConfig);
 
 		// Initialize cookie strategy
-		final CookieStore cookieStore = new BasicCookieStore();
-		final HttpClientContext context = HttpClientContext.create();
-		context.setCookieStore(cookieStore);
 		clientBuilder.setDefaultCookieStore(cookieStore);
 
 		// Initialize the HTTP client without 302
@@ -126,7 +184,7 @@ public class CurlProcessor {
 	}
 
 	/**
-	 * Close the connection.
+	 * Close the client. The shared connection pool is not closed.
 	 */
 	public void close() {
 		IOUtils.closeQuietly(httpClient);
@@ -173,6 +231,115 @@ public class CurlProcessor {
 		return true;
 	}
 
+	/**
+	 * Execute the given requests concurrently. Requests are independent unless they declare their dependencies with
+	 * {@link CurlRequest#dependsOn(CurlRequest...)}: a request is only sent when all its dependencies succeed, and is
+	 * skipped otherwise. Cookies are shared by all requests of this processor, so a dependent chain keeps its session.
+	 * The result of each request is available with {@link CurlRequest#getFuture()}, and is <code>false</code> when the
+	 * request is skipped. This call blocks until all requests are completed or skipped.
+	 *
+	 * @param parallelism
+	 *            The maximal amount of concurrent requests.
+	 * @param requests
+	 *            the request to proceed. A request can only depend on the previous ones.
+	 * @return <code>true</code> when all requests succeed.
+	 */
+	public boolean processBatch(final int parallelism, final CurlRequest... requests) {
+		final List<CurlRequest> batch = Arrays.asList(requests);
+		for (int index = 0; index < requests.length; index++) {
+			final int counter = index;
+			if (requests[index].getDependencies().stream().map(batch::indexOf).anyMatch(d -> d < 0 || d >= counter)) {
+				// Unordered dependencies could be a cycle
+				throw new IllegalArgumentException("Request " + index + " depends on a request not preceding it");
+			}
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, requests.length)),
+				CurlConnectionPool.newThreadFactory("curl-batch"));
+		try {
+			// Log file base 0 counter
+			int counter = 0;
+			for (final CurlRequest request : requests) {
+				// Update the counter
+				request.counter = counter++;
+				request.future = new CompletableFuture<>();
+
+				// Process the request only when its dependencies succeed
+				CompletableFuture.allOf(request.getDependencies().stream().map(CurlRequest::getFuture).toArray(CompletableFuture[]::new))
+						.thenAccept(v -> {
+							if (request.getDependencies().stream().allMatch(d -> d.getFuture().join())) {
+								CompletableFuture.supplyAsync(() -> process(request), executor).thenAccept(request.future::complete);
+							} else {
+								request.future.complete(Boolean.FALSE);
+							}
+						});
+			}
+			return batch.stream().map(r -> r.getFuture().join()).reduce(Boolean.TRUE, Boolean::logicalAnd);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Execute the given requests concurrently.
+	 *
+	 * @param parallelism
+	 *            The maximal amount of concurrent requests.
+	 * @param requests
+	 *            the request to proceed. A request can only depend on the previous ones.
+	 * @return <code>true</code> when all requests succeed.
+	 * @see #processBatch(int, CurlRequest...)
+	 */
+	public boolean processBatch(final int parallelism, final List<CurlRequest> requests) {
+		return processBatch(parallelism, requests.toArray(new CurlRequest[requests.size()]));
+	}
+
+	/**
+	 * Execute asynchronously the given requests. The requests are sent in sequence, a request is only sent when the
+	 * previous one succeed, and cookies are kept along this execution and the next ones associated to this processor.
+	 * The calling thread is not blocked, and no thread is held while waiting for a response. The future of each request
+	 * is available with {@link CurlRequest#getFuture()}, and is completed with <code>false</code> when the request is
+	 * not sent.
+	 *
+	 * @param requests
+	 *            the request to proceed.
+	 * @return The future completed with <code>true</code> when all requests succeed.
+	 */
+	public CompletableFuture<Boolean> processAsync(final CurlRequest... requests) {
+		CompletableFuture<Boolean> result = CompletableFuture.completedFuture(Boolean.TRUE);
+
+		// Log file base 0 counter
+		int counter = 0;
+		for (final CurlRequest request : requests) {
+			// Update the counter
+			request.counter = counter++;
+			request.future = new CompletableFuture<>();
+
+			// Process the request only when the previous ones succeed
+			result = result.thenCompose(success -> {
+				if (success) {
+					processAsync(request).thenAccept(request.future::complete);
+				} else {
+					request.future.complete(Boolean.FALSE);
+				}
+				return request.future;
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Execute asynchronously the given requests.
+	 *
+	 * @param requests
+	 *            the request to proceed.
+	 * @return The future completed with <code>true</code> when all requests succeed.
+	 * @see #processAsync(CurlRequest...)
+	 */
+	public CompletableFuture<Boolean> processAsync(final List<CurlRequest> requests) {
+		return processAsync(requests.toArray(new CurlRequest[requests.size()]));
+	}
+
 	/**
 	 * Create a new processor, check the URL, and if failed, throw a {@link ValidationJsonException}
 	 * 
@@ -260,25 +427,200 @@ public class CurlProcessor {
 	 * @return <code>true</code> when the call succeed.
 	 */
 	protected boolean call(final CurlRequest request, final String url) throws Exception { // NOSONAR - Many Exception
-		final HttpRequestBase httpRequest = (HttpRequestBase) SUPPORTED_METHOD.get(request.getMethod()).getConstructor(String.class).newInstance(url);
-		addHeaders(request, request.getContent(), httpRequest);
-
-		// Timeout management
-		if (request.getTimeout() != null) {
-			// Hard timeout has been set
-			final TimerTask task = new TimerTask() {
-				@Override
-				public void run() {
-					// Abort the query if not yet completed...
-					httpRequest.abort();
+		final Circuit circuit = CurlCircuitBreaker.get(url);
+		final Metric metric = CurlMetrics.get(url, request.getMethod());
+		final int retries = HttpMethod.GET.equals(request.getMethod()) ? Integer.getInteger(RETRY_MAX, 1) : 0;
+		for (int attempt = 0;; attempt++) {
+			if (attempt > 0) {
+				backoff(attempt);
+			}
+			if (!circuit.acquire()) {
+				// Fail fast, unless a stale cached response can be served
+				final CloseableHttpResponse stale = CurlResponseCache.getStale(request, newRequest(request, url));
+				if (stale == null) {
+					throw new IOException("Circuit is open for " + circuit.getHost());
+				}
+				try (CloseableHttpResponse response = stale) {
+					return onResponse(request, response);
 				}
-			};
-			new Timer(true).schedule(task, request.getTimeout());
+			}
+			// The trial request of an half-open circuit must end with a notification, even on an unexpected error
+			boolean notified = false;
+			try {
+				final HttpRequestBase httpRequest = newRequest(request, url);
+				final long sent = getContentLength(httpRequest);
+
+				// Timeout management
+				final Deadline deadline = CurlDeadlineScheduler.schedule(request.getTimeout(), httpRequest::abort);
+
+				// Execute the request, the connection is released to the pool even when the callback does not consume it
+				final long start = System.nanoTime();
+				try (CloseableHttpResponse response = execute(request, httpRequest)) {
+					final int status = response.getStatusLine().getStatusCode();
+					notified = true;
+					if (status < HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+						circuit.success();
+					} else {
+						circuit.failure();
+						if (attempt < retries && RETRIED_STATUS.contains(status)) {
+							log.info("Retry request ' [{}] {} {}' after status {}", request.getCounter(), url, request.getMethod(), status);
+							metric.success(status, System.nanoTime() - start, sent, 0);
+							continue;
+						}
+						final CloseableHttpResponse stale = CurlResponseCache.getStale(request, httpRequest);
+						if (stale != null) {
+							// The failure is recorded, serve the stale cached response
+							metric.success(status, System.nanoTime() - start, sent, 0);
+							return onResponse(request, stale);
+						}
+					}
+
+					// Count the bytes read by the callback
+					final CountingHttpEntity entity = response.getEntity() == null ? null : new CountingHttpEntity(response.getEntity());
+					response.setEntity(entity);
+					try {
+						return onResponse(request, response);
+					} finally {
+						metric.success(status, System.nanoTime() - start, sent, entity == null ? 0 : entity.getCount());
+					}
+				} catch (final IOException e) {
+					metric.failure(System.nanoTime() - start, sent, e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException,
+							httpRequest.isAborted());
+					notified = true;
+					circuit.failure();
+					if (attempt >= retries || httpRequest.isAborted()) {
+						// No more retry, or the deadline is reached
+						final CloseableHttpResponse stale = CurlResponseCache.getStale(request, httpRequest);
+						if (stale == null) {
+							throw e;
+						}
+						return onResponse(request, stale);
+					}
+					log.info("Retry request ' [{}] {} {}' after failure : {}", request.getCounter(), url, request.getMethod(), e.getMessage());
+				} finally {
+					deadline.complete();
+				}
+			} finally {
+				if (!notified) {
+					circuit.failure();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Execute the request through the response cache, and share the execution with the concurrent identical "GET"
+	 * requests when the coalescing is enabled.
+	 */
+	private CloseableHttpResponse execute(final CurlRequest request, final HttpRequestBase httpRequest) throws IOException {
+		if (!coalescing || !HttpMethod.GET.equals(request.getMethod())) {
+			return CurlResponseCache.execute(httpClient, request, httpRequest);
+		}
+
+		// The principal is the authentication header and the session cookies, the cache policy is not shared
+		final String key = Arrays.stream(httpRequest.getHeaders(AUTH.WWW_AUTH_RESP)).map(Header::getValue).collect(Collectors.joining(",",
+				HttpMethod.GET + " " + request.getUrl() + "\n" + request.getCache() + "\n", "\n"))
+				+ cookieStore.getCookies().stream().map(c -> c.getName() + "=" + c.getValue()).collect(Collectors.joining(";"));
+		return CurlCoalescer.execute(key, request.getTimeout(), () -> CurlResponseCache.execute(httpClient, request, httpRequest));
+	}
+
+	/**
+	 * Return the length of the sent entity.
+	 */
+	private long getContentLength(final HttpRequestBase httpRequest) {
+		if (httpRequest instanceof HttpEntityEnclosingRequest && ((HttpEntityEnclosingRequest) httpRequest).getEntity() != null) {
+			return ((HttpEntityEnclosingRequest) httpRequest).getEntity().getContentLength();
 		}
+		return 0;
+	}
+
+	/**
+	 * Wait before a retry, using an exponential backoff with a full jitter.
+	 *
+	 * @param attempt
+	 *            The attempt number, starting from <code>1</code> for the first retry.
+	 */
+	private void backoff(final int attempt) throws InterruptedException {
+		final long delay = Long.getLong(RETRY_DELAY, 100) << Math.min(attempt - 1, 10);
+		Thread.sleep(ThreadLocalRandom.current().nextLong(delay + 1));
+	}
+
+	/**
+	 * Process asynchronously the given request with the shared non-blocking client. The callback is called from a
+	 * thread of the common pool, once the whole response has been received.
+	 *
+	 * @param request
+	 *            The request to process.
+	 * @return The future completed with <code>true</code> when the call succeed.
+	 */
+	protected CompletableFuture<Boolean> processAsync(final CurlRequest request) {
+		final String url = request.getUrl();
 
-		// Execute the request
-		final CloseableHttpResponse response = httpClient.execute(httpRequest);
-		
+		// Expose the current processor to this request
+		request.processor = this;
+		final CompletableFuture<HttpResponse> received = new CompletableFuture<>();
+		try {
+			final HttpClientContext context = HttpClientContext.create();
+			context.setCookieStore(cookieStore);
+			context.setRequestConfig(requestConfig);
+			final Future<HttpResponse> future = CurlConnectionPool.getAsyncClient().execute(newRequest(request, url), context,
+					new FutureCallback<HttpResponse>() {
+						@Override
+						public void completed(final HttpResponse response) {
+							received.complete(response);
+						}
+
+						@Override
+						public void failed(final Exception e) {
+							received.completeExceptionally(e);
+						}
+
+						@Override
+						public void cancelled() {
+							received.cancel(false);
+						}
+					});
+
+			// Timeout management, the deadline is completed as soon as the response is received
+			final Deadline deadline = CurlDeadlineScheduler.schedule(request.getTimeout(), () -> future.cancel(true));
+			received.whenComplete((r, e) -> deadline.complete());
+		} catch (final Exception e) { // NOSONAR - This exception can be dropped
+			received.completeExceptionally(e);
+		}
+
+		// The callback is not executed by the I/O threads
+		return received.thenApplyAsync(response -> onAsyncResponse(request, response)).exceptionally(e -> {
+			log.error("Request execution ' [{}] {} {}' failed : {}", request.getCounter(), url, request.getMethod(),
+					ExceptionUtils.getRootCauseMessage(e));
+			return Boolean.FALSE;
+		});
+	}
+
+	/**
+	 * Handle a response received by the non-blocking client.
+	 */
+	private boolean onAsyncResponse(final CurlRequest request, final HttpResponse response) {
+		try (CloseableHttpResponse buffered = new BufferedHttpResponse(response)) {
+			return onResponse(request, buffered);
+		} catch (final Exception e) { // NOSONAR - This exception can be dropped
+			log.error("Request execution ' [{}] {} {}' failed : {}", request.getCounter(), request.getUrl(), request.getMethod(),
+					e.getMessage());
+		}
+		return false;
+	}
+
+	/**
+	 * Save the status of the response, and ask for the callback a flow control.
+	 *
+	 * @param request
+	 *            The processed request.
+	 * @param response
+	 *            The received response.
+	 * @return <code>true</code> to proceed the next request.
+	 * @throws IOException
+	 *             When response cannot be read.
+	 */
+	protected boolean onResponse(final CurlRequest request, final CloseableHttpResponse response) throws IOException {
 		// Save the status
 		request.setStatus(response.getStatusLine().getStatusCode());
 
@@ -286,6 +628,16 @@ public class CurlProcessor {
 		return ObjectUtils.defaultIfNull(request.getCallback(), callback).onResponse(request, response);
 	}
 
+	/**
+	 * Build the HTTP request with its headers and its content.
+	 */
+	private HttpRequestBase newRequest(final CurlRequest request, final String url) throws Exception { // NOSONAR - Many Exception
+		final HttpRequestBase httpRequest = (HttpRequestBase) SUPPORTED_METHOD.get(request.getMethod()).getConstructor(String.class)
+				.newInstance(url);
+		addHeaders(request, request.getContent(), httpRequest);
+		return httpRequest;
+	}
+
 	/**
 	 * Add headers to HTTP request depending on the content-type and content.
 	 */
@@ -358,20 +710,23 @@ public class CurlProcessor {
 	}
 
 	/**
-	 * Return a trusted SSL registry using the given protocol
+	 * Return a trusted SSL registry using the given protocol. The socket factory is shared, see {@link CurlSslRegistry}.
 	 */
 	protected static Registry<ConnectionSocketFactory> newSslContext(final String protocol) {
 		// Initialize HTTPS scheme
-		final TrustManager[] allCerts = new TrustManager[] { new TrustedX509TrustManager() };
-		try {
-			final SSLContext sslContext = SSLContext.getInstance(protocol);
-			sslContext.init(null, allCerts, new SecureRandom());
-			final SSLConnectionSocketFactory sslSocketFactory = new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE);
-			return RegistryBuilder.<ConnectionSocketFactory> create().register("https", sslSocketFactory)
-					.register("http", PlainConnectionSocketFactory.getSocketFactory()).build();
-		} catch (final GeneralSecurityException e) {
-			// Wrap the exception
-			throw new IllegalStateException("Unable to build a secured " + protocol + " registry", e);
-		}
+		final SSLConnectionSocketFactory sslSocketFactory = CurlSslRegistry.getSocketFactory(protocol, TrustPolicy.TRUST_ALL);
+		return RegistryBuilder.<ConnectionSocketFactory> create().register("https", sslSocketFactory)
+				.register("http", PlainConnectionSocketFactory.getSocketFactory()).build();
+	}
+
+	/**
+	 * Return a trusted SSL context using the given protocol
+	 *
+	 * @param protocol
+	 *            The SSL protocol.
+	 * @return The shared SSL context trusting all certificates.
+	 */
+	protected static SSLContext newTrustedSslContext(final String protocol) {
+		return CurlSslRegistry.getSslContext(protocol, TrustPolicy.TRUST_ALL);
 	}
 }
@@ -1,7 +1,11 @@
 package org.ligoj.app.resource.plugin;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang3.ArrayUtils;
 
@@ -68,6 +72,19 @@ public class CurlRequest {
 	 */
 	protected int counter;
 
+	/**
+	 * Future of the asynchronous execution of this request. Is updated when the processor asynchronously execute this
+	 * request.
+	 */
+	protected CompletableFuture<Boolean> future;
+
+	/**
+	 * Requests to succeed before this one in a batch execution.
+	 *
+	 * @see CurlProcessor#processBatch(int, CurlRequest...)
+	 */
+	private final List<CurlRequest> dependencies = new ArrayList<>();
+
 	/**
 	 * Optional request timeout in milliseconds.
 	 */
@@ -75,6 +92,12 @@ public class CurlRequest {
 	@Setter
 	protected Integer timeout;
 
+	/**
+	 * Response cache behavior. Only the "GET" requests are cached.
+	 */
+	@Setter
+	private CurlCachePolicy cache = CurlCachePolicy.NONE;
+
 	/**
 	 * All arguments constructor.
 	 * 
@@ -128,4 +151,17 @@ public class CurlRequest {
 	public CurlRequest(final String method, final String url) {
 		this(method, url, null, null, ArrayUtils.EMPTY_STRING_ARRAY);
 	}
+
+	/**
+	 * Declare the requests to succeed before this one in a batch execution.
+	 *
+	 * @param requests
+	 *            The requests this one depends on.
+	 * @return This request.
+	 * @see CurlProcessor#processBatch(int, CurlRequest...)
+	 */
+	public CurlRequest dependsOn(final CurlRequest... requests) {
+		dependencies.addAll(Arrays.asList(requests));
+		return this;
+	}
 }
@@ -0,0 +1,62 @@
+package org.ligoj.app.resource.plugin;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * HTTP client instrumentation resource.
+ */
+@Path("/system/curl")
+@Service
+@Produces(MediaType.APPLICATION_JSON)
+public class CurlResource {
+
+	/**
+	 * Return the HTTP metrics of each remote host and method.
+	 *
+	 * @return The HTTP metrics ordered by host and method.
+	 */
+	@GET
+	@Path("metrics")
+	public List<CurlMetricsVo> getMetrics() {
+		return CurlMetrics.getMetrics();
+	}
+
+	/**
+	 * Clear the HTTP metrics.
+	 */
+	@DELETE
+	@Path("metrics")
+	public void resetMetrics() {
+		CurlMetrics.reset();
+	}
+
+	/**
+	 * Return the statistics of the shared HTTP components: connection pools, deadlines, response cache, circuits,
+	 * coalesced requests, tokens and TLS handshakes.
+	 *
+	 * @return The statistics of each component.
+	 */
+	@GET
+	@Path("statistics")
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> result = new TreeMap<>();
+		result.put("pool", CurlConnectionPool.getStatistics());
+		result.put("deadline", CurlDeadlineScheduler.getStatistics());
+		result.put("cache", CurlResponseCache.getStatistics());
+		result.put("circuit", CurlCircuitBreaker.getStatistics());
+		result.put("coalescing", CurlCoalescer.getStatistics());
+		result.put("token", CurlCacheToken.getStatistics());
+		result.put("tls", CurlSslRegistry.getStatistics());
+		return result;
+	}
+}
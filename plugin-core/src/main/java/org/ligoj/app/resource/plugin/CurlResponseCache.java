@@ -0,0 +1,381 @@
+package org.ligoj.app.resource.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Conditional-GET response cache shared by the {@link CurlProcessor} instances. Entries are kept in a bounded memory
+ * tier, and in a bounded disk tier inside the {@value #CACHE_DIR} directory of the {@link PluginsClassLoader} home.
+ * Only the responses with an "ETag" or a "Last-Modified" header are cached, and each hit is revalidated with
+ * "If-None-Match"/"If-Modified-Since" headers. The entries are isolated by URL and by "Authorization" header, and the
+ * authenticated ones are never written on disk. The requests sent with cookies, such as a session, are not cached.
+ * <p>
+ * The stale entries are served by the {@link CurlProcessor} once the failure has been recorded, with a
+ * {@value #STALE_WARNING} "Warning" header.
+ *
+ * @see CurlRequest#setCache(CurlCachePolicy)
+ */
+@Slf4j
+public final class CurlResponseCache {
+
+	/**
+	 * Cache directory inside the home directory.
+	 */
+	public static final String CACHE_DIR = "cache/curl";
+
+	/**
+	 * System property name of the maximal amount of entries in the memory tier.
+	 */
+	public static final String MAX_ENTRIES = "curl.cache.max-entries";
+
+	/**
+	 * System property name of the maximal size in bytes of a cached body. Larger responses are not cached.
+	 */
+	public static final String MAX_BODY = "curl.cache.max-body";
+
+	/**
+	 * System property name of the maximal amount of entries in the disk tier. The least recently written entries are
+	 * deleted first.
+	 */
+	public static final String MAX_DISK_ENTRIES = "curl.cache.max-disk-entries";
+
+	/**
+	 * "Warning" header value of a stale response.
+	 */
+	public static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
+	/**
+	 * Headers restored from a cached entry in addition of the validators. The content encoding is not restored, since
+	 * the cached body has already been decoded by the client.
+	 */
+	private static final String[] RESTORED_HEADERS = { HttpHeaders.CONTENT_TYPE };
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * Memory tier, least recently used entries are evicted first.
+	 */
+	private static final Map<String, CurlCacheEntry> MEMORY = Collections.synchronizedMap(new LinkedHashMap<String, CurlCacheEntry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, CurlCacheEntry> eldest) {
+			return size() > Integer.getInteger(MAX_ENTRIES, 500);
+		}
+	});
+
+	private static final AtomicLong HITS = new AtomicLong();
+	private static final AtomicLong MISSES = new AtomicLong();
+	private static final AtomicLong STALES = new AtomicLong();
+
+	/**
+	 * Disk tier directory, resolved on first use. May be <code>null</code> when there is no home.
+	 */
+	private static volatile Path directory;
+	private static volatile boolean resolved;
+
+	private CurlResponseCache() {
+		// Registry only
+	}
+
+	/**
+	 * Set the disk tier directory.
+	 *
+	 * @param directory
+	 *            The new directory. When <code>null</code>, only the memory tier is used.
+	 */
+	public static void setDirectory(final Path directory) {
+		CurlResponseCache.directory = directory;
+		CurlResponseCache.resolved = true;
+	}
+
+	/**
+	 * Return the disk tier directory, resolved from the current {@link PluginsClassLoader}.
+	 */
+	private static Path getDirectory() {
+		if (!resolved) {
+			final PluginsClassLoader classLoader = PluginsClassLoader.getInstance();
+			setDirectory(classLoader == null ? null : classLoader.getHomeDirectory().resolve(CACHE_DIR));
+		}
+		return directory;
+	}
+
+	/**
+	 * Clear both tiers.
+	 *
+	 * @throws IOException
+	 *             When the disk tier cannot be deleted.
+	 */
+	public static void clear() throws IOException {
+		MEMORY.clear();
+		final Path dir = getDirectory();
+		if (dir != null) {
+			FileUtils.deleteDirectory(dir.toFile());
+		}
+	}
+
+	/**
+	 * Return the cache statistics: the amount of "hits", "misses", "stales" served entries and the "entries" in memory.
+	 *
+	 * @return The statistics. Ordered by key.
+	 */
+	public static Map<String, Long> getStatistics() {
+		final Map<String, Long> result = new TreeMap<>();
+		result.put("entries", (long) MEMORY.size());
+		result.put("hits", HITS.get());
+		result.put("misses", MISSES.get());
+		result.put("stales", STALES.get());
+		return result;
+	}
+
+	/**
+	 * Execute the request through the cache when the request's policy allows it.
+	 *
+	 * @param client
+	 *            The client executing the request.
+	 * @param request
+	 *            The original request holding the cache policy.
+	 * @param httpRequest
+	 *            The HTTP request to execute. Conditional headers are added when an entry is cached.
+	 * @return The response, from the remote server or from the cache.
+	 * @throws IOException
+	 *             When the request failed.
+	 */
+	public static CloseableHttpResponse execute(final CloseableHttpClient client, final CurlRequest request,
+			final HttpRequestBase httpRequest) throws IOException {
+		if (!isCacheable(request, httpRequest)) {
+			// Not cacheable request
+			return client.execute(httpRequest);
+		}
+
+		final String key = toKey(request, httpRequest);
+		final CurlCacheEntry entry = get(key);
+		if (entry != null) {
+			// Revalidate the cached entry
+			if (entry.getEtag() != null) {
+				httpRequest.setHeader(HttpHeaders.IF_NONE_MATCH, entry.getEtag());
+			}
+			if (entry.getLastModified() != null) {
+				httpRequest.setHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.getLastModified());
+			}
+		}
+
+		return onResponse(request, key, entry, client.execute(httpRequest), httpRequest.containsHeader(HttpHeaders.AUTHORIZATION));
+	}
+
+	/**
+	 * Indicate the request can be served from the cache: a "GET" request with a cache policy, and without cookie.
+	 */
+	private static boolean isCacheable(final CurlRequest request, final HttpRequestBase httpRequest) {
+		return request.getCache() != CurlCachePolicy.NONE && "GET".equals(request.getMethod())
+				&& httpRequest.getFirstHeader("Cookie") == null
+				&& (request.processor == null || request.processor.cookieStore.getCookies().isEmpty());
+	}
+
+	/**
+	 * Return the stale cached response of a failed request, or of a request that cannot be sent, such as when the
+	 * circuit of the host is open. The failure must have been recorded by the caller. The response has a
+	 * {@value #STALE_WARNING} "Warning" header.
+	 *
+	 * @param request
+	 *            The original request holding the cache policy.
+	 * @param httpRequest
+	 *            The failed HTTP request.
+	 * @return The stale cached response, or <code>null</code> when the policy is not
+	 *         {@link CurlCachePolicy#STALE_ON_ERROR} or when there is no cached entry.
+	 * @throws IOException
+	 *             When the cached entry cannot be read.
+	 */
+	public static CloseableHttpResponse getStale(final CurlRequest request, final HttpRequestBase httpRequest) throws IOException {
+		if (request.getCache() != CurlCachePolicy.STALE_ON_ERROR || !isCacheable(request, httpRequest)) {
+			return null;
+		}
+		final CurlCacheEntry entry = get(toKey(request, httpRequest));
+		if (entry == null) {
+			return null;
+		}
+		log.warn("Serve stale cached response of {}", request.getUrl());
+		STALES.incrementAndGet();
+		final CloseableHttpResponse response = toResponse(entry);
+		response.setHeader(HttpHeaders.WARNING, STALE_WARNING);
+		return response;
+	}
+
+	/**
+	 * Indicate the given response is a stale cached one.
+	 *
+	 * @param response
+	 *            The response given to a callback.
+	 * @return <code>true</code> when the response is a stale cached one.
+	 */
+	public static boolean isStale(final HttpResponse response) {
+		final Header warning = response.getFirstHeader(HttpHeaders.WARNING);
+		return warning != null && STALE_WARNING.equals(warning.getValue());
+	}
+
+	/**
+	 * Return the cache key of the request: the URL and the "Authorization" header.
+	 */
+	private static String toKey(final CurlRequest request, final HttpRequestBase httpRequest) {
+		final Header authorization = httpRequest.getFirstHeader(HttpHeaders.AUTHORIZATION);
+		return DigestUtils.sha256Hex(request.getUrl() + "\n" + (authorization == null ? "" : authorization.getValue()));
+	}
+
+	/**
+	 * Handle the remote response, and return the response to give to the callback.
+	 */
+	private static CloseableHttpResponse onResponse(final CurlRequest request, final String key, final CurlCacheEntry entry,
+			final CloseableHttpResponse response, final boolean authenticated) throws IOException {
+		final int status = response.getStatusLine().getStatusCode();
+		if (entry != null && status == HttpStatus.SC_NOT_MODIFIED) {
+			// The cached entry is still valid
+			response.close();
+			HITS.incrementAndGet();
+			entry.setValidated(System.currentTimeMillis());
+			return toResponse(entry);
+		}
+		MISSES.incrementAndGet();
+		final Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+		final Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+		if (status != HttpStatus.SC_OK || response.getEntity() == null || etag == null && lastModified == null) {
+			// Not cacheable response
+			return response;
+		}
+
+		// Read the body with a bounded buffer
+		final HttpEntity entity = response.getEntity();
+		final int max = Integer.getInteger(MAX_BODY, 1024 * 1024);
+		if (entity.getContentLength() > max) {
+			return response;
+		}
+		final InputStream input = entity.getContent();
+		final byte[] body = IOUtils.toByteArray(new BoundedInputStream(input, max + 1L));
+		if (body.length > max) {
+			// Too large body, give back the read bytes and the remaining stream
+			response.setEntity(new InputStreamEntity(new SequenceInputStream(new ByteArrayInputStream(body), input),
+					ContentType.get(entity)));
+			return response;
+		}
+		response.close();
+
+		final CurlCacheEntry newEntry = new CurlCacheEntry();
+		newEntry.setUrl(request.getUrl());
+		newEntry.setEtag(etag == null ? null : etag.getValue());
+		newEntry.setLastModified(lastModified == null ? null : lastModified.getValue());
+		newEntry.setHeaders(new TreeMap<>());
+		for (final String name : RESTORED_HEADERS) {
+			final Header header = response.getFirstHeader(name);
+			if (header != null) {
+				newEntry.getHeaders().put(name, header.getValue());
+			}
+		}
+		newEntry.setBody(body);
+		newEntry.setValidated(System.currentTimeMillis());
+		put(key, newEntry, authenticated);
+		return toResponse(newEntry);
+	}
+
+	/**
+	 * Build a detached response from a cached entry.
+	 */
+	private static CloseableHttpResponse toResponse(final CurlCacheEntry entry) throws IOException {
+		final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		entry.getHeaders().forEach(response::setHeader);
+		if (entry.getEtag() != null) {
+			response.setHeader(HttpHeaders.ETAG, entry.getEtag());
+		}
+		if (entry.getLastModified() != null) {
+			response.setHeader(HttpHeaders.LAST_MODIFIED, entry.getLastModified());
+		}
+		final ByteArrayEntity entity = new ByteArrayEntity(entry.getBody());
+		entity.setContentType(entry.getHeaders().get(HttpHeaders.CONTENT_TYPE));
+		response.setEntity(entity);
+		return new BufferedHttpResponse(response);
+	}
+
+	/**
+	 * Return the cached entry from the memory tier, then from the disk tier.
+	 */
+	private static CurlCacheEntry get(final String key) {
+		CurlCacheEntry entry = MEMORY.get(key);
+		final Path dir = getDirectory();
+		if (entry == null && dir != null) {
+			final Path file = dir.resolve(key);
+			if (Files.exists(file)) {
+				try {
+					entry = MAPPER.readValue(file.toFile(), CurlCacheEntry.class);
+					MEMORY.put(key, entry);
+				} catch (final IOException e) {
+					log.warn("Unable to read the cached entry {}: {}", file, e.getMessage());
+				}
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Store the entry in memory, and on disk when not authenticated. A disk failure is only logged.
+	 */
+	private static void put(final String key, final CurlCacheEntry entry, final boolean authenticated) {
+		MEMORY.put(key, entry);
+		final Path dir = getDirectory();
+		if (dir != null && !authenticated) {
+			try {
+				Files.createDirectories(dir);
+				MAPPER.writeValue(dir.resolve(key).toFile(), entry);
+				evict(dir);
+			} catch (final IOException e) {
+				log.warn("Unable to write the cached entry of {}: {}", entry.getUrl(), e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Delete the least recently written entries of the disk tier exceeding the maximal amount of entries.
+	 */
+	private static void evict(final Path dir) throws IOException {
+		final int max = Math.max(0, Integer.getInteger(MAX_DISK_ENTRIES, 1000));
+		final File[] files = dir.toFile().listFiles(File::isFile);
+		if (files == null || files.length <= max) {
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (int i = 0; i < files.length - max; i++) {
+			Files.deleteIfExists(files[i].toPath());
+		}
+	}
+}
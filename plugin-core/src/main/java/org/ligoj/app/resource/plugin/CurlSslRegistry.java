@@ -0,0 +1,177 @@
+package org.ligoj.app.resource.plugin;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+
+import org.apache.http.conn.ssl.DefaultHostnameVerifier;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registry of the SSL contexts and socket factories shared by the {@link CurlProcessor} instances, keyed by protocol
+ * and trust policy. A shared context keeps its client session cache, so the handshakes with an already contacted host
+ * are abbreviated. The handshake counts and durations of the blocking connections are recorded.
+ */
+@Slf4j
+public final class CurlSslRegistry {
+
+	/**
+	 * System property name of the maximal amount of cached TLS sessions of a context.
+	 */
+	public static final String SESSION_CACHE_SIZE = "curl.tls.session-cache-size";
+
+	/**
+	 * System property name of the validity duration in seconds of a cached TLS session.
+	 */
+	public static final String SESSION_TIMEOUT = "curl.tls.session-timeout";
+
+	/**
+	 * Certificate trust policies.
+	 */
+	public enum TrustPolicy {
+		/**
+		 * All certificates and host names are trusted.
+		 */
+		TRUST_ALL,
+
+		/**
+		 * The JVM trust store and the host names are checked.
+		 */
+		SYSTEM
+	}
+
+	/**
+	 * Shared contexts, key is "protocol policy".
+	 */
+	private static final Map<String, SSLContext> CONTEXTS = new ConcurrentHashMap<>();
+
+	/**
+	 * Shared socket factories, key is "protocol policy".
+	 */
+	private static final Map<String, SSLConnectionSocketFactory> FACTORIES = new ConcurrentHashMap<>();
+
+	/**
+	 * Handshake durations in milliseconds.
+	 */
+	private static final CurlMetrics.Histogram HANDSHAKES = new CurlMetrics.Histogram();
+	private static final LongAdder RESUMED = new LongAdder();
+	private static final LongAdder FAILURES = new LongAdder();
+
+	private CurlSslRegistry() {
+		// Registry only
+	}
+
+	/**
+	 * Socket factory recording the handshakes.
+	 */
+	private static class MeasuredSocketFactory extends SSLConnectionSocketFactory {
+
+		private MeasuredSocketFactory(final SSLContext context, final HostnameVerifier verifier) {
+			super(context, verifier);
+		}
+
+		@Override
+		public Socket createLayeredSocket(final Socket socket, final String target, final int port, final HttpContext context)
+				throws IOException {
+			final long start = System.currentTimeMillis();
+			final long startNano = System.nanoTime();
+			final Socket result;
+			try {
+				result = super.createLayeredSocket(socket, target, port, context);
+			} catch (final IOException e) {
+				FAILURES.increment();
+				throw e;
+			}
+			HANDSHAKES.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNano));
+			final SSLSession session = ((SSLSocket) result).getSession();
+			if (session.getCreationTime() < start) {
+				// Session created by a previous handshake
+				RESUMED.increment();
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Return the shared SSL context of the given protocol and policy, created as needed.
+	 *
+	 * @param protocol
+	 *            The SSL protocol.
+	 * @param policy
+	 *            The trust policy.
+	 * @return The shared SSL context.
+	 */
+	public static SSLContext getSslContext(final String protocol, final TrustPolicy policy) {
+		return CONTEXTS.computeIfAbsent(protocol + " " + policy, k -> newSslContext(protocol, policy));
+	}
+
+	/**
+	 * Return the shared socket factory of the given protocol and policy, created as needed.
+	 *
+	 * @param protocol
+	 *            The SSL protocol.
+	 * @param policy
+	 *            The trust policy.
+	 * @return The shared socket factory.
+	 */
+	public static SSLConnectionSocketFactory getSocketFactory(final String protocol, final TrustPolicy policy) {
+		return FACTORIES.computeIfAbsent(protocol + " " + policy, k -> new MeasuredSocketFactory(getSslContext(protocol, policy),
+				policy == TrustPolicy.TRUST_ALL ? NoopHostnameVerifier.INSTANCE : new DefaultHostnameVerifier()));
+	}
+
+	/**
+	 * Create a SSL context with a bounded client session cache.
+	 */
+	private static SSLContext newSslContext(final String protocol, final TrustPolicy policy) {
+		final TrustManager[] trustManagers = policy == TrustPolicy.TRUST_ALL
+				? new TrustManager[] { new CurlProcessor.TrustedX509TrustManager() }
+				: null;
+		try {
+			final SSLContext sslContext = SSLContext.getInstance(protocol);
+			sslContext.init(null, trustManagers, new SecureRandom());
+			final SSLSessionContext sessions = sslContext.getClientSessionContext();
+			sessions.setSessionCacheSize(Integer.getInteger(SESSION_CACHE_SIZE, 1000));
+			sessions.setSessionTimeout(Integer.getInteger(SESSION_TIMEOUT, 86400));
+			log.info("Create SSL context {} {}, session-cache={}", protocol, policy, sessions.getSessionCacheSize());
+			return sslContext;
+		} catch (final GeneralSecurityException e) {
+			// Wrap the exception
+			throw new IllegalStateException("Unable to build a secured " + protocol + " registry", e);
+		}
+	}
+
+	/**
+	 * Return the handshake statistics: the amount of "handshakes", "resumed" sessions and "failures", the handshake
+	 * latencies in milliseconds and the amount of shared "contexts".
+	 *
+	 * @return The statistics. Ordered by key.
+	 */
+	public static Map<String, Long> getStatistics() {
+		final Map<String, Long> result = new TreeMap<>();
+		result.put("contexts", (long) CONTEXTS.size());
+		result.put("failures", FAILURES.sum());
+		result.put("handshakes", HANDSHAKES.getCount());
+		result.put("latency-max", HANDSHAKES.getMax());
+		result.put("latency-p50", HANDSHAKES.getValueAtPercentile(50));
+		result.put("latency-p99", HANDSHAKES.getValueAtPercentile(99));
+		result.put("resumed", RESUMED.sum());
+		return result;
+	}
+}
@@ -1,12 +1,17 @@
 package org.ligoj.app.resource.plugin;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.ObjectUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.ContentType;
 import org.apache.http.util.EntityUtils;
 
 import lombok.extern.slf4j.Slf4j;
@@ -18,6 +23,11 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class DefaultHttpResponseCallback implements HttpResponseCallback {
 
+	/**
+	 * Maximal amount of bytes of an error body written in the log.
+	 */
+	public static final int MAX_ERROR_BODY = 4096;
+
 	@Override
 	public boolean onResponse(final CurlRequest request, final CloseableHttpResponse response) throws IOException {
 
@@ -28,7 +38,7 @@ public class DefaultHttpResponseCallback implements HttpResponseCallback {
 
 			// Check the status
 			if (!acceptResponse(response)) {
-				log.error(EntityUtils.toString(entity));
+				log.error(readError(entity));
 				return false;
 			}
 
@@ -41,6 +51,24 @@ public class DefaultHttpResponseCallback implements HttpResponseCallback {
 		return true;
 	}
 
+	/**
+	 * Read the beginning of an error body. The remaining content is not read, and the entity stream is closed.
+	 *
+	 * @param entity
+	 *            The entity of the rejected response.
+	 * @return The first {@value #MAX_ERROR_BODY} bytes of the body, with a trailing "..." when truncated.
+	 * @throws IOException
+	 *             When response cannot be read.
+	 */
+	protected String readError(final HttpEntity entity) throws IOException {
+		try (InputStream input = entity.getContent()) {
+			final byte[] buffer = new byte[MAX_ERROR_BODY];
+			final int length = IOUtils.read(input, buffer);
+			final Charset charset = ObjectUtils.defaultIfNull(ContentType.getOrDefault(entity).getCharset(), StandardCharsets.UTF_8);
+			return new String(buffer, 0, length, charset) + (input.read() == -1 ? "" : "...");
+		}
+	}
+
 	/**
 	 * Indicate the response is accepted.
 	 */
@@ -0,0 +1,151 @@
+package org.ligoj.app.resource.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.ContentType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Callback giving the entity stream of an accepted response to a handler. The response is never buffered, so large
+ * responses are parsed with a constant memory. {@link CurlRequest#getResponse()} is not updated. Status acceptance and
+ * error logging are inherited from {@link DefaultHttpResponseCallback}.
+ *
+ * @param <T>
+ *            The content type given to the handler.
+ */
+@Slf4j
+public class StreamHttpResponseCallback<T> extends DefaultHttpResponseCallback {
+
+	/**
+	 * Shared JSON factory, thread safe.
+	 */
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	/**
+	 * Handler of a response content.
+	 *
+	 * @param <T>
+	 *            The content type.
+	 */
+	@FunctionalInterface
+	public interface ContentHandler<T> {
+
+		/**
+		 * Called when an accepted response is received. The content is closed after this call.
+		 *
+		 * @param request
+		 *            the original request.
+		 * @param content
+		 *            the response content.
+		 * @return <code>true</code> to proceed the next request. <code>false</code> otherwise.
+		 * @throws IOException
+		 *             When response cannot be read.
+		 * @throws XMLStreamException
+		 *             When the XML response cannot be parsed.
+		 */
+		boolean onContent(CurlRequest request, T content) throws IOException, XMLStreamException;
+	}
+
+	/**
+	 * Open the handled content from the entity stream.
+	 */
+	@FunctionalInterface
+	private interface ContentOpener<T> {
+		T open(InputStream input, Charset charset) throws IOException, XMLStreamException;
+	}
+
+	private final ContentOpener<T> opener;
+
+	private final ContentHandler<T> handler;
+
+	private StreamHttpResponseCallback(final ContentOpener<T> opener, final ContentHandler<T> handler) {
+		this.opener = opener;
+		this.handler = handler;
+	}
+
+	/**
+	 * Return a callback giving the raw entity stream.
+	 *
+	 * @param handler
+	 *            The stream handler.
+	 * @return The new callback.
+	 */
+	public static StreamHttpResponseCallback<InputStream> stream(final ContentHandler<InputStream> handler) {
+		return new StreamHttpResponseCallback<>((input, charset) -> input, handler);
+	}
+
+	/**
+	 * Return a callback giving a reader decoding the entity stream with the charset of the response. UTF-8 is used by
+	 * default.
+	 *
+	 * @param handler
+	 *            The reader handler.
+	 * @return The new callback.
+	 */
+	public static StreamHttpResponseCallback<Reader> reader(final ContentHandler<Reader> handler) {
+		return new StreamHttpResponseCallback<>(InputStreamReader::new, handler);
+	}
+
+	/**
+	 * Return a callback giving a Jackson parser reading the entity stream. The encoding is detected by the parser.
+	 *
+	 * @param handler
+	 *            The JSON parser handler.
+	 * @return The new callback.
+	 */
+	public static StreamHttpResponseCallback<JsonParser> json(final ContentHandler<JsonParser> handler) {
+		return new StreamHttpResponseCallback<>((input, charset) -> JSON_FACTORY.createParser(input), handler);
+	}
+
+	/**
+	 * Return a callback giving a StAX reader reading the entity stream, secured as {@link XmlUtils}: DTD and external
+	 * entities are not supported.
+	 *
+	 * @param handler
+	 *            The StAX reader handler.
+	 * @return The new callback.
+	 */
+	public static StreamHttpResponseCallback<XMLStreamReader> xml(final ContentHandler<XMLStreamReader> handler) {
+		return new StreamHttpResponseCallback<>((input, charset) -> XmlUtils.newStreamReader(input), handler);
+	}
+
+	@Override
+	public boolean onResponse(final CurlRequest request, final CloseableHttpResponse response) throws IOException {
+		// Read the response
+		final HttpEntity entity = response.getEntity();
+		log.info("{} {}", response.getStatusLine().getStatusCode(), request.getUrl());
+		if (entity == null) {
+			// Nothing to stream, as the default callback
+			return true;
+		}
+
+		// Check the status
+		if (!acceptResponse(response)) {
+			log.error(readError(entity));
+			return false;
+		}
+
+		// Stream the content, the connection is released when the stream is closed
+		try (InputStream input = entity.getContent()) {
+			final Charset charset = ObjectUtils.defaultIfNull(ContentType.getOrDefault(entity).getCharset(), StandardCharsets.UTF_8);
+			return handler.onContent(request, opener.open(input, charset));
+		} catch (final XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+}
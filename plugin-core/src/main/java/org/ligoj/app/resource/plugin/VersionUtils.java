@@ -1,26 +1,94 @@
 package org.ligoj.app.resource.plugin;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.HttpMethod;
 
-import org.apache.commons.lang3.ObjectUtils;
 import org.springframework.stereotype.Component;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import lombok.extern.slf4j.Slf4j;
+
 /**
- * Version utilities.
+ * Version utilities. The resolved latest versions are cached for each server and project, and refreshed in
+ * background before their expiration. Failed resolutions are not cached, so the next call tries again.
  */
+@Slf4j
 @Component
 public class VersionUtils {
 
+	/**
+	 * System property name of the duration in milliseconds a resolved version is cached.
+	 */
+	public static final String CACHE_TTL = "version.cache.ttl";
+
+	/**
+	 * System property name of the age in milliseconds after which a cached version is refreshed in background.
+	 */
+	public static final String CACHE_REFRESH = "version.cache.refresh";
+
+	/**
+	 * System property name of the maximal amount of cached versions. The least recently used ones are evicted first.
+	 */
+	public static final String CACHE_MAX_ENTRIES = "version.cache.max-entries";
+
 	/**
 	 * Valid version pattern.
 	 */
 	private static final Pattern VERSION_PATTERN = Pattern.compile("^[0-9]+.*$");
 
+	/**
+	 * Shared mapper, thread safe.
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static final ExecutorService REFRESHER = Executors.newCachedThreadPool(CurlConnectionPool.newThreadFactory("version-refresh"));
+
+	/**
+	 * A resolved version, may be <code>null</code> when there is no released version.
+	 */
+	private static class CachedVersion {
+		private final AtlassianVersion version;
+		private final long resolved = System.currentTimeMillis();
+
+		private CachedVersion(final AtlassianVersion version) {
+			this.version = version;
+		}
+	}
+
+	/**
+	 * Resolved versions, key is "server project".
+	 */
+	private final Map<String, CachedVersion> cache = Collections.synchronizedMap(new LinkedHashMap<String, CachedVersion>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, CachedVersion> eldest) {
+			return size() > Integer.getInteger(CACHE_MAX_ENTRIES, 1000);
+		}
+	});
+
+	/**
+	 * Versions being refreshed in background.
+	 */
+	private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
 	/**
 	 * Return the lasted version for the given JIRA project.
 	 * 
@@ -33,18 +101,72 @@ public class VersionUtils {
 	 *             When version cannot be read from the remote URL.
 	 */
 	public AtlassianVersion getLatestReleasedVersion(final String serverUrl, final String project) throws IOException {
-		// Get the download index
-		final CurlProcessor processor = new CurlProcessor();
-		final String versionsAsJson = ObjectUtils.defaultIfNull(processor.get(serverUrl + "/rest/api/2/project/" + project + "/versions"),
-				"[]");
-		final List<AtlassianVersion> versionsRaw = new ObjectMapper().readValue(versionsAsJson,
-				new TypeReference<List<AtlassianVersion>>() {
-					// Nothing to override
-				});
+		final String key = serverUrl + " " + project;
+		final CachedVersion cached = cache.get(key);
+		final long age = cached == null ? Long.MAX_VALUE : System.currentTimeMillis() - cached.resolved;
+		if (age >= Long.getLong(CACHE_TTL, 3600000)) {
+			// Not cached or expired version
+			return resolve(serverUrl, project, key);
+		}
+		if (age >= Long.getLong(CACHE_REFRESH, 1800000) && refreshing.add(key)) {
+			// Refresh ahead the cached version
+			REFRESHER.execute(() -> {
+				try {
+					resolve(serverUrl, project, key);
+				} catch (final IOException e) {
+					log.warn("Unable to refresh the latest version of {} {}", serverUrl, project, e);
+				} finally {
+					refreshing.remove(key);
+				}
+			});
+		}
+		return cached.version;
+	}
+
+	/**
+	 * Resolve the latest version from the remote server and cache it when the server answered. As before, an
+	 * unavailable server is logged by the processor and gives <code>null</code>, while an unreadable content is thrown.
+	 */
+	private AtlassianVersion resolve(final String serverUrl, final String project, final String key) throws IOException {
+		// Get the download index, revalidated from the cache
+		final CurlRequest request = new CurlRequest(HttpMethod.GET, serverUrl + "/rest/api/2/project/" + project + "/versions", null);
+		request.setCache(CurlCachePolicy.REVALIDATE);
+		final AtomicReference<AtlassianVersion> lastVersion = new AtomicReference<>();
+		final AtomicReference<IOException> error = new AtomicReference<>();
+		final CurlProcessor processor = new CurlProcessor(StreamHttpResponseCallback.json((r, parser) -> {
+			try {
+				lastVersion.set(getLatestReleasedVersion(parser));
+			} catch (final IOException e) {
+				// Keep the parse failure, the processor would only log it
+				error.set(e);
+				throw e;
+			}
+			return true;
+		}));
+		try {
+			if (processor.process(request)) {
+				cache.put(key, new CachedVersion(lastVersion.get()));
+			} else if (error.get() != null) {
+				throw error.get();
+			}
+		} finally {
+			processor.close();
+		}
+		return lastVersion.get();
+	}
+
+	/**
+	 * Return the latest version from the JSON array of versions, in a single streaming pass.
+	 */
+	private AtlassianVersion getLatestReleasedVersion(final JsonParser parser) throws IOException {
+		if (parser.nextToken() != JsonToken.START_ARRAY) {
+			throw new JsonParseException(parser, "Array of versions expected");
+		}
 
 		// Find the last download link
 		AtlassianVersion lastVersion = null;
-		for (final AtlassianVersion jiraVersion : versionsRaw) {
+		while (parser.nextToken() == JsonToken.START_OBJECT) {
+			final AtlassianVersion jiraVersion = MAPPER.readValue(parser, AtlassianVersion.class);
 			if (isValidVersion(lastVersion, jiraVersion)) {
 				lastVersion = jiraVersion;
 			}
@@ -54,6 +176,46 @@ public class VersionUtils {
 		return lastVersion;
 	}
 
+	/**
+	 * Return the lasted version of each given JIRA project, resolved concurrently.
+	 * 
+	 * @param serverUrl
+	 *            The server base URL like "http://jira.codehaus.org"
+	 * @param projects
+	 *            The JIRA project identifiers.
+	 * @param parallelism
+	 *            The maximal amount of concurrent resolutions.
+	 * @return The latest version of each project, <code>null</code> when not found or when the versions cannot be read.
+	 *         Key is the project, ordered as the given projects.
+	 */
+	public Map<String, AtlassianVersion> getLatestReleasedVersions(final String serverUrl, final Collection<String> projects,
+			final int parallelism) {
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, projects.size())),
+				CurlConnectionPool.newThreadFactory("version-batch"));
+		try {
+			final Map<String, CompletableFuture<AtlassianVersion>> futures = projects.stream().distinct()
+					.collect(Collectors.toMap(p -> p, p -> CompletableFuture.supplyAsync(() -> getLatestReleasedVersionSafe(serverUrl, p), executor),
+							(a, b) -> a, LinkedHashMap::new));
+			final Map<String, AtlassianVersion> result = new LinkedHashMap<>();
+			futures.forEach((p, f) -> result.put(p, f.join()));
+			return result;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Return the lasted version for the given JIRA project, or <code>null</code> when it cannot be read.
+	 */
+	private AtlassianVersion getLatestReleasedVersionSafe(final String serverUrl, final String project) {
+		try {
+			return getLatestReleasedVersion(serverUrl, project);
+		} catch (final IOException e) {
+			log.warn("Unable to read the latest version of {} {}", serverUrl, project, e);
+			return null;
+		}
+	}
+
 	/**
 	 * Check the given version is valid and greater/newer than the last one.
 	 * 
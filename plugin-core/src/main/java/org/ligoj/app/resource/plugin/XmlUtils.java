@@ -3,13 +3,27 @@ package org.ligoj.app.resource.plugin;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
@@ -23,13 +37,52 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 /**
- * XML utilities.
+ * XML utilities. The document builders and the compiled XPATH expressions are not thread safe, so they are confined
+ * to the thread using them and reused by its next calls.
  */
 @Component
 public class XmlUtils {
 
 	/**
-	 * The shared XPATH factory
+	 * System property name of the maximal amount of compiled XPATH expressions cached by each thread.
+	 */
+	public static final String XPATH_CACHE_SIZE = "xml.xpath.cache-size";
+
+	/**
+	 * Secured document builder of each thread, created on first use.
+	 */
+	private static final ThreadLocal<DocumentBuilder> BUILDERS = new ThreadLocal<>();
+
+	/**
+	 * Compiled XPATH expressions of each thread, least recently used expressions are evicted first.
+	 */
+	private static final ThreadLocal<Map<String, XPathExpression>> EXPRESSIONS = ThreadLocal
+			.withInitial(() -> new LinkedHashMap<String, XPathExpression>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, XPathExpression> eldest) {
+					return size() > Integer.getInteger(XPATH_CACHE_SIZE, 100);
+				}
+			});
+
+	/**
+	 * XPATH compiler of each thread.
+	 */
+	private static final ThreadLocal<XPath> XPATHS = ThreadLocal.withInitial(() -> XPathFactory.newInstance().newXPath());
+
+	/**
+	 * Secured StAX factory, thread safe once configured.
+	 */
+	private static final XMLInputFactory XML_FACTORY = XMLInputFactory.newInstance();
+
+	static {
+		XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		XML_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	/**
+	 * The shared XPATH factory. Not thread safe, {@link #compile(String)} should be preferred.
 	 */
 	public final XPathFactory xpathFactory = XPathFactory.newInstance();
 
@@ -41,13 +94,27 @@ public class XmlUtils {
 	 * @return The parsed document.
 	 */
 	public Document parse(final InputStream input) throws SAXException, IOException, ParserConfigurationException {
-		final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-		factory.setValidating(false);
-		factory.setCoalescing(false);
-		factory.setExpandEntityReferences(false);
-		factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-		factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-		return factory.newDocumentBuilder().parse(input, StandardCharsets.UTF_8.name());
+		return getDocumentBuilder().parse(input, StandardCharsets.UTF_8.name());
+	}
+
+	/**
+	 * Return the secured document builder of the current thread, reset for a new parsing.
+	 */
+	private DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+		DocumentBuilder builder = BUILDERS.get();
+		if (builder == null) {
+			final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setValidating(false);
+			factory.setCoalescing(false);
+			factory.setExpandEntityReferences(false);
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			builder = factory.newDocumentBuilder();
+			BUILDERS.set(builder);
+		} else {
+			builder.reset();
+		}
+		return builder;
 	}
 
 	/**
@@ -86,11 +153,99 @@ public class XmlUtils {
 	 */
 	public NodeList getXpath(final String input, final String expression)
 			throws XPathExpressionException, SAXException, IOException, ParserConfigurationException {
-		final XPath xPath = xpathFactory.newXPath();
-		return (NodeList) xPath.compile(expression).evaluate(
+		return (NodeList) compile(expression).evaluate(
 				parse(IOUtils.toInputStream(ObjectUtils.defaultIfNull(input, ""), StandardCharsets.UTF_8)), XPathConstants.NODESET);
 	}
 
+	/**
+	 * Return the compiled XPATH expression from the cache of the current thread.
+	 * 
+	 * @param expression
+	 *            The XPATH expression.
+	 * @return The compiled expression. Must not be shared with another thread.
+	 */
+	public XPathExpression compile(final String expression) throws XPathExpressionException {
+		final Map<String, XPathExpression> expressions = EXPRESSIONS.get();
+		XPathExpression compiled = expressions.get(expression);
+		if (compiled == null) {
+			compiled = XPATHS.get().compile(expression);
+			expressions.put(expression, compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Return a secured StAX reader: DTD and external entities are not supported.
+	 *
+	 * @param input
+	 *            Input to read. Not closed by the reader.
+	 * @return The new reader.
+	 * @throws XMLStreamException
+	 *             When the reader cannot be created.
+	 */
+	static XMLStreamReader newStreamReader(final InputStream input) throws XMLStreamException {
+		return XML_FACTORY.createXMLStreamReader(input);
+	}
+
+	/**
+	 * Return the text content of the given tags without building a DOM. The content of a selected tag includes the
+	 * text of its nested tags, and the selected tags nested in a selected one are not returned separately.
+	 * 
+	 * @param input
+	 *            Input to read. Not closed by this method.
+	 * @param tags
+	 *            The tag names to extract.
+	 * @return The text content of each found tag in document order, key is the tag name. Not found tags have no key.
+	 */
+	public Map<String, List<String>> getTagValues(final InputStream input, final Collection<String> tags) throws XMLStreamException {
+		final Set<String> selected = new HashSet<>(tags);
+		final Map<String, List<String>> result = new LinkedHashMap<>();
+		final XMLStreamReader reader = newStreamReader(input);
+		try {
+			String tag = null;
+			int depth = 0;
+			final StringBuilder text = new StringBuilder();
+			while (reader.hasNext()) {
+				final int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					if (tag == null && selected.contains(reader.getLocalName())) {
+						// Start capturing the content of this tag
+						tag = reader.getLocalName();
+						text.setLength(0);
+					} else if (tag != null) {
+						depth++;
+					}
+				} else if (tag != null && event == XMLStreamConstants.END_ELEMENT) {
+					if (depth == 0) {
+						result.computeIfAbsent(tag, t -> new ArrayList<>()).add(text.toString());
+						tag = null;
+					} else {
+						depth--;
+					}
+				} else if (tag != null && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+					text.append(reader.getText());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Return the text content of the given tags without building a DOM.
+	 * 
+	 * @param input
+	 *            Input to read. May be <code>null</code>.
+	 * @param tags
+	 *            The tag names to extract.
+	 * @return The text content of each found tag in document order, key is the tag name. Not found tags have no key.
+	 * @see #getTagValues(InputStream, Collection)
+	 */
+	public Map<String, List<String>> getTagValues(final String input, final String... tags) throws XMLStreamException {
+		return getTagValues(IOUtils.toInputStream(ObjectUtils.defaultIfNull(input, "<a/>"), StandardCharsets.UTF_8), Arrays.asList(tags));
+	}
+
 	/**
 	 * Return XML tag text content.
 	 * 
@@ -2,6 +2,7 @@ package org.ligoj.app.resource.subscription;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -42,6 +43,7 @@ import org.ligoj.app.model.Project;
 import org.ligoj.app.model.Subscription;
 import org.ligoj.app.resource.node.AbstractLockedResource;
 import org.ligoj.app.resource.node.EventResource;
+import org.ligoj.app.resource.node.NodeHealthHistory;
 import org.ligoj.app.resource.node.EventVo;
 import org.ligoj.app.resource.node.NodeResource;
 import org.ligoj.app.resource.node.ParameterValueCreateVo;
@@ -86,6 +88,9 @@ public class SubscriptionResource extends AbstractLockedResource<Integer> {
 	@Autowired
 	private EventResource eventResource;
 
+	@Autowired
+	private NodeHealthHistory healthHistory;
+
 	@Autowired
 	private SecurityHelper securityHelper;
 
@@ -325,8 +330,9 @@ public class SubscriptionResource extends AbstractLockedResource<Integer> {
 		final Subscription entity = checkVisibleSubscription(id);
 		checkManagedProject(entity.getProject().getId());
 
-		// Delete the events
-		eventRepository.deleteAllBy("subscription", entity);
+		// Delete the events and the check history
+		eventResource.deleteBySubscription(entity);
+		healthHistory.forgetSubscription(id);
 
 		// Delegate the deletion
 		deleteWithTasks(entity.getNode().getId(), id, deleteRemoteData);
@@ -520,7 +526,7 @@ public class SubscriptionResource extends AbstractLockedResource<Integer> {
 	}
 
 	/**
-	 * Get fresh status of a set of subscriptions. This a loop shortcut of the per-subscription call.
+	 * Get fresh status of a set of subscriptions. The tools are called concurrently.
 	 * 
 	 * @param ids
 	 *            Node identifiers
@@ -530,17 +536,25 @@ public class SubscriptionResource extends AbstractLockedResource<Integer> {
 	@Path("status/refresh")
 	@GET
 	public Map<Integer, SubscriptionStatusWithData> refreshStatuses(@QueryParam("id") final Set<Integer> ids) {
-		return ids.stream().map(this::refreshStatus)
-				.collect(Collectors.toMap(SubscriptionStatusWithData::getId, Function.identity()));
+		final Map<Subscription, Map<String, String>> subscriptions = new LinkedHashMap<>();
+		ids.stream().map(this::checkVisibleSubscription).forEach(s -> subscriptions.put(s, getParameters(s.getId())));
+		final Map<Integer, SubscriptionStatusWithData> statuses = nodeResource.checkSubscriptionStatus(subscriptions);
+		subscriptions.keySet().forEach(s -> complete(s, statuses.get(s.getId())));
+		return statuses;
 	}
 
 	/**
 	 * Refresh given subscriptions and return their status.
 	 */
 	private SubscriptionStatusWithData refreshSubscription(final Subscription subscription) {
-		final Map<String, String> parameters = getParameters(subscription.getId());
-		final SubscriptionStatusWithData statusWithData = nodeResource.checkSubscriptionStatus(subscription,
-				parameters);
+		return complete(subscription, nodeResource.checkSubscriptionStatus(subscription, getParameters(subscription.getId())));
+	}
+
+	/**
+	 * Complete the fresh status of a subscription and register it.
+	 */
+	private SubscriptionStatusWithData complete(final Subscription subscription,
+			final SubscriptionStatusWithData statusWithData) {
 		statusWithData.setId(subscription.getId());
 		statusWithData.setProject(subscription.getProject().getId());
 		statusWithData.setParameters(parameterValueResource.getNonSecuredSubscriptionParameters(subscription.getId()));
@@ -0,0 +1,276 @@
+package org.ligoj.app.resource.node;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.transaction.Transactional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractAppTest;
+import org.ligoj.app.dao.ClusterLeaseRepository;
+import org.ligoj.app.dao.EventRepository;
+import org.ligoj.app.dao.LastEventRepository;
+import org.ligoj.app.dao.NodeRepository;
+import org.ligoj.app.model.ClusterLease;
+import org.ligoj.app.model.Event;
+import org.ligoj.app.model.EventType;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Parameter;
+import org.ligoj.app.model.ParameterValue;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * Test class of {@link ClusterCoordinator}
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+public class ClusterCoordinatorTest extends AbstractAppTest {
+
+	@Autowired
+	private ClusterCoordinator cluster;
+
+	@Autowired
+	private ClusterLeaseRepository repository;
+
+	@Autowired
+	private EventResource eventResource;
+
+	@Autowired
+	private EventRepository eventRepository;
+
+	@Autowired
+	private LastEventRepository lastRepository;
+
+	@Autowired
+	private NodeRepository nodeRepository;
+
+	@Autowired
+	private EventIndex index;
+
+	@AfterEach
+	public void clearProperties() {
+		System.clearProperty(ClusterCoordinator.ENABLED);
+		System.clearProperty(ClusterCoordinator.INSTANCE);
+		System.clearProperty(ClusterCoordinator.LEASE);
+		cluster.heartbeat();
+	}
+
+	private void newLease(final String instance, final long delta) {
+		final ClusterLease lease = new ClusterLease();
+		lease.setInstance(instance);
+		lease.setExpires(new Date(System.currentTimeMillis() + delta));
+		repository.saveAndFlush(lease);
+	}
+
+	private void join(final String instance) {
+		System.setProperty(ClusterCoordinator.ENABLED, "true");
+		System.setProperty(ClusterCoordinator.INSTANCE, instance);
+	}
+
+	private List<String> newKeys() {
+		final List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			keys.add("service:bt:jira:" + i);
+		}
+		return keys;
+	}
+
+	@Test
+	public void disabled() {
+		Assertions.assertTrue(cluster.heartbeat().isEmpty());
+		Assertions.assertEquals(0, repository.count());
+		Assertions.assertTrue(cluster.isLeader());
+		final List<String> keys = newKeys();
+		Assertions.assertSame(keys, cluster.shard(keys, k -> k));
+	}
+
+	@Test
+	public void heartbeat() {
+		join("junit-b");
+		Assertions.assertEquals(Arrays.asList("junit-b"), cluster.heartbeat());
+		Assertions.assertTrue(cluster.isLeader());
+		final Date expires = repository.findByInstance("junit-b").getExpires();
+		Assertions.assertTrue(expires.after(new Date()));
+
+		// The lease is renewed, not duplicated
+		cluster.heartbeat();
+		Assertions.assertEquals(1, repository.count());
+		Assertions.assertFalse(repository.findByInstance("junit-b").getExpires().before(expires));
+	}
+
+	@Test
+	public void notJoined() {
+		newLease("junit-a", 60000);
+		join("junit-a");
+
+		// No heartbeat yet, this instance does not know it is the leader
+		Assertions.assertFalse(cluster.isLeader());
+		Assertions.assertTrue(cluster.getMembers().isEmpty());
+		Assertions.assertTrue(cluster.shard(newKeys(), k -> k).isEmpty());
+	}
+
+	@Test
+	public void heartbeatExpired() throws InterruptedException {
+		join("junit-a");
+		System.setProperty(ClusterCoordinator.LEASE, "50");
+		cluster.heartbeat();
+		Assertions.assertTrue(cluster.isLeader());
+
+		// No heartbeat since the lease duration, the membership is no more reliable
+		Thread.sleep(100);
+		Assertions.assertFalse(cluster.isLeader());
+		Assertions.assertTrue(cluster.shard(newKeys(), k -> k).isEmpty());
+	}
+
+	@Test
+	public void heartbeatDatabaseDate() {
+		// The lease of the other instance has a local date in the past, compared with the database clock
+		newLease("junit-a", -1000);
+		join("junit-b");
+		final Date before = new Date(System.currentTimeMillis() - 1000);
+		Assertions.assertEquals(Arrays.asList("junit-b"), cluster.heartbeat());
+		Assertions.assertFalse(repository.getDatabaseDate("junit-b").before(before));
+	}
+
+	@Test
+	public void failover() {
+		newLease("junit-a", 60000);
+		join("junit-b");
+		Assertions.assertEquals(Arrays.asList("junit-a", "junit-b"), cluster.heartbeat());
+		Assertions.assertFalse(cluster.isLeader());
+
+		// The leader dies, its lease expires
+		final ClusterLease lease = repository.findByInstance("junit-a");
+		lease.setExpires(new Date(System.currentTimeMillis() - 1000));
+		repository.saveAndFlush(lease);
+		Assertions.assertEquals(Arrays.asList("junit-b"), cluster.heartbeat());
+		Assertions.assertTrue(cluster.isLeader());
+
+		// The expired lease is purged by the new leader
+		Assertions.assertNull(repository.findByInstance("junit-a"));
+		Assertions.assertEquals(300, cluster.shard(newKeys(), k -> k).size());
+	}
+
+	@Test
+	public void shard() {
+		newLease("junit-a", 60000);
+		newLease("junit-b", 60000);
+		newLease("junit-c", 60000);
+		final List<String> keys = newKeys();
+		final Set<String> owned = new HashSet<>();
+		int total = 0;
+		for (final String instance : Arrays.asList("junit-a", "junit-b", "junit-c")) {
+			join(instance);
+			Assertions.assertEquals(3, cluster.heartbeat().size());
+			final List<String> shard = cluster.shard(keys, k -> k);
+			Assertions.assertFalse(shard.isEmpty());
+			owned.addAll(shard);
+			total += shard.size();
+		}
+
+		// Each key has exactly one owner
+		Assertions.assertEquals(300, total);
+		Assertions.assertEquals(300, owned.size());
+		Assertions.assertEquals(Arrays.asList("junit-a", "junit-b", "junit-c"), cluster.getMembers());
+	}
+
+	@Test
+	public void shardStable() {
+		newLease("junit-a", 60000);
+		newLease("junit-b", 60000);
+		join("junit-a");
+		cluster.heartbeat();
+		final List<String> before = cluster.shard(newKeys(), k -> k);
+
+		// A new member only takes over keys, the others stay on their owner
+		newLease("junit-c", 60000);
+		cluster.heartbeat();
+		final List<String> after = cluster.shard(newKeys(), k -> k);
+		Assertions.assertTrue(after.size() < before.size());
+		Assertions.assertTrue(before.containsAll(after));
+	}
+
+	@Test
+	public void registerEventShared() throws IOException {
+		persistEntities("csv",
+				new Class[] { Node.class, Parameter.class, Project.class, Subscription.class, ParameterValue.class, Event.class },
+				StandardCharsets.UTF_8.name());
+		eventResource.refreshLastEvents();
+
+		// A single instance uses its local values
+		final Node node = em.find(Node.class, "service:bt:jira:6");
+		eventResource.registerEvent(node, EventType.STATUS, "DOWN");
+		Assertions.assertTrue(index.isLoaded(EventType.STATUS));
+		join("junit-a");
+		cluster.heartbeat();
+		Assertions.assertFalse(index.isLoaded(EventType.STATUS));
+		eventResource.registerEvent(node, EventType.STATUS, "DOWN");
+
+		// A second instance joins the same database
+		final ClusterCoordinator other = new ClusterCoordinator();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(other);
+		other.setInstance("junit-b");
+		other.heartbeat();
+		cluster.heartbeat();
+		Assertions.assertEquals(Arrays.asList("junit-a", "junit-b"), cluster.getMembers());
+		Assertions.assertEquals(Arrays.asList("junit-a", "junit-b"), other.getMembers());
+		Assertions.assertTrue(cluster.isLeader());
+		Assertions.assertFalse(other.isLeader());
+
+		// The ownership has changed, the local values are forgotten and the shared values are used
+		Assertions.assertFalse(index.isLoaded(EventType.STATUS));
+		final List<Node> nodes = nodeRepository.findAllInstance();
+		final List<Node> owned = new ArrayList<>(cluster.shard(nodes, Node::getId));
+		Assertions.assertTrue(Collections.disjoint(owned, other.shard(nodes, Node::getId)));
+		owned.addAll(other.shard(nodes, Node::getId));
+		Assertions.assertEquals(nodes.size(), owned.size());
+
+		// The other instance registers the recovery of the node
+		final Event event = new Event();
+		event.setNode(node);
+		event.setType(EventType.STATUS);
+		event.setValue("UP");
+		event.setDate(new Date());
+		em.persist(event);
+		lastRepository.findByNode(node.getId(), EventType.STATUS).setEvent(event);
+		em.flush();
+
+		// This instance neither duplicates this event nor misses the next transition
+		final long events = eventRepository.count();
+		Assertions.assertFalse(eventResource.registerEvent(node, EventType.STATUS, "UP"));
+		Assertions.assertEquals(events, eventRepository.count());
+		Assertions.assertTrue(eventResource.registerEvent(node, EventType.STATUS, "DOWN"));
+		Assertions.assertEquals(events + 1, eventRepository.count());
+
+		// Same for the subscriptions
+		final Subscription subscription = em.createQuery("FROM Subscription", Subscription.class).getResultList().get(0);
+		Assertions.assertTrue(eventResource.registerEvent(subscription, EventType.STATUS, "DOWN"));
+		final Event subscriptionEvent = new Event();
+		subscriptionEvent.setSubscription(subscription);
+		subscriptionEvent.setType(EventType.STATUS);
+		subscriptionEvent.setValue("UP");
+		subscriptionEvent.setDate(new Date());
+		em.persist(subscriptionEvent);
+		lastRepository.findAllBySubscriptions(Collections.singleton(subscription.getId()), EventType.STATUS).get(0).setEvent(subscriptionEvent);
+		em.flush();
+		Assertions.assertFalse(eventResource.registerEvent(subscription, EventType.STATUS, "UP"));
+		Assertions.assertTrue(eventResource.registerEvent(subscription, EventType.STATUS, "DOWN"));
+	}
+}
@@ -0,0 +1,188 @@
+package org.ligoj.app.resource.node;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.transaction.Transactional;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractAppTest;
+import org.ligoj.app.api.NodeStatus;
+import org.ligoj.app.api.NodeVo;
+import org.ligoj.app.model.DelegateNode;
+import org.ligoj.app.model.Event;
+import org.ligoj.app.model.EventType;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Parameter;
+import org.ligoj.app.model.ParameterValue;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.mockito.Answers;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Test class of {@link EventHub}
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+public class EventHubTest extends AbstractAppTest {
+
+	@Autowired
+	private EventHub hub;
+
+	@Autowired
+	private EventResource eventResource;
+
+	@Autowired
+	private NodeResource nodeResource;
+
+	@BeforeEach
+	public void prepare() throws IOException {
+		persistEntities("csv", new Class[] { Node.class, Parameter.class, Project.class, Subscription.class,
+				ParameterValue.class, Event.class, DelegateNode.class }, StandardCharsets.UTF_8.name());
+		persistSystemEntities();
+		eventResource.refreshLastEvents();
+	}
+
+	@AfterEach
+	public void closeStreams() {
+		hub.closeAll();
+	}
+
+	/**
+	 * Return a mocked SSE context.
+	 */
+	private Sse newSse() {
+		final Sse sse = Mockito.mock(Sse.class);
+		final OutboundSseEvent.Builder builder = Mockito.mock(OutboundSseEvent.Builder.class, Answers.RETURNS_SELF);
+		Mockito.when(builder.build()).thenReturn(Mockito.mock(OutboundSseEvent.class));
+		Mockito.when(sse.newEventBuilder()).thenReturn(builder);
+		return sse;
+	}
+
+	/**
+	 * Return a mocked sink accepting all events.
+	 */
+	private SseEventSink newSink() {
+		final SseEventSink sink = Mockito.mock(SseEventSink.class);
+		Mockito.when(sink.send(ArgumentMatchers.any())).thenReturn(CompletableFuture.completedFuture(null));
+		return sink;
+	}
+
+	private List<EventVo> newEvents(final String node) {
+		final EventVo event = new EventVo();
+		event.setNode(new NodeVo());
+		event.getNode().setId(node);
+		event.setType(EventType.STATUS);
+		event.setValue(NodeStatus.UP.name());
+		return Collections.singletonList(event);
+	}
+
+	/**
+	 * Simulate the commit of the current transaction.
+	 */
+	private void commit(final int synchronizations) {
+		final List<TransactionSynchronization> all = TransactionSynchronizationManager.getSynchronizations();
+		all.subList(synchronizations, all.size()).forEach(TransactionSynchronization::afterCommit);
+	}
+
+	@Test
+	public void publishVisibility() {
+		final DelegateNode delegate = new DelegateNode();
+		delegate.setNode("service:bt:jira");
+		delegate.setReceiver("junit-stream");
+		em.persist(delegate);
+		em.flush();
+
+		final SseEventSink admin = newSink();
+		final SseEventSink user = newSink();
+		hub.register(DEFAULT_USER, admin, newSse());
+		hub.register("junit-stream", user, newSse());
+		Assertions.assertTrue(hub.isActive());
+		Assertions.assertEquals(2, hub.getStatistics().get("streams").intValue());
+
+		final int synchronizations = TransactionSynchronizationManager.getSynchronizations().size();
+		hub.publish(newEvents("service:bt:jira:6"));
+		hub.publish(newEvents("service:build:jenkins:bpr"));
+		commit(synchronizations);
+		Mockito.verify(admin, Mockito.timeout(5000).times(2)).send(ArgumentMatchers.any());
+		Mockito.verify(user, Mockito.timeout(5000).times(1)).send(ArgumentMatchers.any());
+	}
+
+	@Test
+	public void publishClosed() {
+		final SseEventSink sink = newSink();
+		Mockito.when(sink.isClosed()).thenReturn(true);
+		hub.register(DEFAULT_USER, sink, newSse());
+		hub.publish(newEvents("service:bt:jira:6"));
+		commit(0);
+		Mockito.verify(sink, Mockito.timeout(5000)).close();
+		Mockito.verify(sink, Mockito.never()).send(ArgumentMatchers.any());
+		Assertions.assertFalse(hub.isActive());
+	}
+
+	@Test
+	public void publishFailed() {
+		final SseEventSink sink = newSink();
+		final CompletableFuture<?> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new IOException("broken pipe"));
+		Mockito.doReturn(failed).when(sink).send(ArgumentMatchers.any());
+		hub.register(DEFAULT_USER, sink, newSse());
+		hub.publish(newEvents("service:bt:jira:6"));
+		commit(0);
+		Mockito.verify(sink, Mockito.timeout(5000)).close();
+		Assertions.assertFalse(hub.isActive());
+	}
+
+	@Test
+	public void publishNoStream() {
+		Assertions.assertFalse(hub.isActive());
+		final int synchronizations = TransactionSynchronizationManager.getSynchronizations().size();
+		hub.publish(newEvents("service:bt:jira:6"));
+		Assertions.assertEquals(synchronizations, TransactionSynchronizationManager.getSynchronizations().size());
+	}
+
+	@Test
+	public void publishNotVisible() {
+		final SseEventSink sink = newSink();
+		hub.register("any", sink, newSse());
+		final int synchronizations = TransactionSynchronizationManager.getSynchronizations().size();
+		hub.publish(newEvents("service:bt:jira:6"));
+		Assertions.assertEquals(synchronizations, TransactionSynchronizationManager.getSynchronizations().size());
+	}
+
+	@Test
+	public void streamStatus() {
+		final SseEventSink sink = newSink();
+		nodeResource.streamStatus(sink, newSse());
+
+		// Nothing is sent before the commit
+		final int synchronizations = TransactionSynchronizationManager.getSynchronizations().size();
+		final Node node = em.find(Node.class, "service:bt:jira:6");
+		Assertions.assertTrue(eventResource.registerEvent(node, EventType.STATUS, NodeStatus.UP.name()));
+		Assertions.assertTrue(TransactionSynchronizationManager.getSynchronizations().size() > synchronizations);
+		Mockito.verify(sink, Mockito.never()).send(ArgumentMatchers.any());
+
+		commit(synchronizations);
+		Mockito.verify(sink, Mockito.timeout(5000)).send(ArgumentMatchers.any());
+	}
+}
@@ -0,0 +1,101 @@
+package org.ligoj.app.resource.node;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.model.EventType;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Test class of {@link EventIndex}
+ */
+public class EventIndexTest {
+
+	private final EventIndex index = new EventIndex();
+
+	@AfterEach
+	public void clearSynchronization() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		TransactionSynchronizationManager.unbindResourceIfPossible(index);
+	}
+
+	/**
+	 * Start a simulated transaction.
+	 */
+	private void begin() {
+		TransactionSynchronizationManager.initSynchronization();
+	}
+
+	/**
+	 * Complete the simulated transaction.
+	 */
+	private void complete(final int status) {
+		TransactionSynchronizationManager.getSynchronizations().forEach(s -> s.afterCompletion(status));
+		TransactionSynchronizationManager.clearSynchronization();
+	}
+
+	@Test
+	public void getNoTransaction() {
+		Assertions.assertFalse(index.isLoaded(EventType.STATUS));
+		index.load(EventType.STATUS, Collections.singletonMap(EventIndex.toKey("service:a:b:c"), "UP"));
+		Assertions.assertTrue(index.isLoaded(EventType.STATUS));
+		Assertions.assertEquals("UP", index.get(EventType.STATUS, EventIndex.toKey("service:a:b:c")));
+		Assertions.assertNull(index.get(EventType.STATUS, EventIndex.toKey(1)));
+
+		index.put(EventType.STATUS, EventIndex.toKey(1), "DOWN");
+		Assertions.assertEquals("DOWN", index.get(EventType.STATUS, EventIndex.toKey(1)));
+
+		index.invalidate();
+		Assertions.assertFalse(index.isLoaded(EventType.STATUS));
+	}
+
+	@Test
+	public void commit() {
+		begin();
+		index.load(EventType.STATUS, Collections.singletonMap(EventIndex.toKey(1), "UP"));
+		index.put(EventType.STATUS, EventIndex.toKey(2), "DOWN");
+		Assertions.assertTrue(index.isLoaded(EventType.STATUS));
+		Assertions.assertEquals("DOWN", index.get(EventType.STATUS, EventIndex.toKey(2)));
+		complete(TransactionSynchronization.STATUS_COMMITTED);
+
+		// Visible outside the transaction
+		Assertions.assertEquals("UP", index.get(EventType.STATUS, EventIndex.toKey(1)));
+		Assertions.assertEquals("DOWN", index.get(EventType.STATUS, EventIndex.toKey(2)));
+	}
+
+	@Test
+	public void rollback() {
+		index.load(EventType.STATUS, Collections.singletonMap(EventIndex.toKey(1), "UP"));
+		begin();
+		index.put(EventType.STATUS, EventIndex.toKey(1), "DOWN");
+		Assertions.assertEquals("DOWN", index.get(EventType.STATUS, EventIndex.toKey(1)));
+		complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+		// The committed value is kept
+		Assertions.assertEquals("UP", index.get(EventType.STATUS, EventIndex.toKey(1)));
+	}
+
+	@Test
+	public void rollbackLoad() {
+		begin();
+		index.load(EventType.STATUS, Collections.singletonMap(EventIndex.toKey(1), "UP"));
+		complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+		Assertions.assertFalse(index.isLoaded(EventType.STATUS));
+	}
+
+	@Test
+	public void invalidateTransaction() {
+		begin();
+		index.load(EventType.STATUS, Collections.singletonMap(EventIndex.toKey(1), "UP"));
+		index.put(EventType.STATUS, EventIndex.toKey(1), "DOWN");
+		index.invalidate();
+		Assertions.assertFalse(index.isLoaded(EventType.STATUS));
+		complete(TransactionSynchronization.STATUS_COMMITTED);
+		Assertions.assertFalse(index.isLoaded(EventType.STATUS));
+	}
+}
@@ -2,7 +2,10 @@ package org.ligoj.app.resource.node;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.transaction.Transactional;
 
@@ -14,9 +17,12 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.ligoj.app.AbstractAppTest;
 import org.ligoj.app.api.NodeStatus;
 import org.ligoj.app.dao.EventRepository;
+import org.ligoj.app.dao.LastEventRepository;
 import org.ligoj.app.dao.ProjectRepository;
+import org.ligoj.app.model.ClusterLease;
 import org.ligoj.app.model.Event;
 import org.ligoj.app.model.EventType;
+import org.ligoj.app.model.LastEvent;
 import org.ligoj.app.model.Node;
 import org.ligoj.app.model.Parameter;
 import org.ligoj.app.model.ParameterValue;
@@ -45,6 +51,12 @@ public class EventResourceTest extends AbstractAppTest {
 	@Autowired
 	private ProjectRepository projectRepository;
 
+	@Autowired
+	private LastEventRepository lastRepository;
+
+	@Autowired
+	private ClusterCoordinator cluster;
+
 	@BeforeEach
 	public void prepare() throws IOException {
 		persistEntities("csv",
@@ -88,4 +100,173 @@ public class EventResourceTest extends AbstractAppTest {
 		Assertions.assertEquals(count, repository.count());
 		Assertions.assertEquals(lastEvent, repository.findFirstBySubscriptionAndTypeOrderByIdDesc(subscription, EventType.STATUS));
 	}
+
+	@Test
+	public void registerSubscriptionEvents() {
+		final Subscription subscription1 = new Subscription();
+		subscription1.setProject(projectRepository.findByName("MDA"));
+		subscription1.setNode(em.find(Node.class, "service:build:jenkins:bpr"));
+		em.persist(subscription1);
+		final Subscription subscription2 = new Subscription();
+		subscription2.setProject(projectRepository.findByName("MDA"));
+		subscription2.setNode(em.find(Node.class, "service:build:jenkins:bpr"));
+		em.persist(subscription2);
+		Assertions.assertTrue(resource.registerEvent(subscription1, EventType.STATUS, NodeStatus.UP.name()));
+		long count = repository.count();
+
+		// Only the new values are saved
+		final Map<Subscription, String> values = new HashMap<>();
+		values.put(subscription1, NodeStatus.UP.name());
+		values.put(subscription2, NodeStatus.UP.name());
+		Assertions.assertEquals(1, resource.registerEvents(values, EventType.STATUS));
+		Assertions.assertEquals(++count, repository.count());
+		Assertions.assertEquals(NodeStatus.UP.name(),
+				repository.findFirstBySubscriptionAndTypeOrderByIdDesc(subscription2, EventType.STATUS).getValue());
+
+		values.put(subscription1, NodeStatus.DOWN.name());
+		Assertions.assertEquals(1, resource.registerEvents(values, EventType.STATUS));
+		Assertions.assertEquals(++count, repository.count());
+		Assertions.assertEquals(0, resource.registerEvents(values, EventType.STATUS));
+		Assertions.assertEquals(0, resource.registerEvents(Collections.emptyMap(), EventType.STATUS));
+		Assertions.assertEquals(count, repository.count());
+	}
+
+	@Test
+	public void deleteBySubscription() {
+		final Subscription subscription = new Subscription();
+		subscription.setProject(projectRepository.findByName("MDA"));
+		subscription.setNode(em.find(Node.class, "service:build:jenkins:bpr"));
+		em.persist(subscription);
+		Assertions.assertTrue(resource.registerEvent(subscription, EventType.STATUS, NodeStatus.UP.name()));
+		Assertions.assertFalse(resource.registerEvent(subscription, EventType.STATUS, NodeStatus.UP.name()));
+
+		// The index is reloaded without the deleted events
+		resource.deleteBySubscription(subscription);
+		Assertions.assertNull(repository.findFirstBySubscriptionAndTypeOrderByIdDesc(subscription, EventType.STATUS));
+		Assertions.assertTrue(resource.registerEvent(subscription, EventType.STATUS, NodeStatus.UP.name()));
+	}
+
+	@Test
+	public void deleteByNode() {
+		final Node node = em.find(Node.class, "service:build:jenkins:bpr");
+		resource.registerEvent(node, EventType.STATUS, NodeStatus.UP.name());
+		Assertions.assertFalse(resource.registerEvent(node, EventType.STATUS, NodeStatus.UP.name()));
+
+		resource.deleteByNode(node.getId());
+		Assertions.assertNull(repository.findFirstByNodeAndTypeOrderByIdDesc(node, EventType.STATUS));
+		Assertions.assertTrue(resource.registerEvent(node, EventType.STATUS, NodeStatus.UP.name()));
+	}
+
+	@Test
+	public void registerEventLastEvent() {
+		final Node node = em.find(Node.class, "service:build:jenkins:bpr");
+		Assertions.assertTrue(resource.registerEvent(node, EventType.STATUS, NodeStatus.DOWN.name()));
+		LastEvent last = lastRepository.findByNode(node.getId(), EventType.STATUS);
+		Assertions.assertEquals(NodeStatus.DOWN.name(), last.getEvent().getValue());
+		Assertions.assertTrue(resource.registerEvent(node, EventType.STATUS, NodeStatus.UP.name()));
+		Assertions.assertEquals(NodeStatus.UP.name(), lastRepository.findByNode(node.getId(), EventType.STATUS).getEvent().getValue());
+
+		final Subscription subscription = new Subscription();
+		subscription.setProject(projectRepository.findByName("MDA"));
+		subscription.setNode(node);
+		em.persist(subscription);
+		Assertions.assertTrue(resource.registerEvent(subscription, EventType.STATUS, NodeStatus.UP.name()));
+		Assertions.assertTrue(resource.registerEvent(subscription, EventType.STATUS, NodeStatus.DOWN.name()));
+		Assertions.assertEquals(NodeStatus.DOWN.name(), lastRepository
+				.findAllBySubscriptions(Collections.singleton(subscription.getId()), EventType.STATUS).get(0).getEvent().getValue());
+	}
+
+	@Test
+	public void refreshLastEvents() {
+		// One last event per node or subscription of the CSV file
+		Assertions.assertEquals(5, resource.refreshLastEvents());
+		Assertions.assertEquals(5, lastRepository.count());
+		Assertions.assertEquals(NodeStatus.DOWN.name(),
+				lastRepository.findByNode("service:bt:jira:6", EventType.STATUS).getEvent().getValue());
+
+		// Already initialized
+		em.flush();
+		resource.initializeLastEvents();
+		Assertions.assertEquals(5, lastRepository.count());
+	}
+
+	@Test
+	public void initializeLastEvents() {
+		resource.initializeLastEvents();
+		Assertions.assertEquals(5, lastRepository.count());
+	}
+
+	@Test
+	public void registerEventConcurrent() {
+		resource.refreshLastEvents();
+		final Node node = em.find(Node.class, "service:bt:jira:6");
+		Assertions.assertFalse(resource.registerEvent(node, EventType.STATUS, NodeStatus.DOWN.name()));
+
+		// A concurrent check has already committed the recovery of the node
+		final Event event = new Event();
+		event.setNode(node);
+		event.setType(EventType.STATUS);
+		event.setValue(NodeStatus.UP.name());
+		event.setDate(new Date());
+		em.persist(event);
+		lastRepository.findByNode(node.getId(), EventType.STATUS).setEvent(event);
+		em.flush();
+
+		// The committed last value is checked again, no duplicate event
+		final long count = repository.count();
+		Assertions.assertFalse(resource.registerEvent(node, EventType.STATUS, NodeStatus.UP.name()));
+		Assertions.assertEquals(count, repository.count());
+		Assertions.assertTrue(resource.registerEvent(node, EventType.STATUS, NodeStatus.DOWN.name()));
+		Assertions.assertEquals(count + 1, repository.count());
+	}
+
+	@Test
+	public void registerEventsConcurrent() {
+		final Subscription subscription = new Subscription();
+		subscription.setProject(projectRepository.findByName("MDA"));
+		subscription.setNode(em.find(Node.class, "service:bt:jira:6"));
+		em.persist(subscription);
+		resource.refreshLastEvents();
+		Assertions.assertTrue(resource.registerEvent(subscription, EventType.STATUS, NodeStatus.UP.name()));
+
+		// A concurrent check has already committed a new last event
+		final Event event = new Event();
+		event.setSubscription(subscription);
+		event.setType(EventType.STATUS);
+		event.setValue(NodeStatus.DOWN.name());
+		event.setDate(new Date());
+		em.persist(event);
+		lastRepository.findAllBySubscriptions(Collections.singleton(subscription.getId()), EventType.STATUS).get(0)
+				.setEvent(event);
+		em.flush();
+
+		// The existing last event is updated, never duplicated
+		final long count = repository.count();
+		Assertions.assertEquals(0, resource.registerEvents(Collections.singletonMap(subscription, NodeStatus.DOWN.name()),
+				EventType.STATUS));
+		Assertions.assertEquals(count, repository.count());
+		Assertions.assertEquals(1, resource.registerEvents(Collections.singletonMap(subscription, NodeStatus.UP.name()),
+				EventType.STATUS));
+		em.flush();
+		Assertions.assertEquals(1, lastRepository.findAllBySubscriptions(Collections.singleton(subscription.getId()),
+				EventType.STATUS).size());
+	}
+
+	@Test
+	public void initializeLastEventsNotLeader() {
+		final ClusterLease lease = new ClusterLease();
+		lease.setInstance("junit-a");
+		lease.setExpires(new Date(System.currentTimeMillis() + 60000));
+		em.persist(lease);
+		System.setProperty(ClusterCoordinator.ENABLED, "true");
+		System.setProperty(ClusterCoordinator.INSTANCE, "junit-b");
+		try {
+			resource.initializeLastEvents();
+			Assertions.assertEquals(0, lastRepository.count());
+		} finally {
+			System.clearProperty(ClusterCoordinator.ENABLED);
+			System.clearProperty(ClusterCoordinator.INSTANCE);
+			cluster.heartbeat();
+		}
+	}
 }
@@ -0,0 +1,211 @@
+package org.ligoj.app.resource.node;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import javax.transaction.Transactional;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractAppTest;
+import org.ligoj.app.dao.ArchivedEventRepository;
+import org.ligoj.app.dao.EventRepository;
+import org.ligoj.app.dao.EventRollupRepository;
+import org.ligoj.app.model.ArchivedEvent;
+import org.ligoj.app.model.ClusterLease;
+import org.ligoj.app.model.Event;
+import org.ligoj.app.model.EventRollup;
+import org.ligoj.app.model.EventType;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Parameter;
+import org.ligoj.app.model.ParameterValue;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * Test class of {@link EventRetention}
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+public class EventRetentionTest extends AbstractAppTest {
+
+	private static final long HOUR = DateUtils.MILLIS_PER_HOUR;
+
+	@Autowired
+	private EventRetention retention;
+
+	@Autowired
+	private EventResource eventResource;
+
+	@Autowired
+	private EventRepository repository;
+
+	@Autowired
+	private EventRollupRepository rollupRepository;
+
+	@Autowired
+	private ArchivedEventRepository archiveRepository;
+
+	@Autowired
+	private ClusterCoordinator cluster;
+
+	private Node node;
+
+	private Date day;
+
+	@BeforeEach
+	public void prepare() throws IOException {
+		persistEntities("csv",
+				new Class[] { Node.class, Parameter.class, Project.class, Subscription.class, ParameterValue.class, Event.class },
+				StandardCharsets.UTF_8.name());
+		node = new Node();
+		node.setId("junit-retention");
+		node.setName("junit-retention");
+		em.persist(node);
+
+		// UP 12h, DOWN 1h, UP 5h over two days, then DOWN
+		day = DateUtils.truncate(DateUtils.addDays(new Date(), -100), Calendar.DATE);
+		newEvent("UP", 10);
+		newEvent("DOWN", 22);
+		newEvent("UP", 23);
+		newEvent("DOWN", 28);
+		em.flush();
+		eventResource.refreshLastEvents();
+		em.flush();
+		em.clear();
+	}
+
+	@AfterEach
+	public void clearProperties() {
+		System.clearProperty(EventRetention.RETENTION);
+		System.clearProperty(EventRetention.BATCH);
+		System.clearProperty(ClusterCoordinator.ENABLED);
+		System.clearProperty(ClusterCoordinator.INSTANCE);
+		cluster.heartbeat();
+	}
+
+	private void newEvent(final String value, final int hour) {
+		final Event event = new Event();
+		event.setNode(node);
+		event.setType(EventType.STATUS);
+		event.setValue(value);
+		event.setDate(new Date(day.getTime() + hour * HOUR));
+		em.persist(event);
+	}
+
+	@Test
+	public void compact() {
+		final long events = repository.count();
+		final long runs = retention.getStatistics().get("runs");
+		final long archived = retention.getStatistics().get("archived");
+		System.setProperty(EventRetention.BATCH, "1");
+
+		// The 3 first events of the node, the CSV events are all last events
+		Assertions.assertEquals(3, retention.compact(new Date()));
+		Assertions.assertEquals(events - 3, repository.count());
+		Assertions.assertEquals(3, archiveRepository.count());
+
+		// The last event is kept
+		final List<Event> remaining = repository.findAll();
+		Assertions.assertTrue(remaining.stream().anyMatch(e -> e.getNode() != null && e.getNode().getId().equals(node.getId())
+				&& "DOWN".equals(e.getValue())));
+
+		final List<EventRollup> rollups = rollupRepository.findAllByNode(node.getId());
+		Assertions.assertEquals(3, rollups.size());
+		assertRollup(rollups.get(0), day, "DOWN", HOUR, 1);
+		assertRollup(rollups.get(1), day, "UP", 13 * HOUR, 2);
+		assertRollup(rollups.get(2), DateUtils.addDays(day, 1), "UP", 4 * HOUR, 0);
+
+		// Nothing more to compact
+		Assertions.assertEquals(0, retention.compact(new Date()));
+		Assertions.assertEquals(runs + 2, retention.getStatistics().get("runs").longValue());
+		Assertions.assertEquals(archived + 3, retention.getStatistics().get("archived").longValue());
+	}
+
+	@Test
+	public void compactIncremental() {
+		// Only the first event is before the horizon
+		Assertions.assertEquals(1, retention.compact(new Date(day.getTime() + 21 * HOUR)));
+		List<EventRollup> rollups = rollupRepository.findAllByNode(node.getId());
+		Assertions.assertEquals(1, rollups.size());
+		assertRollup(rollups.get(0), day, "UP", 12 * HOUR, 1);
+
+		// The existing rollup is completed
+		Assertions.assertEquals(2, retention.compact(new Date()));
+		em.flush();
+		em.clear();
+		rollups = rollupRepository.findAllByNode(node.getId());
+		Assertions.assertEquals(3, rollups.size());
+		assertRollup(rollups.get(1), day, "UP", 13 * HOUR, 2);
+	}
+
+	@Test
+	public void compactScheduler() {
+		// Events of 100 days are older than the default retention
+		retention.compactScheduler();
+		Assertions.assertEquals(3, archiveRepository.count());
+		final ArchivedEvent archive = archiveRepository.findAll().stream()
+				.filter(e -> e.getNode() != null && e.getNode().getId().equals(node.getId())).findFirst().get();
+		Assertions.assertEquals(EventType.STATUS, archive.getType());
+	}
+
+	@Test
+	public void compactSchedulerDisabled() {
+		System.setProperty(EventRetention.RETENTION, "0");
+		retention.compactScheduler();
+		Assertions.assertEquals(0, archiveRepository.count());
+	}
+
+	@Test
+	public void compactSchedulerNotLeader() {
+		final ClusterLease lease = new ClusterLease();
+		lease.setInstance("junit-a");
+		lease.setExpires(new Date(System.currentTimeMillis() + 60000));
+		em.persist(lease);
+		System.setProperty(ClusterCoordinator.ENABLED, "true");
+		System.setProperty(ClusterCoordinator.INSTANCE, "junit-b");
+		cluster.heartbeat();
+		retention.compactScheduler();
+		Assertions.assertEquals(0, archiveRepository.count());
+	}
+
+	@Test
+	public void compactSchedulerHorizon() {
+		System.setProperty(EventRetention.RETENTION, "200");
+		retention.compactScheduler();
+
+		// No event is old enough
+		Assertions.assertEquals(0, archiveRepository.count());
+		Assertions.assertTrue(rollupRepository.findAllByNode(node.getId()).isEmpty());
+	}
+
+	@Test
+	public void deleteByNode() {
+		retention.compact(new Date());
+		eventResource.deleteByNode(node.getId());
+		Assertions.assertTrue(rollupRepository.findAllByNode(node.getId()).isEmpty());
+		Assertions.assertEquals(0, archiveRepository.count());
+	}
+
+	private void assertRollup(final EventRollup rollup, final Date day, final String value, final long duration,
+			final int transitions) {
+		Assertions.assertEquals(day.getTime(), rollup.getDay().getTime());
+		Assertions.assertEquals(EventType.STATUS, rollup.getType());
+		Assertions.assertEquals(value, rollup.getValue());
+		Assertions.assertEquals(duration, rollup.getDuration());
+		Assertions.assertEquals(transitions, rollup.getTransitions());
+	}
+}
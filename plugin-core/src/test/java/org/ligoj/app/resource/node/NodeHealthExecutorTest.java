@@ -0,0 +1,303 @@
+package org.ligoj.app.resource.node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Test class of {@link NodeHealthExecutor}
+ */
+public class NodeHealthExecutorTest {
+
+	private NodeHealthExecutor executor;
+
+	@AfterEach
+	public void shutdown() {
+		System.clearProperty(NodeHealthExecutor.PARALLELISM);
+		System.clearProperty(NodeHealthExecutor.TOOL_PARALLELISM);
+		System.clearProperty(NodeHealthExecutor.TIMEOUT);
+		System.clearProperty(NodeHealthExecutor.TIMEOUT + ".service:a:tool");
+		System.clearProperty(NodeHealthExecutor.TOOL_INFLIGHT);
+		System.clearProperty(NodeHealthExecutor.CALL_THREADS);
+		System.clearProperty(NodeHealthExecutor.VIRTUAL);
+		System.clearProperty(NodeHealthExecutor.VIRTUAL_PARALLELISM);
+		executor.shutdown();
+	}
+
+	/**
+	 * Submit a blocking check recording the maximal concurrency.
+	 */
+	private CompletableFuture<String> submit(final String tool, final CountDownLatch release, final AtomicInteger running,
+			final AtomicInteger max) {
+		return executor.submit(tool, () -> {
+			max.accumulateAndGet(running.incrementAndGet(), Math::max);
+			try {
+				Assertions.assertTrue(release.await(5, TimeUnit.SECONDS));
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			running.decrementAndGet();
+			return tool;
+		});
+	}
+
+	@Test
+	public void submitSecurityContext() {
+		executor = new NodeHealthExecutor();
+		SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("junit", null));
+		try {
+			// The check and the plug-in call run as the submitting user, and outside of any transaction
+			Assertions.assertEquals("junit/junit/false", executor.submit("service:a:tool", () -> {
+				try {
+					return SecurityContextHolder.getContext().getAuthentication().getName() + "/"
+							+ executor.call("service:a:tool", () -> SecurityContextHolder.getContext().getAuthentication().getName())
+							+ "/" + TransactionSynchronizationManager.isActualTransactionActive();
+				} catch (final Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}).join());
+		} finally {
+			SecurityContextHolder.clearContext();
+		}
+
+		// The worker threads do not keep the context
+		Assertions.assertNull(executor.submit("service:a:tool", () -> SecurityContextHolder.getContext().getAuthentication()).join());
+	}
+
+	@Test
+	public void submitToolLimit() throws InterruptedException {
+		System.setProperty(NodeHealthExecutor.PARALLELISM, "3");
+		System.setProperty(NodeHealthExecutor.TOOL_PARALLELISM, "1");
+		executor = new NodeHealthExecutor();
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger runningA = new AtomicInteger();
+		final AtomicInteger maxA = new AtomicInteger();
+		final AtomicInteger runningB = new AtomicInteger();
+		final AtomicInteger maxB = new AtomicInteger();
+		final List<CompletableFuture<String>> futures = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			futures.add(submit("service:a:tool", release, runningA, maxA));
+		}
+		futures.add(submit("service:b:tool", release, runningB, maxB));
+
+		// The tool "b" is not blocked by the pending checks of tool "a"
+		for (int i = 0; i < 500 && runningB.get() == 0; i++) {
+			Thread.sleep(10);
+		}
+		Assertions.assertEquals(1, runningA.get());
+		Assertions.assertEquals(1, runningB.get());
+		Assertions.assertEquals(2, executor.getStatistics().get("queued").longValue());
+		release.countDown();
+		Assertions.assertEquals("service:a:tool", futures.get(2).join());
+		Assertions.assertEquals("service:b:tool", futures.get(3).join());
+		Assertions.assertEquals(1, maxA.get());
+		Assertions.assertEquals(1, maxB.get());
+	}
+
+	@Test
+	public void submitGlobalLimit() throws InterruptedException {
+		System.setProperty(NodeHealthExecutor.PARALLELISM, "2");
+		executor = new NodeHealthExecutor();
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger max = new AtomicInteger();
+		final List<CompletableFuture<String>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			futures.add(submit("service:" + i + ":tool", release, running, max));
+		}
+		for (int i = 0; i < 500 && running.get() < 2; i++) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(50);
+		Assertions.assertEquals(2, running.get());
+		release.countDown();
+		futures.forEach(CompletableFuture::join);
+		Assertions.assertEquals(2, max.get());
+	}
+
+	@Test
+	public void submitVirtualLimit() throws InterruptedException {
+		System.setProperty(NodeHealthExecutor.VIRTUAL, "true");
+		System.setProperty(NodeHealthExecutor.VIRTUAL_PARALLELISM, "2");
+		executor = new NodeHealthExecutor();
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger max = new AtomicInteger();
+		final List<CompletableFuture<String>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			futures.add(submit("service:" + i + ":tool", release, running, max));
+		}
+		for (int i = 0; i < 500 && (executor.getStatistics().get("queued") < 2 || running.get() < 2); i++) {
+			Thread.sleep(10);
+		}
+
+		// The semaphore is the global bound
+		final Map<String, Long> statistics = executor.getStatistics();
+		Assertions.assertEquals(2, running.get());
+		Assertions.assertEquals(2, statistics.get("active").intValue());
+		Assertions.assertEquals(2, statistics.get("queued").intValue());
+		Assertions.assertEquals(executor.isVirtual() ? 1 : 0, statistics.get("virtual").intValue());
+		release.countDown();
+		futures.forEach(CompletableFuture::join);
+		Assertions.assertEquals(2, max.get());
+		Assertions.assertEquals(0, executor.getStatistics().get("active").intValue());
+	}
+
+	@Test
+	public void submitVirtualUnsupported() throws Exception {
+		System.setProperty(NodeHealthExecutor.VIRTUAL, "true");
+		executor = new NodeHealthExecutor() {
+			@Override
+			protected ExecutorService newVirtualExecutor(final String prefix) {
+				return null;
+			}
+		};
+
+		// Fall back to platform threads
+		Assertions.assertFalse(executor.isVirtual());
+		Assertions.assertEquals(0, executor.getStatistics().get("virtual").intValue());
+		Assertions.assertEquals(0, executor.getStatistics().get("pinned").intValue());
+		Assertions.assertTrue(executor.submit("service:a:tool", () -> Thread.currentThread().getName()).join().startsWith("health-"));
+		Assertions.assertTrue(executor.call("service:a:tool", () -> Thread.currentThread().getName()).startsWith("health-call-"));
+	}
+
+	@Test
+	public void submitFailed() {
+		executor = new NodeHealthExecutor();
+		final CompletableFuture<String> future = executor.submit("service:a:tool", () -> {
+			throw new IllegalStateException();
+		});
+		Assertions.assertThrows(Exception.class, future::join);
+
+		// The slot has been released
+		Assertions.assertEquals("ok", executor.submit("service:a:tool", () -> "ok").join());
+	}
+
+	@Test
+	public void report() {
+		executor = new NodeHealthExecutor();
+		executor.report("Check status", 3, System.currentTimeMillis() - 10);
+		final Map<String, Long> statistics = executor.getStatistics();
+		Assertions.assertEquals(1, statistics.get("sweeps").longValue());
+		Assertions.assertEquals(3, statistics.get("last-nodes").longValue());
+		Assertions.assertTrue(statistics.get("last-duration") >= 10);
+		Assertions.assertEquals(0, statistics.get("active").longValue());
+	}
+
+	@Test
+	public void call() throws Exception {
+		executor = new NodeHealthExecutor();
+		Assertions.assertEquals("done", executor.call("service:a:tool", () -> "done"));
+		Assertions.assertEquals(0, executor.getInflight().get("service:a:tool").intValue());
+		Assertions.assertEquals(60000, executor.getTimeout("service:a:tool"));
+	}
+
+	@Test
+	public void callFailed() {
+		executor = new NodeHealthExecutor();
+		Assertions.assertEquals("junit", Assertions.assertThrows(IllegalStateException.class, () -> executor.call("service:a:tool", () -> {
+			throw new IllegalStateException("junit");
+		})).getMessage());
+		Assertions.assertEquals(0, executor.getInflight().get("service:a:tool").intValue());
+	}
+
+	@Test
+	public void callTimeout() throws InterruptedException {
+		System.setProperty(NodeHealthExecutor.TIMEOUT, "60000");
+		System.setProperty(NodeHealthExecutor.TIMEOUT + ".service:a:tool", "50");
+		executor = new NodeHealthExecutor();
+		Assertions.assertEquals(50, executor.getTimeout("service:a:tool"));
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Assertions.assertThrows(TimeoutException.class, () -> executor.call("service:a:tool", () -> {
+			started.countDown();
+			// Ignore the interruption, such as a blocked socket
+			while (release.getCount() > 0) {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (final InterruptedException e) {
+					// Still blocked
+				}
+			}
+			return "done";
+		}));
+		Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+		Assertions.assertEquals(1, executor.getStatistics().get("timeouts").intValue());
+
+		// The hanging call is still counted
+		Assertions.assertEquals(1, executor.getInflight().get("service:a:tool").intValue());
+		Assertions.assertEquals(1, executor.getStatistics().get("inflight").intValue());
+		release.countDown();
+	}
+
+	/**
+	 * Start a call ignoring the interruption, and timed out.
+	 */
+	private void hang(final String tool, final CountDownLatch release) {
+		Assertions.assertThrows(TimeoutException.class, () -> executor.call(tool, () -> {
+			while (release.getCount() > 0) {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (final InterruptedException e) {
+					// Still blocked
+				}
+			}
+			return "done";
+		}));
+	}
+
+	@Test
+	public void callRejectedTool() throws Exception {
+		System.setProperty(NodeHealthExecutor.TIMEOUT, "50");
+		System.setProperty(NodeHealthExecutor.TOOL_INFLIGHT, "1");
+		executor = new NodeHealthExecutor();
+		final CountDownLatch release = new CountDownLatch(1);
+		hang("service:a:tool", release);
+
+		// The tool has too many running calls, the other tools are not impacted
+		Assertions.assertThrows(TimeoutException.class, () -> executor.call("service:a:tool", () -> "ok"));
+		Assertions.assertEquals(1, executor.getStatistics().get("rejected").intValue());
+		Assertions.assertEquals("ok", executor.call("service:b:tool", () -> "ok"));
+		release.countDown();
+		for (int i = 0; i < 500 && executor.getInflight().get("service:a:tool") > 0; i++) {
+			Thread.sleep(10);
+		}
+		Assertions.assertEquals("ok", executor.call("service:a:tool", () -> "ok"));
+	}
+
+	@Test
+	public void callRejectedThreads() {
+		System.setProperty(NodeHealthExecutor.TIMEOUT, "50");
+		System.setProperty(NodeHealthExecutor.CALL_THREADS, "1");
+		executor = new NodeHealthExecutor();
+		final CountDownLatch release = new CountDownLatch(1);
+		hang("service:a:tool", release);
+
+		// No more thread to run the call
+		Assertions.assertThrows(TimeoutException.class, () -> executor.call("service:b:tool", () -> "ok"));
+		Assertions.assertEquals(1, executor.getStatistics().get("rejected").intValue());
+		Assertions.assertEquals(0, executor.getInflight().get("service:b:tool").intValue());
+		release.countDown();
+	}
+
+	@Test
+	public void callNoLimit() throws Exception {
+		System.setProperty(NodeHealthExecutor.TIMEOUT, "0");
+		executor = new NodeHealthExecutor();
+		final Thread caller = Thread.currentThread();
+		Assertions.assertSame(caller, executor.call("service:a:tool", Thread::currentThread));
+	}
+}
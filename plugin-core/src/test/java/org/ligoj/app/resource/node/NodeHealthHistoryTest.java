@@ -0,0 +1,180 @@
+package org.ligoj.app.resource.node;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import javax.transaction.Transactional;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractAppTest;
+import org.ligoj.app.api.NodeStatus;
+import org.ligoj.app.dao.HealthRollupRepository;
+import org.ligoj.app.dao.NodeRepository;
+import org.ligoj.app.model.HealthRollup;
+import org.ligoj.app.model.Node;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Test class of {@link NodeHealthHistory}
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+public class NodeHealthHistoryTest extends AbstractAppTest {
+
+	private static final String TOOL = "service:bt:jira";
+
+	private static final String NODE = "service:bt:jira:6";
+
+	@Autowired
+	private NodeHealthHistory history;
+
+	@Autowired
+	private HealthRollupRepository repository;
+
+	@Autowired
+	private NodeRepository nodeRepository;
+
+	@BeforeEach
+	public void prepare() throws IOException {
+		persistEntities("csv", new Class[] { Node.class }, StandardCharsets.UTF_8.name());
+		history.forgetNode("service");
+		history.flush();
+	}
+
+	@AfterEach
+	public void clearProperties() {
+		System.clearProperty(NodeHealthHistory.SIZE);
+		history.forgetNode("service");
+	}
+
+	@Test
+	public void getLatency() {
+		for (int i = 1; i <= 100; i++) {
+			history.record(TOOL, NODE, EventIndex.toKey(NODE), i, NodeStatus.UP, null);
+		}
+		history.record(TOOL, NODE, EventIndex.toKey(1), 500, NodeStatus.TIMEOUT, new TimeoutException());
+		history.record("service:build:jenkins", "service:build:jenkins:bpr", EventIndex.toKey("service:build:jenkins:bpr"), 5,
+				NodeStatus.DOWN, new IllegalStateException());
+
+		final Map<String, Map<String, Long>> latency = history.getLatency();
+		Assertions.assertEquals(2, latency.size());
+		final Map<String, Long> jira = latency.get(TOOL);
+		Assertions.assertEquals(101, jira.get("checks").intValue());
+		Assertions.assertEquals(1, jira.get("failures").intValue());
+		Assertions.assertEquals(1, jira.get("timeouts").intValue());
+		Assertions.assertEquals(51, jira.get("p50").intValue());
+		Assertions.assertEquals(91, jira.get("p90").intValue());
+		Assertions.assertEquals(100, jira.get("p99").intValue());
+		Assertions.assertEquals(500, jira.get("max").intValue());
+		Assertions.assertEquals(1, latency.get("service:build:jenkins").get("failures").intValue());
+	}
+
+	@Test
+	public void recordRing() {
+		System.setProperty(NodeHealthHistory.SIZE, "10");
+		for (int i = 1; i <= 25; i++) {
+			history.record(TOOL, NODE, EventIndex.toKey(NODE), i, NodeStatus.UP, null);
+		}
+
+		// Only the last checks are kept
+		final Map<String, Long> jira = history.getLatency().get(TOOL);
+		Assertions.assertEquals(10, jira.get("checks").intValue());
+		Assertions.assertEquals(25, jira.get("max").intValue());
+		Assertions.assertEquals(20, jira.get("p50").intValue());
+	}
+
+	@Test
+	public void flush() {
+		final int synchronizations = TransactionSynchronizationManager.getSynchronizations().size();
+		history.record(TOOL, NODE, EventIndex.toKey(NODE), 10, NodeStatus.UP, null);
+		history.record(TOOL, NODE, EventIndex.toKey(NODE), 30, NodeStatus.DOWN, new IllegalStateException());
+		history.record(TOOL, NODE, EventIndex.toKey(1), 20, NodeStatus.UP, null);
+		history.record(TOOL, NODE, NodeHealthHistory.toBulkKey(NODE), 40, NodeStatus.TIMEOUT, new TimeoutException());
+
+		Assertions.assertEquals(2, history.flush());
+		final List<HealthRollup> rollups = repository.findAllByNode(NODE);
+		Assertions.assertEquals(2, rollups.size());
+		final HealthRollup node = rollups.get(0);
+		Assertions.assertFalse(node.isSubscriptions());
+		Assertions.assertEquals(2, node.getChecks());
+		Assertions.assertEquals(1, node.getFailures());
+		Assertions.assertEquals(0, node.getTimeouts());
+		Assertions.assertEquals(10, node.getP50());
+		Assertions.assertEquals(30, node.getP95());
+		Assertions.assertEquals(30, node.getMax());
+		Assertions.assertEquals(IllegalStateException.class.getName(), node.getError());
+		final HealthRollup subscriptions = rollups.get(1);
+		Assertions.assertTrue(subscriptions.isSubscriptions());
+		Assertions.assertEquals(2, subscriptions.getChecks());
+		Assertions.assertEquals(1, subscriptions.getTimeouts());
+		Assertions.assertEquals(40, subscriptions.getMax());
+
+		// Not yet committed, the checks are flushed again
+
+		// Only the new checks are flushed once committed, the memory is kept
+		Assertions.assertEquals(2, history.flush());
+		commit(synchronizations);
+		Assertions.assertEquals(0, history.flush());
+		history.record(TOOL, NODE, EventIndex.toKey(NODE), 5, NodeStatus.UP, null);
+		Assertions.assertEquals(1, history.flush());
+		Assertions.assertEquals(5, repository.findAllByNode(NODE).size());
+		Assertions.assertEquals(5, history.getLatency().get(TOOL).get("checks").intValue());
+	}
+
+	@Test
+	public void flushDeletedNode() {
+		final int synchronizations = TransactionSynchronizationManager.getSynchronizations().size();
+		history.record(TOOL, "service:bt:jira:any", EventIndex.toKey("service:bt:jira:any"), 10, NodeStatus.UP, null);
+		history.record(TOOL, NODE, EventIndex.toKey(NODE), 10, NodeStatus.UP, null);
+
+		// The checks of a node deleted by another instance are forgotten
+		Assertions.assertEquals(1, history.flush());
+		commit(synchronizations);
+		Assertions.assertEquals(1, history.getLatency().get(TOOL).get("checks").intValue());
+		Assertions.assertEquals(1, repository.findAllByNode(NODE).size());
+	}
+
+	/**
+	 * Simulate the commit of the current transaction.
+	 */
+	private void commit(final int synchronizations) {
+		final List<TransactionSynchronization> all = TransactionSynchronizationManager.getSynchronizations();
+		all.subList(synchronizations, all.size()).forEach(TransactionSynchronization::afterCommit);
+	}
+
+	@Test
+	public void flushRetention() {
+		final HealthRollup old = new HealthRollup();
+		old.setNode(nodeRepository.findOne(NODE));
+		old.setPeriod(DateUtils.addDays(new Date(), -31));
+		repository.saveAndFlush(old);
+		history.flush();
+		Assertions.assertEquals(0, repository.findAllByNode(NODE).size());
+	}
+
+	@Test
+	public void forget() {
+		history.record(TOOL, NODE, EventIndex.toKey(NODE), 10, NodeStatus.UP, null);
+		history.record(TOOL, NODE, EventIndex.toKey(1), 10, NodeStatus.UP, null);
+		history.forgetSubscription(1);
+		Assertions.assertEquals(1, history.getLatency().get(TOOL).get("checks").intValue());
+		history.forgetNode("service:bt");
+		Assertions.assertTrue(history.getLatency().isEmpty());
+	}
+}
@@ -0,0 +1,246 @@
+package org.ligoj.app.resource.node;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import javax.transaction.Transactional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractAppTest;
+import org.ligoj.app.api.NodeStatus;
+import org.ligoj.app.dao.EventRepository;
+import org.ligoj.app.dao.NodeRepository;
+import org.ligoj.app.dao.NodeScheduleRepository;
+import org.ligoj.app.model.ClusterLease;
+import org.ligoj.app.model.DelegateNode;
+import org.ligoj.app.model.Event;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.NodeSchedule;
+import org.ligoj.app.model.Parameter;
+import org.ligoj.app.model.ParameterValue;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.bootstrap.core.SpringUtils;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * Test class of {@link NodeHealthScheduler}
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+public class NodeHealthSchedulerTest extends AbstractAppTest {
+
+	@Autowired
+	private EventResource eventResource;
+
+	@Autowired
+	private NodeHealthScheduler scheduler;
+
+	@Autowired
+	private NodeScheduleRepository repository;
+
+	@Autowired
+	private NodeRepository nodeRepository;
+
+	@Autowired
+	private EventRepository eventRepository;
+
+	@Autowired
+	private NodeResource nodeResource;
+
+	@Autowired
+	private ClusterCoordinator cluster;
+
+	private NodeResource resource;
+
+	@BeforeEach
+	public void prepare() throws IOException {
+		persistEntities("csv", new Class[] { Node.class, Parameter.class, Project.class, Subscription.class,
+				ParameterValue.class, Event.class, DelegateNode.class }, StandardCharsets.UTF_8.name());
+		persistSystemEntities();
+		eventResource.refreshLastEvents();
+	}
+
+	@AfterEach
+	public void clearProperties() {
+		System.clearProperty(NodeHealthScheduler.ADAPTIVE);
+		System.clearProperty(NodeHealthScheduler.INTERVAL);
+		System.clearProperty(NodeHealthScheduler.INTERVAL_MIN);
+		System.clearProperty(NodeHealthScheduler.INTERVAL_MAX);
+		System.clearProperty(NodeHealthScheduler.JITTER);
+		System.clearProperty(NodeHealthScheduler.TICK_SIZE);
+		System.clearProperty(ClusterCoordinator.ENABLED);
+		System.clearProperty(ClusterCoordinator.INSTANCE);
+		cluster.heartbeat();
+		SpringUtils.setSharedApplicationContext(applicationContext);
+	}
+
+	/**
+	 * Replace the node resource by a mock answering UP to each check.
+	 */
+	private void mockNodeResource() {
+		resource = Mockito.mock(NodeResource.class);
+		Mockito.when(resource.checkNodeStatusAsync(ArgumentMatchers.any()))
+				.thenReturn(CompletableFuture.completedFuture(NodeStatus.UP));
+		final ApplicationContext context = Mockito.mock(ApplicationContext.class);
+		Mockito.when(context.getBean(NodeResource.class)).thenReturn(resource);
+		Mockito.when(context.getBean(NodeHealthScheduler.class)).thenReturn(scheduler);
+		SpringUtils.setSharedApplicationContext(context);
+	}
+
+	@Test
+	public void checkDueNodes() {
+		mockNodeResource();
+		final int nodes = nodeRepository.findAllInstance().size();
+
+		// The first checks are spread over the interval
+		Assertions.assertEquals(0, scheduler.checkDueNodes());
+		Assertions.assertEquals(nodes, repository.count());
+		final long now = System.currentTimeMillis();
+		repository.findAll().forEach(s -> {
+			Assertions.assertTrue(s.getNext().getTime() > now - 1000);
+			Assertions.assertTrue(s.getNext().getTime() <= now + 86400000L);
+			Assertions.assertNull(s.getStatus());
+		});
+
+		// All nodes are due, but limited by the tick size
+		repository.findAll().forEach(s -> s.setNext(new Date(now - 1000)));
+		System.setProperty(NodeHealthScheduler.TICK_SIZE, "2");
+		Assertions.assertEquals(2, scheduler.checkDueNodes());
+		System.clearProperty(NodeHealthScheduler.TICK_SIZE);
+		Assertions.assertEquals(nodes - 2, scheduler.checkDueNodes());
+		Mockito.verify(resource, Mockito.times(nodes)).checkNodeHealth(ArgumentMatchers.any(), ArgumentMatchers.eq(NodeStatus.UP));
+		repository.findAll().forEach(s -> {
+			Assertions.assertEquals("UP", s.getStatus());
+			Assertions.assertTrue(s.getNext().getTime() > now);
+		});
+		Assertions.assertEquals(0, scheduler.checkDueNodes());
+	}
+
+	@Test
+	public void checkDueNodesFailure() {
+		mockNodeResource();
+		scheduler.checkDueNodes();
+		final long now = System.currentTimeMillis();
+		repository.findAll().forEach(s -> s.setNext(new Date(now - 1000)));
+		Mockito.doThrow(new IllegalStateException()).when(resource)
+				.checkNodeHealth(ArgumentMatchers.argThat(n -> n.getId().equals("service:bt:jira:6")), ArgumentMatchers.any());
+
+		// The failure of a node does not prevent the other nodes to be completed
+		final int nodes = nodeRepository.findAllInstance().size();
+		Assertions.assertEquals(nodes, scheduler.checkDueNodes());
+		repository.findAll().forEach(s -> Assertions.assertEquals(s.getNode().getId().equals("service:bt:jira:6") ? null : "UP",
+				s.getStatus()));
+	}
+
+	@Test
+	public void checkDueNodesCluster() {
+		mockNodeResource();
+		scheduler.checkDueNodes();
+		final long now = System.currentTimeMillis();
+		repository.findAll().forEach(s -> s.setNext(new Date(now - 1000)));
+		final ClusterLease lease = new ClusterLease();
+		lease.setInstance("junit-b");
+		lease.setExpires(new Date(now + 60000));
+		em.persist(lease);
+		System.setProperty(ClusterCoordinator.ENABLED, "true");
+		System.setProperty(ClusterCoordinator.INSTANCE, "junit-a");
+		cluster.heartbeat();
+		final List<String> owned = cluster.shard(nodeRepository.findAllInstance(), Node::getId).stream().map(Node::getId)
+				.collect(Collectors.toList());
+
+		// Only the nodes owned by this member are checked, up to the tick size
+		System.setProperty(NodeHealthScheduler.TICK_SIZE, "1");
+		Assertions.assertEquals(Math.min(1, owned.size()), scheduler.checkDueNodes());
+		System.clearProperty(NodeHealthScheduler.TICK_SIZE);
+		Assertions.assertEquals(owned.size() - Math.min(1, owned.size()), scheduler.checkDueNodes());
+		final ArgumentCaptor<String> checked = ArgumentCaptor.forClass(String.class);
+		Mockito.verify(resource, Mockito.times(owned.size())).checkNodeStatusAsync(checked.capture());
+		Assertions.assertEquals(new HashSet<>(owned), new HashSet<>(checked.getAllValues()));
+	}
+
+	@Test
+	public void tick() {
+		mockNodeResource();
+		scheduler.tick();
+		Assertions.assertEquals(0, repository.count());
+
+		System.setProperty(NodeHealthScheduler.ADAPTIVE, "true");
+		scheduler.tick();
+		Assertions.assertNotEquals(0, repository.count());
+	}
+
+	@Test
+	public void cronSkipped() {
+		System.setProperty(NodeHealthScheduler.ADAPTIVE, "true");
+		final long events = eventRepository.count();
+		nodeResource.checkNodesStatusScheduler();
+		nodeResource.checkSubscriptionsStatusScheduler();
+		Assertions.assertEquals(events, eventRepository.count());
+	}
+
+	@Test
+	public void reschedule() {
+		System.setProperty(NodeHealthScheduler.INTERVAL_MIN, "100");
+		System.setProperty(NodeHealthScheduler.INTERVAL_MAX, "1000");
+		System.setProperty(NodeHealthScheduler.JITTER, "0");
+		final NodeSchedule schedule = new NodeSchedule();
+		schedule.setInterval(400);
+
+		// First check, the interval is kept
+		scheduler.reschedule(schedule, NodeStatus.UP, 10000);
+		Assertions.assertEquals(400, schedule.getInterval());
+		Assertions.assertEquals(10400, schedule.getNext().getTime());
+		Assertions.assertEquals(10000, schedule.getLast().getTime());
+		Assertions.assertEquals("UP", schedule.getStatus());
+
+		// Stable node
+		scheduler.reschedule(schedule, NodeStatus.UP, 10000);
+		Assertions.assertEquals(600, schedule.getInterval());
+		scheduler.reschedule(schedule, NodeStatus.UP, 10000);
+		scheduler.reschedule(schedule, NodeStatus.UP, 10000);
+		Assertions.assertEquals(1000, schedule.getInterval());
+
+		// Status change and down node
+		scheduler.reschedule(schedule, NodeStatus.DOWN, 10000);
+		Assertions.assertEquals(500, schedule.getInterval());
+		Assertions.assertEquals(1, schedule.getFailures());
+		scheduler.reschedule(schedule, NodeStatus.DOWN, 10000);
+		scheduler.reschedule(schedule, NodeStatus.DOWN, 10000);
+		scheduler.reschedule(schedule, NodeStatus.DOWN, 10000);
+		Assertions.assertEquals(100, schedule.getInterval());
+		Assertions.assertEquals(4, schedule.getFailures());
+		Assertions.assertEquals(10100, schedule.getNext().getTime());
+		scheduler.reschedule(schedule, NodeStatus.UP, 10000);
+		Assertions.assertEquals(100, schedule.getInterval());
+		Assertions.assertEquals(0, schedule.getFailures());
+	}
+
+	@Test
+	public void rescheduleJitter() {
+		System.setProperty(NodeHealthScheduler.JITTER, "10");
+		final NodeSchedule schedule = new NodeSchedule();
+		schedule.setInterval(7200000);
+		scheduler.reschedule(schedule, NodeStatus.UP, 0);
+		Assertions.assertTrue(schedule.getNext().getTime() >= 6480000);
+		Assertions.assertTrue(schedule.getNext().getTime() < 7920000);
+	}
+}
@@ -4,8 +4,11 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.transaction.Transactional;
 import javax.ws.rs.core.UriInfo;
@@ -72,6 +75,9 @@ import net.sf.ehcache.CacheManager;
 @Transactional
 public class NodeResourceTest extends AbstractAppTest {
 
+	@Autowired
+	private EventResource eventResource;
+
 	@Autowired
 	private NodeRepository repository;
 	@Autowired
@@ -97,11 +103,15 @@ public class NodeResourceTest extends AbstractAppTest {
 	@Autowired
 	private EventRepository eventRepository;
 
+	@Autowired
+	private NodeHealthHistory healthHistory;
+
 	@BeforeEach
 	public void prepare() throws IOException {
 		persistEntities("csv", new Class[] { Node.class, Parameter.class, Project.class, Subscription.class,
 				ParameterValue.class, Event.class, DelegateNode.class }, StandardCharsets.UTF_8.name());
 		persistSystemEntities();
+		eventResource.refreshLastEvents();
 	}
 
 	@BeforeEach
@@ -176,6 +186,10 @@ public class NodeResourceTest extends AbstractAppTest {
 		 * nbPreviousEvents + nbNodes x2<br>
 		 */
 		Assertions.assertEquals(eventsCount + 23, eventRepository.count());
+
+		// Sweep is reported
+		Assertions.assertEquals(repository.findAllInstance(DEFAULT_USER).size(), resource.getHealthStatistics().get("last-nodes").intValue());
+		Assertions.assertTrue(resource.getHealthStatistics().get("sweeps") > 0);
 	}
 
 	@Test
@@ -213,6 +227,59 @@ public class NodeResourceTest extends AbstractAppTest {
 		Assertions.assertEquals(eventsCount + 3, eventRepository.count());
 	}
 
+	@Test
+	public void checkNodeStatusTimeout() throws Exception {
+		System.setProperty(NodeHealthExecutor.TIMEOUT, "50");
+		try {
+			mockApplicationContext();
+			prepareEvent();
+			final ToolPlugin sonar = resourceMock.locator.getResourceExpected("service:kpi:sonar:bpr", ToolPlugin.class);
+			final CountDownLatch release = new CountDownLatch(1);
+			Mockito.when(sonar.checkStatus(ArgumentMatchers.anyString(), ArgumentMatchers.anyMap())).thenAnswer(i -> {
+				release.await(5, TimeUnit.SECONDS);
+				return true;
+			});
+			Mockito.when(sonar.checkSubscriptionStatus(ArgumentMatchers.anyInt(), ArgumentMatchers.anyString(),
+					ArgumentMatchers.anyMap())).thenAnswer(i -> {
+						release.await(5, TimeUnit.SECONDS);
+						return new SubscriptionStatusWithData();
+					});
+
+			// The hanging call is recorded as a distinct status, as well for the subscriptions
+			final long eventsCount = eventRepository.count();
+			Assertions.assertEquals(NodeStatus.TIMEOUT, resourceMock.checkNodeStatus("service:kpi:sonar:bpr"));
+			Assertions.assertTrue(eventRepository.count() > eventsCount + 1);
+			Assertions.assertEquals(NodeStatus.TIMEOUT, resourceMock.getNodeStatus("service:kpi:sonar:bpr"));
+
+			final Subscription subscription = new Subscription();
+			subscription.setId(1);
+			subscription.setNode(repository.findOne("service:kpi:sonar:bpr"));
+			Assertions.assertEquals(NodeStatus.TIMEOUT,
+					resourceMock.checkSubscriptionStatus(subscription, Collections.emptyMap()).getStatus());
+			Assertions.assertTrue(resourceMock.getHealthStatistics().get("timeouts") >= 2);
+			release.countDown();
+		} finally {
+			System.clearProperty(NodeHealthExecutor.TIMEOUT);
+		}
+	}
+
+	@Test
+	public void getLatency() throws Exception {
+		mockApplicationContext();
+		prepareEvent();
+		resourceMock.checkNodeStatus("service:kpi:sonar:bpr");
+		resourceMock.checkNodeStatus("service:build:jenkins:bpr");
+
+		// The mocked plug-ins have no key, the node is used as tool
+		final Map<String, Map<String, Long>> latency = resourceMock.getLatency();
+		Assertions.assertTrue(latency.get("service:kpi:sonar:bpr").get("checks") >= 1);
+		Assertions.assertTrue(latency.get("service:build:jenkins:bpr").get("failures") >= 1);
+
+		// Summaries in database
+		healthHistory.flush();
+		Assertions.assertFalse(resourceMock.getHealthHistory("service:kpi:sonar:bpr").isEmpty());
+	}
+
 	@Test
 	public void getNodeStatusSingleNode() throws Exception {
 		mockApplicationContext();
@@ -342,6 +409,104 @@ public class NodeResourceTest extends AbstractAppTest {
 		Assertions.assertEquals(expectedCount, eventRepository.count());
 	}
 
+	@Test
+	public void checkSubscriptionsStatusWaves() throws Exception {
+		System.setProperty(NodeResource.SUBSCRIPTION_WAVE, "1");
+		System.setProperty(NodeResource.SUBSCRIPTION_PARALLELISM, "4");
+		System.setProperty(NodeHealthExecutor.TOOL_PARALLELISM, "1");
+		try {
+			mockApplicationContext();
+			initSpringSecurityContext(DEFAULT_USER);
+			final long eventsCount = prepareSubscriptionsEvent();
+			resourceMock.checkSubscriptionsStatusScheduler();
+
+			// Same result than a single wave
+			final int nbServices = resourceMock.findAll(newUriInfo(), null, "service", null, 0).getData().size();
+			Assertions.assertEquals(eventsCount + nbServices * 2 + 4, eventRepository.count());
+			final Map<String, Long> statistics = resourceMock.getHealthStatistics();
+			Assertions.assertEquals(statistics.get("subscriptions"), statistics.get("subscriptions-checked"));
+			Assertions.assertEquals(0, statistics.get("subscriptions-skipped").longValue());
+		} finally {
+			System.clearProperty(NodeResource.SUBSCRIPTION_WAVE);
+			System.clearProperty(NodeResource.SUBSCRIPTION_PARALLELISM);
+			System.clearProperty(NodeHealthExecutor.TOOL_PARALLELISM);
+		}
+	}
+
+	@Test
+	public void checkSubscriptionsStatusBudget() throws Exception {
+		System.setProperty(NodeResource.SUBSCRIPTION_BUDGET, "1");
+		try {
+			mockApplicationContext();
+			initSpringSecurityContext(DEFAULT_USER);
+			final long eventsCount = prepareSubscriptionsEvent();
+			final ToolPlugin sonar = resourceMock.locator.getResourceExpected("any", ToolPlugin.class);
+			Mockito.when(sonar.checkSubscriptionStatus(ArgumentMatchers.anyInt(), ArgumentMatchers.anyString(), ArgumentMatchers.anyMap()))
+					.thenAnswer(i -> {
+						Thread.sleep(50);
+						return new SubscriptionStatusWithData();
+					});
+			resourceMock.checkSubscriptionsStatusScheduler();
+
+			// Subscriptions of UP nodes are skipped
+			Assertions.assertTrue(eventRepository.count() > eventsCount);
+			Assertions.assertTrue(resourceMock.getHealthStatistics().get("subscriptions-skipped") > 0);
+		} finally {
+			System.clearProperty(NodeResource.SUBSCRIPTION_BUDGET);
+		}
+	}
+
+	@Test
+	public void checkSubscriptionsStatusBulk() throws Exception {
+		mockApplicationContext();
+		initSpringSecurityContext(DEFAULT_USER);
+		final long eventsCount = prepareSubscriptionsEvent();
+		final ToolPlugin sonar = resourceMock.locator.getResourceExpected("any", ToolPlugin.class);
+		Mockito.when(sonar.checkSubscriptionStatuses(ArgumentMatchers.anyString(), ArgumentMatchers.anyMap())).thenAnswer(i -> {
+			final Map<Integer, SubscriptionStatusWithData> statuses = new HashMap<>();
+			i.<Map<Integer, ?>>getArgument(1).keySet().forEach(id -> statuses.put(id, new SubscriptionStatusWithData()));
+			return statuses;
+		});
+		resourceMock.checkSubscriptionsStatusScheduler();
+
+		// Same result than the checks one by one
+		final int nbServices = resourceMock.findAll(newUriInfo(), null, "service", null, 0).getData().size();
+		Assertions.assertEquals(eventsCount + nbServices * 2 + 4, eventRepository.count());
+		Mockito.verify(sonar, Mockito.never()).checkSubscriptionStatus(ArgumentMatchers.anyInt(), ArgumentMatchers.anyString(),
+				ArgumentMatchers.anyMap());
+	}
+
+	@Test
+	public void checkSubscriptionsStatusBulkFailed() throws Exception {
+		mockApplicationContext();
+		initSpringSecurityContext(DEFAULT_USER);
+		final long eventsCount = prepareSubscriptionsEvent();
+		final ToolPlugin sonar = resourceMock.locator.getResourceExpected("any", ToolPlugin.class);
+		Mockito.when(sonar.checkSubscriptionStatuses(ArgumentMatchers.anyString(), ArgumentMatchers.anyMap()))
+				.thenThrow(new IOException());
+		resourceMock.checkSubscriptionsStatusScheduler();
+
+		// The subscriptions are checked one by one
+		final int nbServices = resourceMock.findAll(newUriInfo(), null, "service", null, 0).getData().size();
+		Assertions.assertEquals(eventsCount + nbServices * 2 + 4, eventRepository.count());
+	}
+
+	@Test
+	public void checkNodeHealth() throws Exception {
+		mockApplicationContext();
+		initSpringSecurityContext(DEFAULT_USER);
+		final long eventsCount = prepareSubscriptionsEvent();
+
+		// The node and its subscriptions are checked
+		Assertions.assertEquals(NodeStatus.DOWN, resourceMock.checkNodeHealth(repository.findOneExpected("service:bt:jira:6")));
+		final long count = eventRepository.count();
+		Assertions.assertTrue(count > eventsCount);
+
+		// Same status, no new event
+		Assertions.assertEquals(NodeStatus.DOWN, resourceMock.checkNodeHealth(repository.findOneExpected("service:bt:jira:6")));
+		Assertions.assertEquals(count, eventRepository.count());
+	}
+
 	private long prepareSubscriptionsEvent() throws Exception {
 		// Check previous status
 		final long eventsCount = eventRepository.count();
@@ -970,7 +1135,7 @@ public class NodeResourceTest extends AbstractAppTest {
 	public void nodeStatus() {
 		// dummy test : used to cover enum methods.
 		Assertions.assertEquals(NodeStatus.UP, NodeStatus.valueOf("UP"));
-		Assertions.assertEquals(2, NodeStatus.values().length);
+		Assertions.assertEquals(3, NodeStatus.values().length);
 	}
 
 	@Test
@@ -28,6 +28,19 @@ public class AuthCurlProcessorTest {
 		Assertions.assertEquals("Basic anVuaXQ6cGFzc3dk", request.getHeaders().get(AUTH.WWW_AUTH_RESP));
 	}
 
+	/**
+	 * Asynchronous process with provided and not empty credentials.
+	 */
+	@Test
+	public void processAsync() throws Exception {
+		final CurlRequest request = new CurlRequest("", "", "");
+		final CurlProcessor processor = new AuthCurlProcessor("junit", "passwd");
+
+		// Unsupported method, but the header is added
+		Assertions.assertFalse(processor.processAsync(request).get());
+		Assertions.assertEquals("Basic anVuaXQ6cGFzc3dk", request.getHeaders().get(AUTH.WWW_AUTH_RESP));
+	}
+
 	/**
 	 * Process without provided user.
 	 */
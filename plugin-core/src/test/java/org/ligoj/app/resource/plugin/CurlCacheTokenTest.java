@@ -1,31 +1,38 @@
 package org.ligoj.app.resource.plugin;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
 import org.ligoj.bootstrap.core.validation.ValidationJsonException;
-import org.mockito.Mockito;
-import org.springframework.context.ApplicationContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
 
 /**
  * Test class of {@link CurlCacheToken}
  */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
 public class CurlCacheTokenTest {
 
+	@Autowired
 	private CurlCacheToken cacheToken;
 
 	@BeforeEach
 	@AfterEach
 	public void clearCache() {
+		System.clearProperty(CurlCacheToken.REFRESH_AHEAD);
 		CacheManager.getInstance().getCache("curl-tokens").removeAll();
-		cacheToken = new CurlCacheToken();
-		cacheToken.applicationContext = Mockito.mock(ApplicationContext.class);
-		Mockito.when(cacheToken.applicationContext.getBean(CurlCacheToken.class)).thenReturn(cacheToken);
 	}
 
 	@Test
@@ -33,13 +40,13 @@ public class CurlCacheTokenTest {
 		final Object sync = new Object();
 		AtomicInteger counter = new AtomicInteger();
 		Assertions.assertThrows(ValidationJsonException.class, () -> {
-			Assertions.assertEquals("", cacheToken.getTokenCache(sync, "key", k -> {
+			Assertions.assertEquals("", cacheToken.getToken("key", k -> {
 				counter.incrementAndGet();
 				return null;
 			}, 2, () -> new ValidationJsonException()));
 		});
 		Assertions.assertEquals(2, counter.get());
-		Assertions.assertEquals("ok", cacheToken.getTokenCache(sync, "key", k -> {
+		Assertions.assertEquals("ok", cacheToken.getToken("key", k -> {
 			if (counter.incrementAndGet() == 4) {
 				return "ok";
 			}
@@ -52,7 +59,7 @@ public class CurlCacheTokenTest {
 	public void getTokenCache() {
 		final Object sync = new Object();
 		AtomicInteger counter = new AtomicInteger();
-		Assertions.assertEquals("ok", cacheToken.getTokenCache(sync, "key", k -> {
+		Assertions.assertEquals("ok", cacheToken.getToken("key", k -> {
 			if (counter.incrementAndGet() == 2) {
 				return "ok";
 			}
@@ -60,4 +67,152 @@ public class CurlCacheTokenTest {
 		}, 2, () -> new ValidationJsonException()));
 		Assertions.assertEquals(2, counter.get());
 	}
+
+	@Test
+	public void getTokenCacheSingleFlight() throws InterruptedException {
+		final AtomicInteger counter = new AtomicInteger();
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final long coalesced = CurlCacheToken.getStatistics().get("coalesced");
+		final Thread thread = new Thread(() -> cacheToken.getToken("key-shared", k -> {
+			entered.countDown();
+			await(release);
+			return "ok" + counter.incrementAndGet();
+		}, 2, () -> new ValidationJsonException()));
+		thread.start();
+		Assertions.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+		// Second caller waits for the in-flight load
+		final Thread thread2 = new Thread(() -> Assertions.assertEquals("ok1",
+				cacheToken.getToken("key-shared", k -> "ok" + counter.incrementAndGet(), 2, () -> new ValidationJsonException())));
+		thread2.start();
+		while (CurlCacheToken.getStatistics().get("coalesced") == coalesced) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+		thread.join();
+		thread2.join();
+		Assertions.assertEquals(1, counter.get());
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void getTokenCacheDistinctKeys() throws InterruptedException {
+		final Object sync = new Object();
+		final CountDownLatch loaded = new CountDownLatch(1);
+		final Thread thread = new Thread(() -> cacheToken.getTokenCache(sync, "key1", k -> {
+			await(loaded);
+			return "ok1";
+		}, 1, () -> new ValidationJsonException()));
+		thread.start();
+
+		// Not blocked by the pending load of another key sharing the same monitor
+		Assertions.assertEquals("ok2", cacheToken.getTokenCache(sync, "key2", k -> "ok2", 1, () -> new ValidationJsonException()));
+		loaded.countDown();
+		thread.join();
+	}
+
+	@Test
+	public void getTokenCacheRefreshAhead() {
+		System.setProperty(CurlCacheToken.REFRESH_AHEAD, "0");
+		final AtomicInteger counter = new AtomicInteger();
+		final long refreshes = CurlCacheToken.getStatistics().get("refreshes");
+		Assertions.assertEquals("ok1", cacheToken.getToken("key-refresh", k -> "ok" + counter.incrementAndGet(), 2,
+				() -> new ValidationJsonException()));
+
+		// The token is refreshed by the calling thread, and cached
+		Assertions.assertEquals("ok2", cacheToken.getToken("key-refresh", k -> "ok" + counter.incrementAndGet(), 2,
+				() -> new ValidationJsonException()));
+		Assertions.assertEquals(2, counter.get());
+		Assertions.assertEquals(refreshes + 1, CurlCacheToken.getStatistics().get("refreshes").longValue());
+		Assertions.assertEquals("ok2", CacheManager.getInstance().getCache("curl-tokens").get("key-refresh").getObjectValue());
+	}
+
+	@Test
+	public void getTokenCacheRefreshAheadFailed() {
+		System.setProperty(CurlCacheToken.REFRESH_AHEAD, "0");
+		Assertions.assertEquals("ok", cacheToken.getToken("key-refresh", k -> "ok", 1, () -> new ValidationJsonException()));
+
+		// The cached token is kept
+		Assertions.assertEquals("ok", cacheToken.getToken("key-refresh", k -> null, 1, () -> new ValidationJsonException()));
+	}
+
+	@Test
+	public void getRefreshAhead() {
+		// 80% of the cache time to live
+		Assertions.assertEquals(960000, CurlCacheToken.getRefreshAhead());
+		System.setProperty(CurlCacheToken.REFRESH_AHEAD, "-1");
+		Assertions.assertEquals(-1, CurlCacheToken.getRefreshAhead());
+	}
+
+	@Test
+	public void getTokenCacheSingleFlightError() throws InterruptedException {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final long coalesced = CurlCacheToken.getStatistics().get("coalesced");
+		final AtomicReference<Throwable> error1 = new AtomicReference<>();
+		final Thread thread = new Thread(() -> {
+			try {
+				cacheToken.getToken("key-error", k -> {
+					entered.countDown();
+					await(release);
+					throw new NoClassDefFoundError("junit");
+				}, 1, () -> new ValidationJsonException());
+			} catch (final Throwable e) {
+				error1.set(e);
+			}
+		});
+		thread.start();
+		Assertions.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+		// The waiting caller receives the same error
+		final AtomicReference<Throwable> error2 = new AtomicReference<>();
+		final Thread thread2 = new Thread(() -> {
+			try {
+				cacheToken.getToken("key-error", k -> "ok", 1, () -> new ValidationJsonException());
+			} catch (final Throwable e) {
+				error2.set(e);
+			}
+		});
+		thread2.start();
+		while (CurlCacheToken.getStatistics().get("coalesced") == coalesced) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+		thread.join();
+		thread2.join();
+		Assertions.assertEquals(NoClassDefFoundError.class, error1.get().getClass());
+		Assertions.assertSame(error1.get(), error2.get());
+	}
+
+	@Test
+	public void getTokenCacheEvicted() {
+		cacheToken.registerListener();
+		Assertions.assertEquals("ok", cacheToken.getToken("key-evict", k -> "ok", 1, () -> new ValidationJsonException()));
+		Assertions.assertNotNull(CurlCacheToken.getLoaded("key-evict"));
+
+		// The load time is forgotten with the token cached by the proxy
+		final Ehcache cache = CacheManager.getInstance().getCache("curl-tokens");
+		Assertions.assertTrue(cache.remove("key-evict"));
+		Assertions.assertNull(CurlCacheToken.getLoaded("key-evict"));
+	}
+
+	@Test
+	public void getStatistics() {
+		final long loads = CurlCacheToken.getStatistics().get("loads");
+		final long failures = CurlCacheToken.getStatistics().get("failures");
+		Assertions.assertThrows(ValidationJsonException.class,
+				() -> cacheToken.getToken("key-stats", k -> null, 2, () -> new ValidationJsonException()));
+		Assertions.assertEquals(loads + 2, CurlCacheToken.getStatistics().get("loads").longValue());
+		Assertions.assertEquals(failures + 2, CurlCacheToken.getStatistics().get("failures").longValue());
+		Assertions.assertEquals(8, CurlCacheToken.getStatistics().size());
+	}
+
+	private void await(final CountDownLatch latch) {
+		try {
+			Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
 }
@@ -0,0 +1,158 @@
+package org.ligoj.app.resource.plugin;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.put;
+import static com.github.tomakehurst.wiremock.client.WireMock.putRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.AbstractServerTest;
+import org.ligoj.app.resource.plugin.CurlCircuitBreaker.Circuit;
+import org.ligoj.app.resource.plugin.CurlCircuitBreaker.State;
+
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+
+/**
+ * Test class of {@link CurlCircuitBreaker} and of the retries of {@link CurlProcessor}
+ */
+public class CurlCircuitBreakerTest extends AbstractServerTest {
+
+	@AfterEach
+	public void clearProperties() {
+		System.clearProperty(CurlCircuitBreaker.FAILURES);
+		System.clearProperty(CurlCircuitBreaker.OPEN_DURATION);
+		System.clearProperty(CurlProcessor.RETRY_MAX);
+		CurlCircuitBreaker.reset();
+	}
+
+	@Test
+	public void circuit() {
+		System.setProperty(CurlCircuitBreaker.FAILURES, "2");
+		System.setProperty(CurlCircuitBreaker.OPEN_DURATION, "0");
+		final Circuit circuit = CurlCircuitBreaker.get("http://any:8080/path");
+		Assertions.assertSame(circuit, CurlCircuitBreaker.get("http://any:8080/other"));
+		Assertions.assertEquals("http://any:8080", circuit.getHost());
+		Assertions.assertTrue(circuit.acquire());
+		circuit.failure();
+		Assertions.assertEquals(State.CLOSED, circuit.getState());
+		circuit.failure();
+		Assertions.assertEquals(State.OPEN, CurlCircuitBreaker.getStatistics().get("http://any:8080"));
+
+		// Trial request failed
+		Assertions.assertTrue(circuit.acquire());
+		Assertions.assertEquals(State.HALF_OPEN, circuit.getState());
+		circuit.failure();
+		Assertions.assertEquals(State.OPEN, circuit.getState());
+
+		// Trial request succeed
+		Assertions.assertTrue(circuit.acquire());
+		circuit.success();
+		Assertions.assertEquals(State.CLOSED, circuit.getState());
+	}
+
+	@Test
+	public void circuitOpen() {
+		final Circuit circuit = CurlCircuitBreaker.get("http://any:8080");
+		for (int i = 0; i < CurlCircuitBreaker.DEFAULT_FAILURES; i++) {
+			circuit.failure();
+		}
+		Assertions.assertFalse(circuit.acquire());
+		Assertions.assertEquals(State.OPEN, circuit.getState());
+	}
+
+	@Test
+	public void circuitDisabled() {
+		System.setProperty(CurlCircuitBreaker.FAILURES, "0");
+		final Circuit circuit = CurlCircuitBreaker.get("http://any:8080");
+		for (int i = 0; i < CurlCircuitBreaker.DEFAULT_FAILURES; i++) {
+			circuit.failure();
+		}
+		Assertions.assertTrue(circuit.acquire());
+	}
+
+	@Test
+	public void toHost() {
+		Assertions.assertEquals("http://any:8080", CurlCircuitBreaker.toHost("http://any:8080/path"));
+		Assertions.assertEquals("http://my_host:8080", CurlCircuitBreaker.toHost("http://my_host:8080/path"));
+		Assertions.assertEquals("http://my_host", CurlCircuitBreaker.toHost("http://my_host/path"));
+	}
+
+	@Test
+	public void processTrialError() {
+		System.setProperty(CurlCircuitBreaker.OPEN_DURATION, "0");
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT")));
+		httpServer.start();
+		final Circuit circuit = CurlCircuitBreaker.get("http://localhost:" + MOCK_PORT);
+		for (int i = 0; i < CurlCircuitBreaker.DEFAULT_FAILURES; i++) {
+			circuit.failure();
+		}
+
+		// The trial request fails before being sent, the circuit is opened again
+		Assertions.assertFalse(new CurlProcessor().process(new CurlRequest("UNKNOWN", "http://localhost:" + MOCK_PORT, null)));
+		Assertions.assertEquals(State.OPEN, circuit.getState());
+
+		// The next trial request succeed
+		Assertions.assertEquals("CONTENT", new CurlProcessor().get("http://localhost:" + MOCK_PORT));
+		Assertions.assertEquals(State.CLOSED, circuit.getState());
+	}
+
+	@Test
+	public void processFailFast() {
+		System.setProperty(CurlCircuitBreaker.FAILURES, "1");
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT")));
+
+		// Server is down, the circuit is opened
+		final CurlProcessor processor = new CurlProcessor();
+		Assertions.assertNull(processor.get("http://localhost:" + MOCK_PORT));
+		Assertions.assertEquals(State.OPEN, CurlCircuitBreaker.get("http://localhost:" + MOCK_PORT).getState());
+
+		// Server is up, but the circuit is still open
+		httpServer.start();
+		Assertions.assertNull(new CurlProcessor().get("http://localhost:" + MOCK_PORT));
+		httpServer.verify(0, getRequestedFor(urlPathEqualTo("/")));
+	}
+
+	@Test
+	public void processRetry() {
+		httpServer.stubFor(get(urlPathEqualTo("/")).inScenario("retry").whenScenarioStateIs(Scenario.STARTED)
+				.willReturn(aResponse().withStatus(HttpStatus.SC_SERVICE_UNAVAILABLE)).willSetStateTo("up"));
+		httpServer.stubFor(get(urlPathEqualTo("/")).inScenario("retry").whenScenarioStateIs("up")
+				.willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT")));
+		httpServer.start();
+		Assertions.assertEquals("CONTENT", new CurlProcessor().get("http://localhost:" + MOCK_PORT));
+		httpServer.verify(2, getRequestedFor(urlPathEqualTo("/")));
+		Assertions.assertEquals(State.CLOSED, CurlCircuitBreaker.get("http://localhost:" + MOCK_PORT).getState());
+	}
+
+	@Test
+	public void processRetryExhausted() {
+		System.setProperty(CurlProcessor.RETRY_MAX, "2");
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_SERVICE_UNAVAILABLE)));
+		httpServer.start();
+		Assertions.assertNull(new CurlProcessor().get("http://localhost:" + MOCK_PORT));
+		httpServer.verify(3, getRequestedFor(urlPathEqualTo("/")));
+	}
+
+	@Test
+	public void processNoRetryPut() {
+		httpServer.stubFor(put(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_SERVICE_UNAVAILABLE)));
+		httpServer.start();
+		Assertions.assertFalse(new CurlProcessor().process(new CurlRequest("PUT", "http://localhost:" + MOCK_PORT, "CONTENT")));
+		httpServer.verify(1, putRequestedFor(urlPathEqualTo("/")));
+	}
+
+	@Test
+	public void processNoRetry() {
+		httpServer.stubFor(post(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_SERVICE_UNAVAILABLE)));
+		httpServer.start();
+		Assertions.assertFalse(new CurlProcessor().process(new CurlRequest("POST", "http://localhost:" + MOCK_PORT, "CONTENT")));
+		httpServer.verify(1, postRequestedFor(urlPathEqualTo("/")));
+	}
+}
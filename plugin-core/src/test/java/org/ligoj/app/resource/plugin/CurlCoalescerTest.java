@@ -0,0 +1,129 @@
+package org.ligoj.app.resource.plugin;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.AbstractServerTest;
+
+/**
+ * Test class of {@link CurlCoalescer}
+ */
+public class CurlCoalescerTest extends AbstractServerTest {
+
+	private List<CurlRequest> newRequests(final int count) {
+		final List<CurlRequest> requests = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			final CurlRequest request = new CurlRequest("GET", "http://localhost:" + MOCK_PORT, null);
+			request.setSaveResponse(true);
+			requests.add(request);
+		}
+		return requests;
+	}
+
+	@Test
+	public void coalescing() {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT").withFixedDelay(500)));
+		httpServer.start();
+		final long coalesced = CurlCoalescer.getStatistics().get("coalesced");
+
+		final CurlProcessor processor = new CurlProcessor();
+		processor.setCoalescing(true);
+		final List<CurlRequest> requests = newRequests(5);
+		Assertions.assertTrue(processor.processBatch(5, requests));
+		requests.forEach(r -> Assertions.assertEquals("CONTENT", r.getResponse()));
+		requests.forEach(r -> Assertions.assertEquals(200, r.getStatus()));
+		httpServer.verify(1, getRequestedFor(urlPathEqualTo("/")));
+		Assertions.assertEquals(coalesced + 4, CurlCoalescer.getStatistics().get("coalesced").longValue());
+		Assertions.assertEquals(0, CurlCoalescer.getStatistics().get("in-flight").longValue());
+	}
+
+	@Test
+	public void coalescingDistinctPrincipal() throws InterruptedException {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT").withFixedDelay(200)));
+		httpServer.start();
+		final CurlProcessor processor1 = new AuthCurlProcessor("user1", "secret");
+		processor1.setCoalescing(true);
+		final CurlProcessor processor2 = new AuthCurlProcessor("user2", "secret");
+		processor2.setCoalescing(true);
+		final List<CurlRequest> requests1 = newRequests(1);
+		final List<CurlRequest> requests2 = newRequests(1);
+		final Thread thread = new Thread(() -> processor1.process(requests1));
+		thread.start();
+		Assertions.assertTrue(processor2.process(requests2));
+		thread.join();
+		Assertions.assertEquals("CONTENT", requests1.get(0).getResponse());
+		Assertions.assertEquals("CONTENT", requests2.get(0).getResponse());
+		httpServer.verify(2, getRequestedFor(urlPathEqualTo("/")));
+	}
+
+	@Test
+	public void coalescingDistinctCache() throws InterruptedException {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT").withFixedDelay(200)));
+		httpServer.start();
+		final CurlProcessor processor = new CurlProcessor();
+		processor.setCoalescing(true);
+		final List<CurlRequest> requests1 = newRequests(1);
+		final List<CurlRequest> requests2 = newRequests(1);
+		requests2.get(0).setCache(CurlCachePolicy.NONE);
+		requests1.get(0).setCache(CurlCachePolicy.REVALIDATE);
+		final Thread thread = new Thread(() -> processor.process(requests1));
+		thread.start();
+		Assertions.assertTrue(processor.process(requests2));
+		thread.join();
+		Assertions.assertEquals("CONTENT", requests1.get(0).getResponse());
+		Assertions.assertEquals("CONTENT", requests2.get(0).getResponse());
+		httpServer.verify(2, getRequestedFor(urlPathEqualTo("/")));
+	}
+
+	@Test
+	public void coalescingTimeout() throws InterruptedException {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT").withFixedDelay(1000)));
+		httpServer.start();
+		final CurlProcessor processor = new CurlProcessor();
+		processor.setCoalescing(true);
+		final List<CurlRequest> requests1 = newRequests(1);
+		final List<CurlRequest> requests2 = newRequests(1);
+		requests2.get(0).setTimeout(100);
+		final Thread thread = new Thread(() -> processor.process(requests1));
+		thread.start();
+		while (CurlCoalescer.getStatistics().get("in-flight") == 0) {
+			Thread.sleep(10);
+		}
+
+		// Only the follower fails
+		final long start = System.currentTimeMillis();
+		Assertions.assertFalse(processor.process(requests2));
+		Assertions.assertTrue(System.currentTimeMillis() - start < 800);
+		Assertions.assertNull(requests2.get(0).getResponse());
+		thread.join();
+		Assertions.assertEquals("CONTENT", requests1.get(0).getResponse());
+		httpServer.verify(1, getRequestedFor(urlPathEqualTo("/")));
+	}
+
+	@Test
+	public void noCoalescing() {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT").withFixedDelay(200)));
+		httpServer.start();
+		Assertions.assertTrue(new CurlProcessor().processBatch(3, newRequests(3)));
+		httpServer.verify(3, getRequestedFor(urlPathEqualTo("/")));
+	}
+
+	@Test
+	public void executeFailed() {
+		Assertions.assertThrows(IOException.class, () -> CurlCoalescer.execute("GET key\n", null, () -> {
+			throw new IOException();
+		}));
+		Assertions.assertThrows(IOException.class, () -> CurlCoalescer.execute("GET key\n", null, () -> {
+			throw new IllegalStateException();
+		}));
+	}
+}
@@ -0,0 +1,86 @@
+package org.ligoj.app.resource.plugin;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+
+import java.util.Map;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.pool.PoolStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.AbstractServerTest;
+
+/**
+ * Test class of {@link CurlConnectionPool}
+ */
+public class CurlConnectionPoolTest extends AbstractServerTest {
+
+	@AfterEach
+	public void clearProperties() {
+		System.clearProperty(CurlConnectionPool.IDLE_TIMEOUT);
+		System.clearProperty(CurlConnectionPool.KEEP_ALIVE);
+		CurlConnectionPool.evict();
+	}
+
+	@Test
+	public void getConnectionManager() {
+		Assertions.assertSame(CurlConnectionPool.getConnectionManager(CurlConnectionPool.DEFAULT_POOL),
+				CurlConnectionPool.getConnectionManager(CurlConnectionPool.DEFAULT_POOL));
+	}
+
+	@Test
+	public void reuseConnection() {
+		System.clearProperty("http.keepAlive");
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT")));
+		httpServer.start();
+
+		// The first processor is closed, not the shared pool
+		Assertions.assertEquals("CONTENT", new CurlProcessor().get("http://localhost:" + MOCK_PORT));
+		Assertions.assertEquals("CONTENT", new CurlProcessor().get("http://localhost:" + MOCK_PORT));
+
+		final Map<String, PoolStats> statistics = CurlConnectionPool.getStatistics();
+		final PoolStats total = statistics.get(CurlConnectionPool.DEFAULT_POOL);
+		Assertions.assertEquals(0, total.getLeased());
+		Assertions.assertEquals(0, total.getPending());
+		Assertions.assertEquals(1, total.getAvailable());
+		Assertions.assertTrue(statistics.keySet().stream().anyMatch(k -> k.endsWith("http://localhost:" + MOCK_PORT)));
+
+		// Idle connections are closed
+		System.setProperty(CurlConnectionPool.IDLE_TIMEOUT, "0");
+		CurlConnectionPool.evict();
+		Assertions.assertEquals(0, CurlConnectionPool.getStatistics().get(CurlConnectionPool.DEFAULT_POOL).getAvailable());
+	}
+
+	@Test
+	public void noKeepAlive() {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT")));
+		httpServer.start();
+
+		// Connection is not released in the pool
+		Assertions.assertEquals("CONTENT", new CurlProcessor().get("http://localhost:" + MOCK_PORT));
+		final PoolStats total = CurlConnectionPool.getStatistics().get(CurlConnectionPool.DEFAULT_POOL);
+		Assertions.assertEquals(0, total.getLeased());
+		Assertions.assertEquals(0, total.getAvailable());
+	}
+
+	@Test
+	public void keepAliveStrategy() {
+		final BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		Assertions.assertEquals(30000, CurlConnectionPool.KEEP_ALIVE_STRATEGY.getKeepAliveDuration(response, null));
+		System.setProperty(CurlConnectionPool.KEEP_ALIVE, "10000");
+		Assertions.assertEquals(10000, CurlConnectionPool.KEEP_ALIVE_STRATEGY.getKeepAliveDuration(response, null));
+
+		// Server duration
+		response.addHeader("Keep-Alive", "timeout=5");
+		Assertions.assertEquals(5000, CurlConnectionPool.KEEP_ALIVE_STRATEGY.getKeepAliveDuration(response, null));
+
+		// Bounded server duration
+		response.setHeader("Keep-Alive", "timeout=50");
+		Assertions.assertEquals(10000, CurlConnectionPool.KEEP_ALIVE_STRATEGY.getKeepAliveDuration(response, null));
+	}
+}
@@ -0,0 +1,69 @@
+package org.ligoj.app.resource.plugin;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.resource.plugin.CurlDeadlineScheduler.Deadline;
+
+/**
+ * Test class of {@link CurlDeadlineScheduler}
+ */
+public class CurlDeadlineSchedulerTest {
+
+	@Test
+	public void scheduleNoTimeout() {
+		final Map<String, Long> statistics = CurlDeadlineScheduler.getStatistics();
+		CurlDeadlineScheduler.schedule(null, () -> Assertions.fail("Unexpected abort")).complete();
+		Assertions.assertEquals(statistics, CurlDeadlineScheduler.getStatistics());
+	}
+
+	@Test
+	public void complete() {
+		final long completed = CurlDeadlineScheduler.getStatistics().get("completed");
+		final AtomicInteger aborts = new AtomicInteger();
+		final Deadline deadline = CurlDeadlineScheduler.schedule(10000, aborts::incrementAndGet);
+		deadline.complete();
+
+		// Second completion is ignored
+		deadline.complete();
+		Assertions.assertEquals(0, aborts.get());
+		Assertions.assertEquals(completed + 1, CurlDeadlineScheduler.getStatistics().get("completed").longValue());
+	}
+
+	@Test
+	public void abort() throws InterruptedException {
+		final Map<String, Long> statistics = CurlDeadlineScheduler.getStatistics();
+		final CountDownLatch latch = new CountDownLatch(1);
+		final Deadline deadline = CurlDeadlineScheduler.schedule(10, latch::countDown);
+		Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+		// Completion of an aborted request is ignored
+		deadline.complete();
+		Assertions.assertEquals(statistics.get("aborted") + 1, CurlDeadlineScheduler.getStatistics().get("aborted").longValue());
+		Assertions.assertEquals(statistics.get("completed"), CurlDeadlineScheduler.getStatistics().get("completed"));
+	}
+
+	@Test
+	public void late() throws InterruptedException {
+		final long late = CurlDeadlineScheduler.getStatistics().get("late");
+
+		// The deadline is already reached when the scheduler is busy
+		final CountDownLatch busy = new CountDownLatch(1);
+		CurlDeadlineScheduler.schedule(0, () -> {
+			try {
+				busy.await(5, TimeUnit.SECONDS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		final Deadline deadline = CurlDeadlineScheduler.schedule(10, () -> Assertions.fail("Unexpected abort"));
+		Thread.sleep(50);
+		deadline.complete();
+		busy.countDown();
+		Assertions.assertEquals(late + 1, CurlDeadlineScheduler.getStatistics().get("late").longValue());
+	}
+}
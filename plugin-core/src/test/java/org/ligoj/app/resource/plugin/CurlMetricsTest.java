@@ -0,0 +1,115 @@
+package org.ligoj.app.resource.plugin;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.AbstractServerTest;
+import org.ligoj.app.resource.plugin.CurlMetrics.Histogram;
+
+/**
+ * Test class of {@link CurlMetrics} and {@link CurlResource}
+ */
+public class CurlMetricsTest extends AbstractServerTest {
+
+	private final CurlResource resource = new CurlResource();
+
+	@BeforeEach
+	public void resetMetrics() {
+		resource.resetMetrics();
+	}
+
+	@Test
+	public void histogram() {
+		final Histogram histogram = new Histogram();
+		Assertions.assertEquals(0, histogram.getValueAtPercentile(50));
+		Assertions.assertEquals(0, histogram.getMean(), 0.001);
+		for (int value = 1; value <= 1000; value++) {
+			histogram.record(value);
+		}
+		histogram.record(-1);
+		Assertions.assertEquals(1001, histogram.getCount());
+		Assertions.assertEquals(1000, histogram.getMax());
+		Assertions.assertEquals(500, histogram.getMean(), 1);
+		Assertions.assertEquals(0, histogram.getValueAtPercentile(0));
+		Assertions.assertEquals(500, histogram.getValueAtPercentile(50), 500 * 0.07);
+		Assertions.assertEquals(990, histogram.getValueAtPercentile(99), 990 * 0.07);
+		Assertions.assertEquals(1000, histogram.getValueAtPercentile(100));
+
+		// Exact small values
+		final Histogram small = new Histogram();
+		small.record(3);
+		small.record(17);
+		Assertions.assertEquals(3, small.getValueAtPercentile(50));
+		Assertions.assertEquals(17, small.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void process() {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT")));
+		httpServer.stubFor(post(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_NOT_FOUND)));
+		httpServer.start();
+		final CurlProcessor processor = new CurlProcessor();
+		Assertions.assertEquals("CONTENT", processor.get("http://localhost:" + MOCK_PORT));
+		Assertions.assertFalse(processor.process(new CurlRequest("POST", "http://localhost:" + MOCK_PORT, "DATA")));
+
+		final List<CurlMetricsVo> metrics = resource.getMetrics();
+		Assertions.assertEquals(2, metrics.size());
+		final CurlMetricsVo getMetrics = metrics.get(0);
+		Assertions.assertEquals("http://localhost:" + MOCK_PORT, getMetrics.getHost());
+		Assertions.assertEquals("GET", getMetrics.getMethod());
+		Assertions.assertEquals(1, getMetrics.getCount());
+		Assertions.assertEquals(1, getMetrics.getStatuses().get(200).intValue());
+		Assertions.assertEquals(0, getMetrics.getRequestBytes());
+		Assertions.assertEquals(7, getMetrics.getResponseBytes());
+		Assertions.assertTrue(getMetrics.getP99() > 0);
+		Assertions.assertTrue(getMetrics.getMax() >= getMetrics.getP50());
+		Assertions.assertTrue(getMetrics.getMean() > 0);
+		Assertions.assertEquals(getMetrics.getP50(), getMetrics.getP90(), 0.001);
+
+		final CurlMetricsVo postMetrics = metrics.get(1);
+		Assertions.assertEquals("POST", postMetrics.getMethod());
+		Assertions.assertEquals(1, postMetrics.getStatuses().get(404).intValue());
+		Assertions.assertEquals(4, postMetrics.getRequestBytes());
+	}
+
+	@Test
+	public void processFailure() {
+		final CurlRequest request = new CurlRequest("POST", "http://localhost:" + MOCK_PORT, null);
+		Assertions.assertFalse(new CurlProcessor().process(request));
+		final CurlMetricsVo metrics = resource.getMetrics().get(0);
+		Assertions.assertEquals(1, metrics.getErrors());
+		Assertions.assertEquals(0, metrics.getTimeouts());
+		Assertions.assertEquals(0, metrics.getAborts());
+		Assertions.assertTrue(metrics.getStatuses().isEmpty());
+	}
+
+	@Test
+	public void processAbort() {
+		httpServer.stubFor(post(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withFixedDelay(2000)));
+		httpServer.start();
+		final CurlRequest request = new CurlRequest("POST", "http://localhost:" + MOCK_PORT, null);
+		request.setTimeout(100);
+		Assertions.assertFalse(new CurlProcessor().process(request));
+		Assertions.assertEquals(1, resource.getMetrics().get(0).getAborts());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void getStatistics() {
+		final Map<String, Object> statistics = resource.getStatistics();
+		Assertions.assertEquals(7, statistics.size());
+		Assertions.assertTrue(((Map<String, Long>) statistics.get("deadline")).containsKey("aborted"));
+		Assertions.assertTrue(((Map<String, Long>) statistics.get("cache")).containsKey("hits"));
+		Assertions.assertNotNull(statistics.get("pool"));
+		Assertions.assertNotNull(statistics.get("circuit"));
+	}
+}
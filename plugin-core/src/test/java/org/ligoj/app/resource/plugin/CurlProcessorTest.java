@@ -6,7 +6,9 @@ import static com.github.tomakehurst.wiremock.client.WireMock.post;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.HttpStatus;
 import org.junit.jupiter.api.Assertions;
@@ -130,6 +132,135 @@ public class CurlProcessorTest extends AbstractServerTest {
 		Assertions.assertNull(curlRequest3.getProcessor());
 	}
 
+	@Test
+	public void processAsync() throws Exception {
+		httpServer.stubFor(post(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT")));
+		httpServer.start();
+
+		final CurlProcessor processor = new CurlProcessor();
+
+		// Would succeed
+		final CurlRequest curlRequest1 = new CurlRequest("POST", "http://localhost:" + MOCK_PORT, "CONTENT");
+		curlRequest1.setSaveResponse(true);
+
+		// Would fail
+		final CurlRequest curlRequest2 = new CurlRequest("PUT", "http://localhost:" + MOCK_PORT, "CONTENT");
+		curlRequest2.setSaveResponse(true);
+
+		// Never executed
+		final CurlRequest curlRequest3 = new CurlRequest("POST", "http://localhost:" + MOCK_PORT, "CONTENT");
+		curlRequest3.setSaveResponse(true);
+
+		// Process
+		Assertions.assertFalse(processor.processAsync(curlRequest1, curlRequest2, curlRequest3).get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(curlRequest1.getFuture().get());
+		Assertions.assertFalse(curlRequest2.getFuture().get());
+		Assertions.assertFalse(curlRequest3.getFuture().get());
+		Assertions.assertEquals("CONTENT", curlRequest1.getResponse());
+		Assertions.assertEquals(200, curlRequest1.getStatus());
+		Assertions.assertNull(curlRequest2.getResponse());
+		Assertions.assertEquals(404, curlRequest2.getStatus());
+		Assertions.assertNull(curlRequest3.getResponse());
+		Assertions.assertEquals(0, curlRequest3.getStatus());
+		Assertions.assertSame(processor, curlRequest1.getProcessor());
+		Assertions.assertSame(processor, curlRequest2.getProcessor());
+		Assertions.assertNull(curlRequest3.getProcessor());
+	}
+
+	@Test
+	public void processAsyncCookie() throws Exception {
+		httpServer.stubFor(get(urlPathEqualTo("/login"))
+				.willReturn(aResponse().withStatus(HttpStatus.SC_OK).withHeader("Set-Cookie", "JSESSIONID=SESSION; Path=/")));
+		httpServer.stubFor(get(urlPathEqualTo("/data")).withCookie("JSESSIONID", new EqualToPattern("SESSION"))
+				.willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT")));
+		httpServer.start();
+
+		final CurlProcessor processor = new CurlProcessor();
+		final CurlRequest curlRequest1 = new CurlRequest("GET", "http://localhost:" + MOCK_PORT + "/login", null);
+		final CurlRequest curlRequest2 = new CurlRequest("GET", "http://localhost:" + MOCK_PORT + "/data", null);
+		curlRequest2.setSaveResponse(true);
+		Assertions.assertTrue(processor.processAsync(Arrays.asList(curlRequest1, curlRequest2)).get(5, TimeUnit.SECONDS));
+		Assertions.assertEquals("CONTENT", curlRequest2.getResponse());
+		Assertions.assertEquals(1, curlRequest2.getCounter());
+
+		// Cookies are shared with the blocking executions
+		Assertions.assertEquals("CONTENT", processor.get("http://localhost:" + MOCK_PORT + "/data"));
+	}
+
+	@Test
+	public void processAsyncTimeout() throws Exception {
+		httpServer.stubFor(post(urlPathEqualTo("/timeout"))
+				.willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT").withFixedDelay(4000)));
+		httpServer.start();
+
+		final long start = System.currentTimeMillis();
+		final CurlRequest curlRequest = new CurlRequest("POST", "http://localhost:" + MOCK_PORT + "/timeout", "CONTENT");
+		curlRequest.setTimeout(500);
+		curlRequest.setSaveResponse(true);
+		Assertions.assertFalse(new CurlProcessor().processAsync(curlRequest).get(5, TimeUnit.SECONDS));
+		Assertions.assertNull(curlRequest.getResponse());
+		Assertions.assertTrue(System.currentTimeMillis() - start <= 1000);
+	}
+
+	@Test
+	public void processAsyncFailed() throws Exception {
+		final CurlRequest curlRequest = new CurlRequest("GET", "http://localhost:" + MOCK_PORT, null);
+		Assertions.assertFalse(new CurlProcessor().processAsync(curlRequest).get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void processBatch() throws Exception {
+		httpServer.stubFor(post(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT").withFixedDelay(500)));
+		httpServer.start();
+
+		final CurlProcessor processor = new CurlProcessor();
+		final CurlRequest curlRequest1 = new CurlRequest("POST", "http://localhost:" + MOCK_PORT, "CONTENT");
+		curlRequest1.setSaveResponse(true);
+		final CurlRequest curlRequest2 = new CurlRequest("POST", "http://localhost:" + MOCK_PORT, "CONTENT");
+		curlRequest2.setSaveResponse(true);
+
+		// Would fail
+		final CurlRequest curlRequest3 = new CurlRequest("PUT", "http://localhost:" + MOCK_PORT, "CONTENT");
+
+		// Dependent requests
+		final CurlRequest curlRequest4 = new CurlRequest("POST", "http://localhost:" + MOCK_PORT, "CONTENT").dependsOn(curlRequest1,
+				curlRequest2);
+		curlRequest4.setSaveResponse(true);
+		final CurlRequest curlRequest5 = new CurlRequest("POST", "http://localhost:" + MOCK_PORT, "CONTENT").dependsOn(curlRequest3);
+
+		// Process, the independent requests are sent concurrently
+		final long start = System.currentTimeMillis();
+		Assertions.assertFalse(processor.processBatch(3, curlRequest1, curlRequest2, curlRequest3, curlRequest4, curlRequest5));
+		Assertions.assertTrue(System.currentTimeMillis() - start < 1500);
+		Assertions.assertTrue(curlRequest1.getFuture().get());
+		Assertions.assertTrue(curlRequest2.getFuture().get());
+		Assertions.assertFalse(curlRequest3.getFuture().get());
+		Assertions.assertTrue(curlRequest4.getFuture().get());
+		Assertions.assertFalse(curlRequest5.getFuture().get());
+		Assertions.assertEquals("CONTENT", curlRequest4.getResponse());
+		Assertions.assertEquals(404, curlRequest3.getStatus());
+		Assertions.assertEquals(0, curlRequest5.getStatus());
+		Assertions.assertEquals(4, curlRequest5.getCounter());
+		Assertions.assertNull(curlRequest5.getProcessor());
+	}
+
+	@Test
+	public void processBatchSucceed() {
+		httpServer.stubFor(post(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT")));
+		httpServer.start();
+		final CurlRequest curlRequest1 = new CurlRequest("POST", "http://localhost:" + MOCK_PORT, "CONTENT");
+		final CurlRequest curlRequest2 = new CurlRequest("POST", "http://localhost:" + MOCK_PORT, "CONTENT").dependsOn(curlRequest1);
+		Assertions.assertTrue(new CurlProcessor().processBatch(1, Arrays.asList(curlRequest1, curlRequest2)));
+	}
+
+	@Test
+	public void processBatchInvalidDependency() {
+		final CurlRequest curlRequest1 = new CurlRequest("POST", "http://localhost:" + MOCK_PORT, "CONTENT");
+		final CurlRequest curlRequest2 = new CurlRequest("POST", "http://localhost:" + MOCK_PORT, "CONTENT");
+		curlRequest1.dependsOn(curlRequest2);
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new CurlProcessor().processBatch(2, curlRequest1, curlRequest2));
+	}
+
 	@Test
 	public void processTimeout() {
 		httpServer.stubFor(post(urlPathEqualTo("/success")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT")));
@@ -0,0 +1,234 @@
+package org.ligoj.app.resource.plugin;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.AbstractServerTest;
+
+/**
+ * Test class of {@link CurlResponseCache}
+ */
+public class CurlResponseCacheTest extends AbstractServerTest {
+
+	private static final Path DIRECTORY = Paths.get("target/test-classes/home-test/cache");
+
+	@BeforeEach
+	public void prepareCache() throws IOException {
+		CurlResponseCache.setDirectory(DIRECTORY);
+		CurlResponseCache.clear();
+	}
+
+	@AfterEach
+	public void clearProperties() {
+		System.clearProperty(CurlResponseCache.MAX_BODY);
+		System.clearProperty(CurlResponseCache.MAX_DISK_ENTRIES);
+		System.clearProperty(CurlCircuitBreaker.FAILURES);
+		CurlCircuitBreaker.reset();
+	}
+
+	/**
+	 * Return a request recording whether the response given to the callback is a stale one.
+	 */
+	private CurlRequest newStaleRequest(final AtomicBoolean stale) {
+		final CurlRequest request = new CurlRequest("GET", "http://localhost:" + MOCK_PORT, null, (r, response) -> {
+			stale.set(CurlResponseCache.isStale(response));
+			return true;
+		});
+		request.setCache(CurlCachePolicy.STALE_ON_ERROR);
+		return request;
+	}
+
+	private CurlRequest newRequest(final CurlCachePolicy policy) {
+		final CurlRequest request = new CurlRequest("GET", "http://localhost:" + MOCK_PORT, null);
+		request.setSaveResponse(true);
+		request.setCache(policy);
+		return request;
+	}
+
+	private void stubValidated() {
+		httpServer.stubFor(get(urlPathEqualTo("/"))
+				.willReturn(aResponse().withStatus(HttpStatus.SC_OK).withHeader("ETag", "\"v1\"").withBody("CONTENT")));
+		httpServer.stubFor(get(urlPathEqualTo("/")).withHeader("If-None-Match", equalTo("\"v1\"")).atPriority(1)
+				.willReturn(aResponse().withStatus(HttpStatus.SC_NOT_MODIFIED)));
+		httpServer.start();
+	}
+
+	@Test
+	public void revalidate() throws IOException {
+		stubValidated();
+		final long hits = CurlResponseCache.getStatistics().get("hits");
+		final CurlProcessor processor = new CurlProcessor();
+		final CurlRequest request1 = newRequest(CurlCachePolicy.REVALIDATE);
+		Assertions.assertTrue(processor.process(request1));
+		Assertions.assertEquals("CONTENT", request1.getResponse());
+
+		// Served from the cache after a conditional request
+		final CurlRequest request2 = newRequest(CurlCachePolicy.REVALIDATE);
+		Assertions.assertTrue(processor.process(request2));
+		Assertions.assertEquals("CONTENT", request2.getResponse());
+		Assertions.assertEquals(200, request2.getStatus());
+		Assertions.assertEquals(hits + 1, CurlResponseCache.getStatistics().get("hits").longValue());
+		httpServer.verify(1, getRequestedFor(urlPathEqualTo("/")).withHeader("If-None-Match", equalTo("\"v1\"")));
+
+		// Disk tier
+		Assertions.assertEquals(1, Files.list(DIRECTORY).count());
+	}
+
+	@Test
+	public void revalidateFromDisk() throws IOException {
+		stubValidated();
+		Assertions.assertTrue(new CurlProcessor().process(newRequest(CurlCachePolicy.REVALIDATE)));
+
+		// Only the disk tier is available
+		CurlResponseCache.setDirectory(null);
+		CurlResponseCache.clear();
+		CurlResponseCache.setDirectory(DIRECTORY);
+		final CurlRequest request = newRequest(CurlCachePolicy.REVALIDATE);
+		Assertions.assertTrue(new CurlProcessor().process(request));
+		Assertions.assertEquals("CONTENT", request.getResponse());
+		httpServer.verify(1, getRequestedFor(urlPathEqualTo("/")).withHeader("If-None-Match", equalTo("\"v1\"")));
+	}
+
+	@Test
+	public void noCache() {
+		stubValidated();
+		final CurlProcessor processor = new CurlProcessor();
+		Assertions.assertTrue(processor.process(newRequest(CurlCachePolicy.NONE)));
+		Assertions.assertTrue(processor.process(newRequest(CurlCachePolicy.REVALIDATE)));
+		httpServer.verify(0, getRequestedFor(urlPathEqualTo("/")).withHeader("If-None-Match", equalTo("\"v1\"")));
+	}
+
+	@Test
+	public void staleOnError() {
+		stubValidated();
+		final CurlProcessor processor = new CurlProcessor();
+		Assertions.assertTrue(processor.process(newRequest(CurlCachePolicy.STALE_ON_ERROR)));
+		httpServer.stop();
+
+		// Remote is down, the failure is recorded and the stale entry is served
+		System.setProperty(CurlCircuitBreaker.FAILURES, "2");
+		final CurlRequest request = newRequest(CurlCachePolicy.STALE_ON_ERROR);
+		Assertions.assertTrue(processor.process(request));
+		Assertions.assertEquals("CONTENT", request.getResponse());
+		Assertions.assertEquals(CurlCircuitBreaker.State.OPEN, CurlCircuitBreaker.get("http://localhost:" + MOCK_PORT).getState());
+		final AtomicBoolean stale = new AtomicBoolean();
+		Assertions.assertTrue(processor.process(newStaleRequest(stale)));
+		Assertions.assertTrue(stale.get());
+
+		// Without stale fallback
+		Assertions.assertFalse(processor.process(newRequest(CurlCachePolicy.REVALIDATE)));
+	}
+
+	@Test
+	public void staleOnOpenCircuit() {
+		stubValidated();
+		final CurlProcessor processor = new CurlProcessor();
+		Assertions.assertTrue(processor.process(newRequest(CurlCachePolicy.STALE_ON_ERROR)));
+		final CurlCircuitBreaker.Circuit circuit = CurlCircuitBreaker.get("http://localhost:" + MOCK_PORT);
+		for (int i = 0; i < CurlCircuitBreaker.DEFAULT_FAILURES; i++) {
+			circuit.failure();
+		}
+
+		// The circuit is open, the stale entry is served without requesting the remote server
+		final CurlRequest request = newRequest(CurlCachePolicy.STALE_ON_ERROR);
+		Assertions.assertTrue(processor.process(request));
+		Assertions.assertEquals("CONTENT", request.getResponse());
+		httpServer.verify(1, getRequestedFor(urlPathEqualTo("/")));
+
+		// Without stale fallback
+		Assertions.assertFalse(processor.process(newRequest(CurlCachePolicy.REVALIDATE)));
+		httpServer.verify(1, getRequestedFor(urlPathEqualTo("/")));
+	}
+
+	@Test
+	public void staleOnServerError() {
+		stubValidated();
+		final CurlProcessor processor = new CurlProcessor();
+		Assertions.assertTrue(processor.process(newRequest(CurlCachePolicy.STALE_ON_ERROR)));
+		httpServer.stubFor(get(urlPathEqualTo("/")).atPriority(0).willReturn(aResponse().withStatus(HttpStatus.SC_BAD_GATEWAY)));
+
+		System.setProperty(CurlCircuitBreaker.FAILURES, "2");
+		final AtomicBoolean stale = new AtomicBoolean();
+		Assertions.assertTrue(processor.process(newStaleRequest(stale)));
+		Assertions.assertTrue(stale.get());
+
+		// The failed status is retried and recorded
+		httpServer.verify(3, getRequestedFor(urlPathEqualTo("/")));
+		Assertions.assertEquals(CurlCircuitBreaker.State.OPEN, CurlCircuitBreaker.get("http://localhost:" + MOCK_PORT).getState());
+		Assertions.assertFalse(processor.process(newRequest(CurlCachePolicy.REVALIDATE)));
+	}
+
+	@Test
+	public void cookieNotCached() {
+		stubValidated();
+		final CurlProcessor processor = new CurlProcessor();
+		final BasicClientCookie cookie = new BasicClientCookie("JSESSIONID", "session");
+		cookie.setDomain("localhost");
+		cookie.setPath("/");
+		processor.cookieStore.addCookie(cookie);
+		Assertions.assertTrue(processor.process(newRequest(CurlCachePolicy.STALE_ON_ERROR)));
+		Assertions.assertEquals(0, CurlResponseCache.getStatistics().get("entries").longValue());
+	}
+
+	@Test
+	public void authenticatedNotOnDisk() throws IOException {
+		stubValidated();
+		final CurlRequest request = newRequest(CurlCachePolicy.REVALIDATE);
+		request.getHeaders().put("Authorization", "Basic any");
+		Assertions.assertTrue(new CurlProcessor().process(request));
+		Assertions.assertEquals(1, CurlResponseCache.getStatistics().get("entries").longValue());
+		Assertions.assertFalse(Files.exists(DIRECTORY));
+	}
+
+	@Test
+	public void diskEviction() throws IOException {
+		System.setProperty(CurlResponseCache.MAX_DISK_ENTRIES, "1");
+		httpServer.stubFor(get(urlPathEqualTo("/other")).willReturn(aResponse().withStatus(HttpStatus.SC_OK)
+				.withHeader("ETag", "\"v2\"").withHeader("Content-Encoding", "identity").withBody("OTHER")));
+		stubValidated();
+		final CurlProcessor processor = new CurlProcessor();
+		Assertions.assertTrue(processor.process(newRequest(CurlCachePolicy.REVALIDATE)));
+		final CurlRequest request = new CurlRequest("GET", "http://localhost:" + MOCK_PORT + "/other", null);
+		request.setCache(CurlCachePolicy.REVALIDATE);
+		Assertions.assertTrue(processor.process(request));
+		Assertions.assertEquals(1, Files.list(DIRECTORY).count());
+
+		// The content encoding is not kept, the body is already decoded
+		Assertions.assertFalse(new String(Files.readAllBytes(Files.list(DIRECTORY).findFirst().get())).contains("identity"));
+	}
+
+	@Test
+	public void notCacheable() {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT")));
+		httpServer.start();
+		final CurlRequest request = newRequest(CurlCachePolicy.REVALIDATE);
+		Assertions.assertTrue(new CurlProcessor().process(request));
+		Assertions.assertEquals("CONTENT", request.getResponse());
+		Assertions.assertEquals(0, CurlResponseCache.getStatistics().get("entries").longValue());
+	}
+
+	@Test
+	public void tooLarge() {
+		System.setProperty(CurlResponseCache.MAX_BODY, "3");
+		stubValidated();
+		final CurlRequest request = newRequest(CurlCachePolicy.REVALIDATE);
+		Assertions.assertTrue(new CurlProcessor().process(request));
+		Assertions.assertEquals("CONTENT", request.getResponse());
+		Assertions.assertEquals(0, CurlResponseCache.getStatistics().get("entries").longValue());
+	}
+}
@@ -0,0 +1,115 @@
+package org.ligoj.app.resource.plugin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Map;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.AbstractServerTest;
+import org.ligoj.app.resource.plugin.CurlSslRegistry.TrustPolicy;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+
+/**
+ * Test class of {@link CurlSslRegistry}
+ */
+public class CurlSslRegistryTest extends AbstractServerTest {
+
+	private static final int HTTPS_PORT = MOCK_PORT + 10;
+
+	private SSLServerSocket server;
+
+	@AfterEach
+	public void closeHttps() throws IOException {
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	/**
+	 * Start a HTTPS server using the WireMock self-signed certificate and answering "CONTENT" to each request.
+	 */
+	private void startHttps() throws IOException, GeneralSecurityException {
+		final KeyStore keyStore = KeyStore.getInstance("JKS");
+		try (InputStream input = WireMockServer.class.getResourceAsStream("/keystore")) {
+			keyStore.load(input, "password".toCharArray());
+		}
+		final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keyStore, "password".toCharArray());
+		final SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagers.getKeyManagers(), null, null);
+		server = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(HTTPS_PORT);
+		final Thread thread = new Thread(() -> {
+			while (!server.isClosed()) {
+				try (Socket socket = server.accept()) {
+					final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+					while (StringUtils.isNotEmpty(reader.readLine())) {
+						// Consume the request headers
+					}
+					socket.getOutputStream().write(
+							"HTTP/1.1 200 OK\r\nContent-Length: 7\r\nConnection: close\r\n\r\nCONTENT".getBytes(StandardCharsets.US_ASCII));
+				} catch (final IOException e) {
+					// Closed server or failed handshake
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Test
+	public void getSslContext() {
+		Assertions.assertSame(CurlSslRegistry.getSslContext("TLS", TrustPolicy.TRUST_ALL),
+				CurlSslRegistry.getSslContext("TLS", TrustPolicy.TRUST_ALL));
+		Assertions.assertNotSame(CurlSslRegistry.getSslContext("TLS", TrustPolicy.TRUST_ALL),
+				CurlSslRegistry.getSslContext("TLS", TrustPolicy.SYSTEM));
+		Assertions.assertSame(CurlSslRegistry.getSocketFactory("TLS", TrustPolicy.SYSTEM),
+				CurlSslRegistry.getSocketFactory("TLS", TrustPolicy.SYSTEM));
+		Assertions.assertEquals(1000,
+				CurlSslRegistry.getSslContext("TLS", TrustPolicy.TRUST_ALL).getClientSessionContext().getSessionCacheSize());
+	}
+
+	@Test
+	public void getSslContextFailed() {
+		Assertions.assertThrows(IllegalStateException.class, () -> {
+			CurlSslRegistry.getSslContext("none", TrustPolicy.TRUST_ALL);
+		});
+	}
+
+	@Test
+	public void resumeSession() throws IOException, GeneralSecurityException {
+		startHttps();
+		final Map<String, Long> before = CurlSslRegistry.getStatistics();
+
+		// Each request opens a new connection, closed by the server
+		Assertions.assertEquals("CONTENT", new CurlProcessor().get("https://localhost:" + HTTPS_PORT));
+		Assertions.assertEquals("CONTENT", new CurlProcessor().get("https://localhost:" + HTTPS_PORT));
+		final Map<String, Long> after = CurlSslRegistry.getStatistics();
+		Assertions.assertEquals(before.get("handshakes") + 2, after.get("handshakes").longValue());
+		Assertions.assertTrue(after.get("resumed") > before.get("resumed"));
+		Assertions.assertEquals(7, after.size());
+	}
+
+	@Test
+	public void handshakeFailed() {
+		httpServer.start();
+		final long failures = CurlSslRegistry.getStatistics().get("failures");
+
+		// Plain HTTP server
+		Assertions.assertNull(new CurlProcessor().get("https://localhost:" + MOCK_PORT));
+		Assertions.assertTrue(CurlSslRegistry.getStatistics().get("failures") > failures);
+	}
+}
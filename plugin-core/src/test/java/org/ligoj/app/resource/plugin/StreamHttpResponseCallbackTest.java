@@ -0,0 +1,137 @@
+package org.ligoj.app.resource.plugin;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.AbstractServerTest;
+import org.mockito.Mockito;
+
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Test class of {@link StreamHttpResponseCallback}
+ */
+public class StreamHttpResponseCallbackTest extends AbstractServerTest {
+
+	private boolean process(final HttpResponseCallback callback) {
+		return new CurlProcessor(callback).process(new CurlRequest("GET", "http://localhost:" + MOCK_PORT, null));
+	}
+
+	@Test
+	public void stream() {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("CONTENT")));
+		httpServer.start();
+		Assertions.assertTrue(process(StreamHttpResponseCallback
+				.stream((request, input) -> "CONTENT".equals(IOUtils.toString(input, StandardCharsets.UTF_8)))));
+	}
+
+	@Test
+	public void reader() {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK)
+				.withHeader("Content-Type", "text/plain; charset=ISO-8859-1").withBody("CONTÉNT".getBytes(StandardCharsets.ISO_8859_1))));
+		httpServer.start();
+		Assertions.assertTrue(process(StreamHttpResponseCallback.reader((request, reader) -> "CONTÉNT".equals(IOUtils.toString(reader)))));
+	}
+
+	@Test
+	public void json() {
+		httpServer.stubFor(get(urlPathEqualTo("/"))
+				.willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("[{\"name\":\"job1\"},{\"name\":\"job2\"}]")));
+		httpServer.start();
+		final List<String> names = new ArrayList<>();
+		Assertions.assertTrue(process(StreamHttpResponseCallback.json((request, parser) -> {
+			while (parser.nextToken() != null) {
+				if (parser.getCurrentToken() == JsonToken.FIELD_NAME && "name".equals(parser.getCurrentName())) {
+					names.add(parser.nextTextValue());
+				}
+			}
+			return true;
+		})));
+		Assertions.assertEquals("[job1, job2]", names.toString());
+	}
+
+	@Test
+	public void xml() {
+		httpServer.stubFor(get(urlPathEqualTo("/"))
+				.willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("<jobs><job>job1</job><job>job2</job></jobs>")));
+		httpServer.start();
+		final List<String> names = new ArrayList<>();
+		Assertions.assertTrue(process(StreamHttpResponseCallback.xml((request, reader) -> {
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT && "job".equals(reader.getLocalName())) {
+					names.add(reader.getElementText());
+				}
+			}
+			return true;
+		})));
+		Assertions.assertEquals("[job1, job2]", names.toString());
+	}
+
+	@Test
+	public void xmlInvalid() {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody("<jobs>")));
+		httpServer.start();
+		Assertions.assertFalse(process(StreamHttpResponseCallback.xml((request, reader) -> {
+			while (reader.hasNext()) {
+				reader.next();
+			}
+			return true;
+		})));
+	}
+
+	@Test
+	public void notAccepted() {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_NOT_FOUND).withBody("ERROR")));
+		httpServer.start();
+		Assertions.assertFalse(process(StreamHttpResponseCallback.stream((request, input) -> true)));
+	}
+
+	@Test
+	public void noContent() {
+		httpServer.stubFor(get(urlPathEqualTo("/")).willReturn(aResponse().withStatus(HttpStatus.SC_NO_CONTENT)));
+		httpServer.start();
+		Assertions.assertTrue(process(StreamHttpResponseCallback.stream((request, input) -> false)));
+	}
+
+	@Test
+	public void noEntity() throws Exception {
+		final CloseableHttpResponse response = Mockito.mock(CloseableHttpResponse.class);
+		Mockito.when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_NOT_FOUND, null));
+		final CurlRequest request = new CurlRequest("GET", "http://localhost:" + MOCK_PORT, null);
+
+		// Same as the default callback
+		Assertions.assertTrue(new DefaultHttpResponseCallback().onResponse(request, response));
+		Assertions.assertTrue(StreamHttpResponseCallback.stream((r, input) -> false).onResponse(request, response));
+	}
+
+	@Test
+	public void readError() throws Exception {
+		final DefaultHttpResponseCallback callback = new DefaultHttpResponseCallback();
+		Assertions.assertEquals("ERROR", callback.readError(
+				new InputStreamEntity(new ByteArrayInputStream("ERROR".getBytes(StandardCharsets.UTF_8)), ContentType.TEXT_PLAIN)));
+
+		// Bounded error
+		final String error = callback.readError(new InputStreamEntity(
+				new ByteArrayInputStream(StringUtils.repeat('E', 10000).getBytes(StandardCharsets.UTF_8)), ContentType.TEXT_PLAIN));
+		Assertions.assertEquals(DefaultHttpResponseCallback.MAX_ERROR_BODY + 3, error.length());
+		Assertions.assertTrue(error.endsWith("E..."));
+	}
+}
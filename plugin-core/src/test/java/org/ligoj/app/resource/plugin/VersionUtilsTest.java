@@ -1,15 +1,142 @@
 package org.ligoj.app.resource.plugin;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Map;
 
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.ligoj.app.AbstractServerTest;
 
 /**
  * Test class of {@link VersionUtils}
  */
-public class VersionUtilsTest {
+public class VersionUtilsTest extends AbstractServerTest {
+
+	private static final String VERSIONS = "[{\"name\":\"1.0\",\"released\":true,\"releaseDate\":\"2018-01-01\"},"
+			+ "{\"name\":\"1.2\",\"released\":true,\"releaseDate\":\"2018-03-01\",\"self\":{\"any\":[1]}},"
+			+ "{\"name\":\"1.3\",\"released\":false},{\"name\":\"1.1\",\"released\":true,\"releaseDate\":\"2018-02-01\"}]";
+
+	@AfterEach
+	public void clearProperties() {
+		System.clearProperty(VersionUtils.CACHE_TTL);
+		System.clearProperty(VersionUtils.CACHE_REFRESH);
+		System.clearProperty(VersionUtils.CACHE_MAX_ENTRIES);
+	}
+
+	private String stubVersions(final String project, final String body) {
+		httpServer.stubFor(get(urlPathEqualTo("/rest/api/2/project/" + project + "/versions"))
+				.willReturn(aResponse().withStatus(HttpStatus.SC_OK).withBody(body)));
+		return "http://localhost:" + MOCK_PORT;
+	}
+
+	@Test
+	public void getLatestReleasedVersionStream() throws IOException {
+		final String server = stubVersions("PRJ", VERSIONS);
+		httpServer.start();
+		final VersionUtils utils = new VersionUtils();
+		Assertions.assertEquals("1.2", utils.getLatestReleasedVersion(server, "PRJ").getName());
+
+		// Served from the cache
+		Assertions.assertEquals("1.2", utils.getLatestReleasedVersionName(server, "PRJ"));
+		httpServer.verify(1, getRequestedFor(urlPathEqualTo("/rest/api/2/project/PRJ/versions")));
+	}
+
+	@Test
+	public void getLatestReleasedVersionExpired() throws IOException {
+		System.setProperty(VersionUtils.CACHE_TTL, "0");
+		final String server = stubVersions("PRJ", VERSIONS);
+		httpServer.start();
+		final VersionUtils utils = new VersionUtils();
+		Assertions.assertEquals("1.2", utils.getLatestReleasedVersionName(server, "PRJ"));
+		Assertions.assertEquals("1.2", utils.getLatestReleasedVersionName(server, "PRJ"));
+		httpServer.verify(2, getRequestedFor(urlPathEqualTo("/rest/api/2/project/PRJ/versions")));
+	}
+
+	@Test
+	public void getLatestReleasedVersionRefresh() throws IOException, InterruptedException {
+		System.setProperty(VersionUtils.CACHE_REFRESH, "0");
+		final String server = stubVersions("PRJ", VERSIONS);
+		httpServer.start();
+		final VersionUtils utils = new VersionUtils();
+		Assertions.assertEquals("1.2", utils.getLatestReleasedVersionName(server, "PRJ"));
+
+		// The cached version is returned, and refreshed in background
+		stubVersions("PRJ", "[{\"name\":\"2.0\",\"released\":true,\"releaseDate\":\"2018-04-01\"}]");
+		Assertions.assertEquals("1.2", utils.getLatestReleasedVersionName(server, "PRJ"));
+		String version = null;
+		for (int i = 0; i < 500 && !"2.0".equals(version); i++) {
+			Thread.sleep(10);
+			version = utils.getLatestReleasedVersionName(server, "PRJ");
+		}
+		Assertions.assertEquals("2.0", version);
+	}
+
+	@Test
+	public void getLatestReleasedVersionEvicted() throws IOException {
+		System.setProperty(VersionUtils.CACHE_MAX_ENTRIES, "1");
+		stubVersions("PRJ", VERSIONS);
+		final String server = stubVersions("PRJ2", "[]");
+		httpServer.start();
+		final VersionUtils utils = new VersionUtils();
+		Assertions.assertEquals("1.2", utils.getLatestReleasedVersionName(server, "PRJ"));
+		Assertions.assertNull(utils.getLatestReleasedVersionName(server, "PRJ2"));
+
+		// The least recently used version has been evicted
+		Assertions.assertEquals("1.2", utils.getLatestReleasedVersionName(server, "PRJ"));
+		httpServer.verify(2, getRequestedFor(urlPathEqualTo("/rest/api/2/project/PRJ/versions")));
+	}
+
+	@Test
+	public void getLatestReleasedVersionNotArray() {
+		final String server = stubVersions("PRJ", "{}");
+		httpServer.start();
+		Assertions.assertThrows(IOException.class, () -> new VersionUtils().getLatestReleasedVersion(server, "PRJ"));
+	}
+
+	@Test
+	public void getLatestReleasedVersionInvalid() {
+		final String server = stubVersions("PRJ", "[{\"name\":");
+		httpServer.start();
+		final VersionUtils utils = new VersionUtils();
+		Assertions.assertThrows(IOException.class, () -> utils.getLatestReleasedVersion(server, "PRJ"));
+		final int requests = httpServer.findAll(getRequestedFor(urlPathEqualTo("/rest/api/2/project/PRJ/versions"))).size();
+
+		// Failures are not cached
+		Assertions.assertThrows(IOException.class, () -> utils.getLatestReleasedVersionName(server, "PRJ"));
+		Assertions.assertTrue(httpServer.findAll(getRequestedFor(urlPathEqualTo("/rest/api/2/project/PRJ/versions"))).size() > requests);
+	}
+
+	@Test
+	public void getLatestReleasedVersions() {
+		stubVersions("PRJ", VERSIONS);
+		final String server = stubVersions("PRJ2", "[]");
+		httpServer.start();
+		final Map<String, AtlassianVersion> versions = new VersionUtils().getLatestReleasedVersions(server,
+				Arrays.asList("PRJ", "PRJ2", "PRJ"), 4);
+		Assertions.assertEquals(2, versions.size());
+		Assertions.assertEquals("1.2", versions.get("PRJ").getName());
+		Assertions.assertTrue(versions.containsKey("PRJ2"));
+		Assertions.assertNull(versions.get("PRJ2"));
+	}
+
+	@Test
+	public void getLatestReleasedVersionsFailed() {
+		stubVersions("PRJ", VERSIONS);
+		final String server = stubVersions("PRJ2", "{}");
+		httpServer.start();
+		final Map<String, AtlassianVersion> versions = new VersionUtils().getLatestReleasedVersions(server, Arrays.asList("PRJ", "PRJ2"), 2);
+		Assertions.assertEquals("1.2", versions.get("PRJ").getName());
+		Assertions.assertNull(versions.get("PRJ2"));
+	}
 
 	@Test
 	public void getLatestReleasedVersion() throws IOException {
@@ -3,8 +3,14 @@ package org.ligoj.app.resource.plugin;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.xpath.XPathExpressionException;
 
 import org.apache.commons.io.IOUtils;
@@ -56,6 +62,79 @@ public class XmlUtilsTest {
 						.getLength());
 	}
 
+	@Test
+	public void getXpathCached() throws XPathExpressionException {
+		Assertions.assertSame(resource.compile("root/tag1"), resource.compile("root/tag1"));
+		Assertions.assertNotSame(resource.compile("root/tag1"), resource.compile("root/tag2"));
+
+		// Not shared with another thread
+		Assertions.assertNotSame(resource.compile("root/tag1"), CompletableFuture.supplyAsync(() -> {
+			try {
+				return resource.compile("root/tag1");
+			} catch (final XPathExpressionException e) {
+				throw new IllegalStateException(e);
+			}
+		}).join());
+	}
+
+	@Test
+	public void getXpathCacheEvicted() throws InterruptedException {
+		System.setProperty(XmlUtils.XPATH_CACHE_SIZE, "1");
+		final AtomicBoolean evicted = new AtomicBoolean();
+
+		// New thread with an empty cache
+		final Thread thread = new Thread(() -> {
+			try {
+				final Object compiled = resource.compile("root/tag1");
+				resource.compile("root/tag2");
+				evicted.set(compiled != resource.compile("root/tag1"));
+			} catch (final XPathExpressionException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		thread.start();
+		thread.join();
+		System.clearProperty(XmlUtils.XPATH_CACHE_SIZE);
+		Assertions.assertTrue(evicted.get());
+	}
+
+	@Test
+	public void parseReused() throws SAXException, IOException, ParserConfigurationException {
+		Assertions.assertThrows(SAXException.class, () -> resource.parse("<root>"));
+
+		// The builder is still usable after a failure
+		Assertions.assertEquals("value", resource.getTagText(resource.parse("<root><tag>value</tag></root>"), "tag"));
+	}
+
+	@Test
+	public void parseDoctype() {
+		Assertions.assertThrows(SAXException.class, () -> resource.parse("<!DOCTYPE root [<!ENTITY e \"x\">]><root>&e;</root>"));
+	}
+
+	@Test
+	public void getTagValues() throws XMLStreamException {
+		final Map<String, List<String>> values = resource.getTagValues(
+				"<root>any <tag1>value1</tag1> some <tag2>value<b>2</b><![CDATA[<>]]></tag2> some <tag1>value3</tag1></root>", "tag1", "tag2",
+				"tag3");
+		Assertions.assertEquals(2, values.size());
+		Assertions.assertEquals("[value1, value3]", values.get("tag1").toString());
+		Assertions.assertEquals("[value2<>]", values.get("tag2").toString());
+	}
+
+	@Test
+	public void getTagValuesNested() throws XMLStreamException {
+		Assertions.assertEquals("{tag1=[ab]}", resource.getTagValues("<root><tag1>a<tag1>b</tag1></tag1></root>", "tag1").toString());
+		Assertions.assertTrue(resource.getTagValues((String) null, "tag1").isEmpty());
+		Assertions.assertTrue(resource.getTagValues(IOUtils.toInputStream("<root/>", StandardCharsets.UTF_8), Collections.emptyList()).isEmpty());
+	}
+
+	@Test
+	public void getTagValuesInvalid() {
+		Assertions.assertThrows(XMLStreamException.class, () -> resource.getTagValues("<root><tag1>", "tag1"));
+		Assertions.assertThrows(XMLStreamException.class,
+				() -> resource.getTagValues("<!DOCTYPE root [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><root><tag1>&e;</tag1></root>", "tag1"));
+	}
+
 	@Test
 	public void getTagsLink() throws SAXException, IOException, ParserConfigurationException {
 		NodeList tags = resource.getTags(null, "tag1");
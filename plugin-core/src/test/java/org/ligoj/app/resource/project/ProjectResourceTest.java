@@ -22,6 +22,7 @@ import org.ligoj.app.iam.model.DelegateType;
 import org.ligoj.app.model.Event;
 import org.ligoj.app.model.Project;
 import org.ligoj.app.model.Subscription;
+import org.ligoj.app.resource.node.EventResource;
 import org.ligoj.app.resource.AbstractOrgTest;
 import org.ligoj.app.resource.subscription.SubscriptionVo;
 import org.ligoj.bootstrap.core.json.TableItem;
@@ -43,6 +44,9 @@ public class ProjectResourceTest extends AbstractOrgTest {
 
 	private ProjectResource resource;
 
+	@Autowired
+	private EventResource eventResource;
+
 	@Autowired
 	private ProjectRepository repository;
 
@@ -222,6 +226,7 @@ public class ProjectResourceTest extends AbstractOrgTest {
 	public void findByIdWithSubscription() throws IOException {
 		final Project byName = repository.findByName("gStack");
 		persistEntities("csv", new Class[] { Event.class }, StandardCharsets.UTF_8.name());
+		eventResource.refreshLastEvents();
 
 		initSpringSecurityContext("alongchu");
 		final ProjectVo project = resource.findById(byName.getId());
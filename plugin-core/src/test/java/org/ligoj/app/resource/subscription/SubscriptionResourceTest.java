@@ -44,6 +44,7 @@ import org.ligoj.app.model.Parameter;
 import org.ligoj.app.model.Project;
 import org.ligoj.app.model.Subscription;
 import org.ligoj.app.model.TaskSampleSubscription;
+import org.ligoj.app.resource.node.EventResource;
 import org.ligoj.app.resource.AbstractOrgTest;
 import org.ligoj.app.resource.ServicePluginLocator;
 import org.ligoj.app.resource.node.EventVo;
@@ -69,6 +70,9 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 @Transactional
 public class SubscriptionResourceTest extends AbstractOrgTest {
 
+	@Autowired
+	private EventResource eventResource;
+
 	@Autowired
 	protected ProjectRepository projectRepository;
 
@@ -96,6 +100,7 @@ public class SubscriptionResourceTest extends AbstractOrgTest {
 	public void prepareSubscription() throws IOException {
 		persistEntities("csv", new Class[] { Event.class, DelegateNode.class }, StandardCharsets.UTF_8.name());
 		persistSystemEntities();
+		eventResource.refreshLastEvents();
 		this.subscription = getSubscription("MDA");
 	}
 
@@ -687,6 +692,7 @@ public class SubscriptionResourceTest extends AbstractOrgTest {
 	@Test
 	public void refreshStatuses() throws IOException {
 		persistEntities("csv", new Class[] { Event.class }, StandardCharsets.UTF_8.name());
+		eventResource.refreshLastEvents();
 		final int projectId = projectRepository.findByName("MDA").getId();
 		final Map<Integer, EventVo> subscriptionStatus = resource.getStatusByProject(projectId);
 		Assertions.assertEquals(1, subscriptionStatus.size());
@@ -708,6 +714,7 @@ public class SubscriptionResourceTest extends AbstractOrgTest {
 	@Test
 	public void getStatusByProject() throws IOException {
 		persistEntities("csv", new Class[] { Event.class }, StandardCharsets.UTF_8.name());
+		eventResource.refreshLastEvents();
 		final int projectId = projectRepository.findByName("gStack").getId();
 		final Map<Integer, EventVo> subscriptionStatus = resource.getStatusByProject(projectId);
 		Assertions.assertEquals(1, subscriptionStatus.size());